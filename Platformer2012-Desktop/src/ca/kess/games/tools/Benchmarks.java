@@ -0,0 +1,42 @@
+package ca.kess.games.tools;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import com.badlogic.gdx.Application;
+import com.badlogic.gdx.Gdx;
+
+/**
+ * What the benchmarks share.
+ */
+class Benchmarks {
+    private Benchmarks() {
+    }
+
+    /**
+     * Entities and the level log through Gdx.app, which there isn't one of outside the game. Give them one
+     * that drops it.
+     */
+    static void stubApplication() {
+        Gdx.app = (Application) Proxy.newProxyInstance(Application.class.getClassLoader(), new Class<?>[] { Application.class },
+                new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] methodArgs) {
+                return null;
+            }
+        });
+    }
+
+    /**
+     * How many bytes this thread has allocated, or -1 if the JVM can't say.
+     */
+    static long allocatedBytes() {
+        Object threads = ManagementFactory.getThreadMXBean();
+        if(threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,122 @@
+package ca.kess.games.tools;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Random;
+
+import ca.kess.games.Constants;
+import ca.kess.games.entities.PhysicalEntity;
+import ca.kess.games.entities.PhysicsStore;
+import ca.kess.games.physics.SpatialHashGrid;
+import ca.kess.games.util.QuadTree;
+import ca.kess.games.world.EntityList;
+
+/**
+ * Times removing entities from a level's entity list, for a few sizes of level, and prints the cost per
+ * removal. It should be about the same whatever the number of entities.
+ *
+ * Usage:
+ *   EntityBenchmark [removals per tick]
+ *
+ * Each tick, random entities are removed, and the list is updated, which also takes them out of the
+ * physics store, the broadphase and the entity tree like in a level. They are put back before the next
+ * tick. For comparison, the same entities are removed from a LinkedList, the way the level used to keep
+ * them. Where the JVM can say, the bytes allocated by the entity list are shown too, which should be none.
+ */
+public class EntityBenchmark {
+    private static final int[] SIZES = { 1000, 10000, 40000 };
+    private static final int LEVEL_SIZE = 512;
+    private static final int TICKS = 2000;
+
+    public static void main(String[] args) {
+        int removals = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+
+        Benchmarks.stubApplication();
+
+        System.out.println(String.format("%d removals per tick", removals));
+        // Once through first, so the JIT has compiled everything before it is timed.
+        for(int pass = 0; pass < 2; ++pass) {
+            for(int size : SIZES) {
+                run(size, removals, pass == 1);
+            }
+        }
+    }
+
+    private static void run(int size, int removals, boolean report) {
+        final PhysicsStore physics = new PhysicsStore();
+        final SpatialHashGrid broadphase = new SpatialHashGrid(Constants.BROADPHASE_CELL_SIZE, Constants.BROADPHASE_BUCKETS);
+        final QuadTree tree = new QuadTree(0, 0, LEVEL_SIZE, 9);
+        EntityList list = new EntityList(new EntityList.Listener() {
+            @Override
+            public void onEntityAdded(PhysicalEntity entity) {
+                physics.setActive(entity, true);
+                broadphase.insert(entity);
+                tree.insert(entity);
+            }
+            @Override
+            public void onEntityRemoved(PhysicalEntity entity) {
+                physics.setActive(entity, false);
+                broadphase.remove(entity);
+                tree.remove(entity);
+            }
+        });
+        LinkedList<PhysicalEntity> linkedList = new LinkedList<PhysicalEntity>();
+
+        Random random = new Random(1);
+        PhysicalEntity[] entities = new PhysicalEntity[size];
+        for(int i = 0; i < size; ++i) {
+            entities[i] = new PhysicalEntity() {
+                @Override
+                public void recycle() {
+                }
+            };
+            entities[i].attachPhysics(physics);
+            entities[i].setPosition(random.nextFloat() * (LEVEL_SIZE - 1), random.nextFloat() * (LEVEL_SIZE - 1));
+            entities[i].setSize(0.5f, 0.5f);
+            list.add(entities[i]);
+            linkedList.add(entities[i]);
+        }
+        list.update();
+
+        long[] times = new long[TICKS];
+        long[] linkedTimes = new long[TICKS];
+        long allocated = 0;
+        PhysicalEntity[] removed = new PhysicalEntity[removals];
+        for(int tick = 0; tick < TICKS; ++tick) {
+            for(int i = 0; i < removals; ++i) {
+                removed[i] = entities[random.nextInt(size)];
+            }
+            long before = Benchmarks.allocatedBytes();
+            long start = System.nanoTime();
+            for(int i = 0; i < removals; ++i) {
+                list.remove(removed[i]);
+            }
+            list.update();
+            times[tick] = System.nanoTime() - start;
+            long after = Benchmarks.allocatedBytes();
+            // Asking how much has been allocated allocates a little too, so take that off.
+            allocated += after - before - (Benchmarks.allocatedBytes() - after);
+
+            start = System.nanoTime();
+            for(int i = 0; i < removals; ++i) {
+                linkedList.remove(removed[i]);
+            }
+            linkedTimes[tick] = System.nanoTime() - start;
+
+            for(int i = 0; i < removals; ++i) {
+                if(!list.contains(removed[i])) {
+                    list.add(removed[i]);
+                    linkedList.add(removed[i]);
+                }
+            }
+            list.update();
+        }
+        if(!report) return;
+        Arrays.sort(times);
+        Arrays.sort(linkedTimes);
+        System.out.println(String.format("%d entities: p50 %.0f ns, p99 %.0f ns per removal, %s; LinkedList p50 %.0f ns per removal",
+                size, (double) times[TICKS / 2] / removals, (double) times[TICKS * 99 / 100] / removals,
+                Benchmarks.allocatedBytes() < 0 ? "allocation unknown" : allocated + " bytes allocated",
+                (double) linkedTimes[TICKS / 2] / removals));
+    }
+}
@@ -0,0 +1,182 @@
+package ca.kess.games.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import ca.kess.games.Constants;
+import ca.kess.games.world.ChunkSource;
+import ca.kess.games.world.LevelWriter;
+import ca.kess.games.world.MappedChunkSource;
+import ca.kess.games.world.PixmapChunkSource;
+import ca.kess.games.world.SolidityMap;
+import ca.kess.games.world.TileSet;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.GdxNativesLoader;
+import com.badlogic.gdx.utils.IntArray;
+
+/**
+ * Compiles map images into level files that the game can memory map (see LevelFile).
+ *
+ * Usage:
+ *   LevelCompiler map.png map.lvl [--spawn type x y]...
+ *   LevelCompiler --benchmark map.png map.lvl [runs]
+ *   LevelCompiler --load map.png|map.lvl
+ *
+ * The benchmark compares how long it takes to get a level ready to play from the image against opening the
+ * compiled file, the way the game does: make its chunk source (PixmapChunkSource decodes the whole image,
+ * MappedChunkSource maps the file), read the solidity map and the lights and fluids, and read the chunks
+ * around the start of the level. Each load is timed on its own in a new JVM (with --load), so it is what a
+ * player starting the game would see, not a load that the JIT and the file cache have already warmed up. It
+ * runs headless: the tiles' ids are all a load needs, so their textures aren't loaded.
+ */
+public class LevelCompiler {
+    // What a --load run prints its time after, for the benchmark to find among whatever else it logs.
+    private static final String LOAD_TIME = "Load time (ns): ";
+
+    public static void main(String[] args) throws IOException {
+        if(args.length >= 3 && args[0].equals("--benchmark")) {
+            int runs = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+            benchmark(new File(args[1]), new File(args[2]), runs);
+            return;
+        }
+        if(args.length == 2 && args[0].equals("--load")) {
+            load(new File(args[1]));
+            return;
+        }
+        if(args.length < 2) {
+            System.err.println("Usage: LevelCompiler map.png map.lvl [--spawn type x y]...");
+            System.err.println("       LevelCompiler --benchmark map.png map.lvl [runs]");
+            System.err.println("       LevelCompiler --load map.png|map.lvl");
+            System.exit(1);
+        }
+
+        LevelWriter writer = createWriter(ImageIO.read(new File(args[0])));
+        for(int i = 2; i + 3 < args.length && args[i].equals("--spawn"); i += 4) {
+            writer.addSpawn(Integer.parseInt(args[i + 1]), Float.parseFloat(args[i + 2]), Float.parseFloat(args[i + 3]));
+        }
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(args[1]));
+        try {
+            writer.write(out);
+        } finally {
+            out.close();
+        }
+        System.out.println("Wrote " + args[1]);
+    }
+
+    private static LevelWriter createWriter(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] colors = new int[width * height];
+        for(int y = 0; y < height; ++y) {
+            for(int x = 0; x < width; ++x) {
+                // Images are stored top row first, but the world has y going up.
+                colors[(height - y - 1) * width + x] = image.getRGB(x, y) & 0xFFFFFF;
+            }
+        }
+        return new LevelWriter(width, height, Constants.CHUNK_SIZE, colors);
+    }
+
+    private static void benchmark(File image, File level, int runs) throws IOException {
+        long[] imageTimes = new long[runs];
+        long[] levelTimes = new long[runs];
+        for(int i = 0; i < runs; ++i) {
+            imageTimes[i] = timeLoad(image);
+            levelTimes[i] = timeLoad(level);
+        }
+        report("Image", imageTimes);
+        report("Level", levelTimes);
+    }
+
+    private static void report(String name, long[] times) {
+        Arrays.sort(times);
+        System.out.println(String.format("%s: median %.3f ms, fastest %.3f ms, slowest %.3f ms over %d loads", name,
+                times[times.length / 2] / 1e6, times[0] / 1e6, times[times.length - 1] / 1e6, times.length));
+    }
+
+    // Load the level in a new JVM, so nothing is already loaded, compiled or cached in the process, and return
+    // how long it took.
+    private static long timeLoad(File file) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                LevelCompiler.class.getName(), "--load", file.getPath());
+        builder.redirectErrorStream(true);
+        Process process = builder.start();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        StringBuilder output = new StringBuilder();
+        long nanos = -1;
+        try {
+            String line;
+            while((line = reader.readLine()) != null) {
+                if(line.startsWith(LOAD_TIME)) {
+                    nanos = Long.parseLong(line.substring(LOAD_TIME.length()).trim());
+                } else {
+                    output.append(line).append('\n');
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        try {
+            process.waitFor();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if(nanos < 0) {
+            throw new IOException("Couldn't time loading " + file + ":\n" + output);
+        }
+        return nanos;
+    }
+
+    // Load the level the way WorldLevel does, and print how long it took.
+    private static void load(File file) {
+        Benchmarks.stubApplication();
+        // Pixmap decodes images natively. The game has loaded the natives long before it loads a level, so
+        // this isn't part of the time either.
+        GdxNativesLoader.load();
+        // Both kinds of level need the tile set, so it isn't part of the time. Only the ids matter here, so
+        // it doesn't need the textures, or a window to load them in.
+        TileSet tileSet = TileSet.withoutGraphics();
+        FileHandle handle = new FileHandle(file);
+
+        long start = System.nanoTime();
+        ChunkSource source;
+        if(file.getName().endsWith(".lvl")) {
+            source = new MappedChunkSource(handle, tileSet);
+        } else {
+            source = new PixmapChunkSource(handle, tileSet);
+        }
+        SolidityMap solidity = new SolidityMap(source.getWidth(), source.getHeight());
+        source.readSolidity(solidity);
+        // The lights and fluids of the whole level, and the chunks around the start of it, which have to be
+        // in memory before it can be played.
+        int size = Constants.CHUNK_SIZE;
+        IntArray features = new IntArray();
+        for(int cy = 0; cy * size < source.getHeight(); ++cy) {
+            for(int cx = 0; cx * size < source.getWidth(); ++cx) {
+                features.clear();
+                source.readFeatures(cx, cy, features);
+            }
+        }
+        short[] chunk = new short[size * size];
+        int chunks = Constants.CHUNK_LOAD_RADIUS * 2;
+        for(int cy = 0; cy <= Math.min(chunks, (source.getHeight() - 1) / size); ++cy) {
+            for(int cx = 0; cx <= Math.min(chunks, (source.getWidth() - 1) / size); ++cx) {
+                source.readChunk(cx, cy, chunk);
+            }
+        }
+        long nanos = System.nanoTime() - start;
+
+        source.dispose();
+        System.out.println(LOAD_TIME + nanos);
+    }
+}
@@ -0,0 +1,151 @@
+package ca.kess.games.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import ca.kess.games.ai.NavGraph;
+import ca.kess.games.ai.NavPath;
+import ca.kess.games.world.SolidityMap;
+import ca.kess.games.world.TileType;
+
+/**
+ * Times route finding on a level's navigation graph, and prints the latency percentiles.
+ *
+ * Usage:
+ *   PathBenchmark map.png [queries]
+ *   PathBenchmark --random width height [queries]
+ *
+ * The random level is a floor with platforms scattered over it, for seeing how things scale on maps bigger
+ * than the ones we have. Each query is between two random spots over floor, and is timed searching every
+ * segment, and searching over clusters. Queries that find a route and ones that don't are reported
+ * separately, since a search that fails has to look at everything it can reach. Cached queries go over the
+ * first CACHED_QUERIES pairs again and again, like a group of actors chasing the same few targets.
+ */
+public class PathBenchmark {
+    // Fewer than the route cache holds.
+    private static final int CACHED_QUERIES = 200;
+
+    public static void main(String[] args) throws IOException {
+        SolidityMap solidity;
+        int queryArg;
+        if(args.length >= 3 && args[0].equals("--random")) {
+            solidity = randomLevel(Integer.parseInt(args[1]), Integer.parseInt(args[2]), new Random(1));
+            queryArg = 3;
+        } else if(args.length >= 1) {
+            solidity = readLevel(ImageIO.read(new File(args[0])));
+            queryArg = 1;
+        } else {
+            System.err.println("Usage: PathBenchmark map.png [queries]");
+            System.err.println("       PathBenchmark --random width height [queries]");
+            System.exit(1);
+            return;
+        }
+        int queries = args.length > queryArg ? Integer.parseInt(args[queryArg]) : 2000;
+
+        long start = System.nanoTime();
+        NavGraph graph = NavGraph.forActors(solidity);
+        System.out.println(String.format("Graph: %d x %d tiles, %d segments, %d edges, %d portals, built in %.1f ms",
+                solidity.getWidth(), solidity.getHeight(), graph.getSegmentCount(), graph.getEdgeCount(),
+                graph.getPortalCount(), (System.nanoTime() - start) / 1e6));
+
+        if(graph.getSegmentCount() == 0) {
+            System.err.println("There is nowhere to stand in the level");
+            System.exit(1);
+        }
+
+        float[] ends = pickEnds(graph, solidity, queries, new Random(2));
+        // Once through first, so the JIT has compiled the searches before anything is timed.
+        run("Warm up", graph, ends, false, false);
+        run("Warm up", graph, ends, true, false);
+        run("Flat", graph, ends, false, false);
+        run("Clusters", graph, ends, true, false);
+        run("Cached", graph, ends, true, true);
+    }
+
+    // Time each query. Unless cached is set, the cache is emptied before every query.
+    private static void run(String name, NavGraph graph, float[] ends, boolean clusters, boolean cached) {
+        graph.setUseClusters(clusters);
+        int queries = ends.length / 4;
+        long[] found = new long[queries];
+        long[] missed = new long[queries];
+        int foundCount = 0;
+        int missedCount = 0;
+        for(int i = 0; i < queries; ++i) {
+            int query = cached ? i % Math.min(queries, CACHED_QUERIES) : i;
+            if(!cached) graph.clearPathCache();
+            long start = System.nanoTime();
+            NavPath path = graph.findPath(ends[query * 4], ends[query * 4 + 1], ends[query * 4 + 2], ends[query * 4 + 3]);
+            long time = System.nanoTime() - start;
+            if(path != null) {
+                found[foundCount++] = time;
+            } else {
+                missed[missedCount++] = time;
+            }
+        }
+        if(name.equals("Warm up")) return;
+        System.out.println(name + ": " + summarize(found, foundCount) + " found, " + summarize(missed, missedCount) + " not found");
+    }
+
+    private static String summarize(long[] times, int count) {
+        if(count == 0) return "none";
+        Arrays.sort(times, 0, count);
+        return String.format("%d (p50 %.1f us, p90 %.1f us, p99 %.1f us, max %.1f us)", count, percentile(times, count, 0.5),
+                percentile(times, count, 0.9), percentile(times, count, 0.99), times[count - 1] / 1e3);
+    }
+
+    private static double percentile(long[] sorted, int count, double fraction) {
+        return sorted[Math.min(count - 1, (int) (count * fraction))] / 1e3;
+    }
+
+    // Start and goal positions (x, y, x, y per query) that are over floor.
+    private static float[] pickEnds(NavGraph graph, SolidityMap solidity, int queries, Random random) {
+        float[] ends = new float[queries * 4];
+        for(int i = 0; i < ends.length; i += 2) {
+            float x;
+            float y;
+            do {
+                x = random.nextInt(solidity.getWidth());
+                y = random.nextInt(solidity.getHeight());
+            } while(graph.findSegmentBelow(x, y) == null);
+            ends[i] = x;
+            ends[i + 1] = y;
+        }
+        return ends;
+    }
+
+    // Also used by the other benchmarks.
+    static SolidityMap readLevel(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        SolidityMap solidity = new SolidityMap(width, height);
+        for(int y = 0; y < height; ++y) {
+            for(int x = 0; x < width; ++x) {
+                TileType type = TileType.forColor(image.getRGB(x, y) & 0xFFFFFF);
+                // Images are stored top row first, but the world has y going up.
+                solidity.setSolid(x, height - y - 1, type != null && type.blocksMovement());
+            }
+        }
+        return solidity;
+    }
+
+    static SolidityMap randomLevel(int width, int height, Random random) {
+        SolidityMap solidity = new SolidityMap(width, height);
+        for(int x = 0; x < width; ++x) {
+            solidity.setSolid(x, 0, true);
+        }
+        for(int i = 0; i < width * height / 40; ++i) {
+            int length = 1 + random.nextInt(8);
+            int x = random.nextInt(width - length);
+            int y = 1 + random.nextInt(height - 2);
+            for(int j = 0; j < length; ++j) {
+                solidity.setSolid(x + j, y, true);
+            }
+        }
+        return solidity;
+    }
+}
@@ -0,0 +1,238 @@
+package ca.kess.games.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import ca.kess.games.Constants;
+import ca.kess.games.entities.PhysicalEntity;
+import ca.kess.games.entities.PhysicsStore;
+import ca.kess.games.world.LevelWriter;
+import ca.kess.games.world.MappedChunkSource;
+import ca.kess.games.world.TileSet;
+import ca.kess.games.world.TileType;
+import ca.kess.games.world.WorldLevel;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.math.Vector2;
+
+/**
+ * Times the batched physics step (see PhysicsStore) for a few numbers of entities, with no worker threads
+ * and with Constants.MAX_WORKER_THREADS of them, and checks that the step is deterministic.
+ *
+ * Usage:
+ *   PhysicsBenchmark [entities]...
+ *
+ * The level is made up: walls, rows of platforms with gaps in them, scattered blocks, and a pool of water.
+ * The entities are dropped into it with random sizes, masses and velocities, and are kicked every so often
+ * so they don't all settle. After every step the positions, velocities and contact flags of all of them are
+ * hashed. The hashes have to come out the same with any number of threads, with touch triggers that change
+ * the velocities, and, with triggers that do nothing, the same as stepping each entity on its own.
+ */
+public class PhysicsBenchmark {
+    private static final int WIDTH = 128;
+    private static final int HEIGHT = 64;
+    private static final int STEPS = 300;
+    // How often the entities are kicked, in steps.
+    private static final int KICK_STEPS = 50;
+
+    // A plain entity, whose touch triggers change its velocity if it is told to.
+    private static class Body extends PhysicalEntity {
+        private final boolean mTriggers;
+
+        Body(boolean triggers) {
+            mTriggers = triggers;
+        }
+
+        void place(WorldLevel level, float x, float y, float vx, float vy, float width, float height, float mass, float bounciness) {
+            initializeBase(level, x, y, vx, vy, width, height, mass, bounciness, null);
+        }
+
+        @Override
+        public void onTouchGround(Vector2 impactVelocity) {
+            if(mTriggers) setVelocityX(getVelocityX() * 0.5f);
+        }
+
+        @Override
+        public void onTouchWallLeft(Vector2 impactVelocity) {
+            if(mTriggers) setVelocityY(getVelocityY() + impactVelocity.x * 0.1f);
+        }
+
+        @Override
+        public void recycle() {
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int[] counts = { 1000, 10000, 50000 };
+        if(args.length > 0) {
+            counts = new int[args.length];
+            for(int i = 0; i < args.length; ++i) {
+                counts[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        Benchmarks.stubApplication();
+        File map = File.createTempFile("PhysicsBenchmark", ".lvl");
+        map.deleteOnExit();
+        writeLevel(map);
+
+        int threads = Constants.MAX_WORKER_THREADS;
+        System.out.println(String.format("Level: %d x %d tiles, %d steps, %d cores", WIDTH, HEIGHT, STEPS,
+                Runtime.getRuntime().availableProcessors()));
+        // Once through first, so the JIT has compiled everything before it is timed.
+        run(map, counts[0], 0, true, false);
+        run(map, counts[0], threads, true, false);
+        for(int count : counts) {
+            long[] serial = run(map, count, 0, true, false).times;
+            long[] parallel = run(map, count, threads, true, false).times;
+            System.out.println(String.format("%d entities: p50 %.2f ms, mean %.2f ms per step with no workers; p50 %.2f ms, mean %.2f ms with %d",
+                    count, median(serial) / 1e6, mean(serial) / 1e6, median(parallel) / 1e6, mean(parallel) / 1e6, threads));
+        }
+
+        int count = counts[0];
+        boolean same = true;
+        long first = 0;
+        StringBuilder hashes = new StringBuilder();
+        for(int workers = 0; workers <= threads; ++workers) {
+            long hash = run(map, count, workers, true, true).hash;
+            if(workers == 0) {
+                first = hash;
+            }
+            same &= hash == first;
+            hashes.append(String.format(" %d: %016x", workers, hash));
+        }
+        System.out.println(String.format("Batched with triggers, %d entities, by worker threads:%s, %s", count,
+                hashes, same ? "identical" : "DIFFERENT"));
+        long batched = run(map, count, 0, true, false).hash;
+        long single = run(map, count, 0, false, false).hash;
+        System.out.println(String.format("No-op triggers, %d entities: batched %016x, one at a time %016x, %s", count,
+                batched, single, batched == single ? "identical" : "DIFFERENT"));
+        if(!same || batched != single) {
+            System.exit(1);
+        }
+    }
+
+    private static class Result {
+        final long hash;
+        final long[] times;
+
+        Result(long hash, long[] times) {
+            this.hash = hash;
+            this.times = times;
+        }
+    }
+
+    // Step count entities in a new copy of the level, and time the steps.
+    private static Result run(File map, int count, int threads, boolean batched, boolean triggers) {
+        TileSet tileSet = TileSet.withoutGraphics();
+        WorldLevel level = new WorldLevel(new MappedChunkSource(new FileHandle(map), tileSet), tileSet, threads);
+        // Load every chunk up front, so the friction is worked out the same everywhere.
+        for(int y = 0; y < HEIGHT; y += Constants.CHUNK_SIZE) {
+            for(int x = 0; x < WIDTH; x += Constants.CHUNK_SIZE) {
+                level.getTileId(x, y);
+            }
+        }
+
+        PhysicsStore physics = level.getPhysicsStore();
+        Random random = new Random(42);
+        Body[] bodies = new Body[count];
+        for(int i = 0; i < count; ++i) {
+            Body body = new Body(triggers);
+            float width = 0.2f + random.nextFloat() * 0.9f;
+            float height = 0.2f + random.nextFloat() * 0.9f;
+            float x;
+            float y;
+            do {
+                x = 1 + random.nextFloat() * (WIDTH - 3);
+                y = 1 + random.nextFloat() * (HEIGHT - 3);
+            } while(level.isSolid((int) x, (int) y) || level.isSolid((int) (x + width), (int) y)
+                    || level.isSolid((int) x, (int) (y + height)) || level.isSolid((int) (x + width), (int) (y + height)));
+            body.place(level, x, y, (random.nextFloat() - 0.5f) * 30, (random.nextFloat() - 0.5f) * 30, width, height,
+                    0.1f + random.nextFloat() * 2, random.nextFloat());
+            if(random.nextInt(10) == 0) body.setApplyDrag(false);
+            if(random.nextInt(10) == 0) body.setFastMover(true);
+            if(random.nextInt(50) == 0) body.setAffectedByGravity(false);
+            body.setMaximumSpeed(5 + random.nextFloat() * 30, 30);
+            body.setBatchedPhysics(batched);
+            physics.setActive(body, true);
+            bodies[i] = body;
+        }
+
+        long[] times = new long[STEPS];
+        long hash = 0;
+        for(int step = 0; step < STEPS; ++step) {
+            if(step % KICK_STEPS == 0) {
+                for(int i = 0; i < count; i += 7) {
+                    bodies[i].applyForce((random.nextFloat() - 0.5f) * 200, random.nextFloat() * 300);
+                }
+            }
+            long start = System.nanoTime();
+            physics.step(level);
+            // Only the entities that aren't batched move here.
+            for(int i = 0; i < count; ++i) {
+                bodies[i].update();
+            }
+            times[step] = System.nanoTime() - start;
+            for(int i = 0; i < count; ++i) {
+                Body body = bodies[i];
+                hash = hash * 31 + Float.floatToIntBits(body.getPositionX());
+                hash = hash * 31 + Float.floatToIntBits(body.getPositionY());
+                hash = hash * 31 + Float.floatToIntBits(body.getVelocityX());
+                hash = hash * 31 + Float.floatToIntBits(body.getVelocityY());
+                hash = hash * 31 + (body.isOnGround() ? 1 : 0) + (body.isOnWallLeft() ? 2 : 0)
+                        + (body.isOnWallRight() ? 4 : 0) + (body.isOnRoof() ? 8 : 0);
+            }
+        }
+        level.dispose();
+        return new Result(hash, times);
+    }
+
+    // Walls around the edge, a row of platforms every 8 tiles with gaps in them, some blocks, and a walled
+    // pool of water.
+    private static void writeLevel(File file) throws IOException {
+        Random random = new Random(42);
+        int[] colors = new int[WIDTH * HEIGHT];
+        for(int y = 0; y < HEIGHT; ++y) {
+            for(int x = 0; x < WIDTH; ++x) {
+                boolean solid = x == 0 || y == 0 || x == WIDTH - 1 || y == HEIGHT - 1
+                        || (y % 8 == 0 && random.nextInt(4) != 0) || random.nextInt(30) == 0;
+                TileType type = solid ? TileType.GROUND : TileType.AIR;
+                if(y > 40 && y < 47 && x > 20 && x < 60) {
+                    if(y == 41 || x == 21 || x == 59) {
+                        type = TileType.GROUND;
+                    } else if(y < 46) {
+                        type = TileType.WATER;
+                    } else {
+                        type = TileType.AIR;
+                    }
+                }
+                colors[y * WIDTH + x] = type.getColor();
+            }
+        }
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            new LevelWriter(WIDTH, HEIGHT, Constants.CHUNK_SIZE, colors).write(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static double median(long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static double mean(long[] times) {
+        long total = 0;
+        for(long time : times) {
+            total += time;
+        }
+        return (double) total / times.length;
+    }
+}
@@ -0,0 +1,138 @@
+package ca.kess.games.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import ca.kess.games.Constants;
+import ca.kess.games.ai.RayBatch;
+import ca.kess.games.ai.Sensor;
+import ca.kess.games.entities.PhysicalEntity;
+import ca.kess.games.entities.PhysicsStore;
+import ca.kess.games.physics.SpatialHashGrid;
+import ca.kess.games.world.SolidityMap;
+
+/**
+ * Times a tick's worth of sensor rays against a level with entities in it, and prints the latency
+ * percentiles per tick.
+ *
+ * Usage:
+ *   SensorBenchmark map.png [rays per tick]
+ *   SensorBenchmark --random width height [rays per tick]
+ *
+ * Each ray goes from the middle of an entity to a random point within SENSOR_RANGE tiles of it, like an
+ * actor looking around for the hero. The rays are cast one at a time and as a RayBatch, against the tiles
+ * only and against the tiles and entities. Where the JVM can say, the bytes allocated per tick are shown
+ * too, which should be none.
+ */
+public class SensorBenchmark {
+    private static final int ENTITIES = 200;
+    private static final float SENSOR_RANGE = 24;
+    private static final int TICKS = 500;
+
+    public static void main(String[] args) throws IOException {
+        SolidityMap solidity;
+        int rayArg;
+        if(args.length >= 3 && args[0].equals("--random")) {
+            solidity = PathBenchmark.randomLevel(Integer.parseInt(args[1]), Integer.parseInt(args[2]), new Random(1));
+            rayArg = 3;
+        } else if(args.length >= 1) {
+            solidity = PathBenchmark.readLevel(ImageIO.read(new File(args[0])));
+            rayArg = 1;
+        } else {
+            System.err.println("Usage: SensorBenchmark map.png [rays per tick]");
+            System.err.println("       SensorBenchmark --random width height [rays per tick]");
+            System.exit(1);
+            return;
+        }
+        int rays = args.length > rayArg ? Integer.parseInt(args[rayArg]) : 1000;
+
+        Benchmarks.stubApplication();
+
+        Random random = new Random(2);
+        SpatialHashGrid broadphase = new SpatialHashGrid(Constants.BROADPHASE_CELL_SIZE, Constants.BROADPHASE_BUCKETS);
+        PhysicsStore physics = new PhysicsStore();
+        PhysicalEntity[] entities = new PhysicalEntity[ENTITIES];
+        for(int i = 0; i < ENTITIES; ++i) {
+            entities[i] = new PhysicalEntity() {
+                @Override
+                public void recycle() {
+                }
+            };
+            int x;
+            int y;
+            do {
+                x = random.nextInt(solidity.getWidth());
+                y = random.nextInt(solidity.getHeight());
+            } while(solidity.isSolid(x, y));
+            entities[i].attachPhysics(physics);
+            entities[i].setPosition(x, y);
+            broadphase.insert(entities[i]);
+        }
+        Sensor sensor = new Sensor(solidity, broadphase);
+
+        // Every tick's rays are worked out ahead of time, so only the casting is timed.
+        float[] ends = new float[TICKS * rays * 4];
+        PhysicalEntity[] casters = new PhysicalEntity[TICKS * rays];
+        for(int i = 0; i < TICKS * rays; ++i) {
+            PhysicalEntity caster = entities[random.nextInt(ENTITIES)];
+            casters[i] = caster;
+            ends[i * 4] = caster.getPositionX() + caster.getWidth() / 2;
+            ends[i * 4 + 1] = caster.getPositionY() + caster.getHeight() / 2;
+            ends[i * 4 + 2] = ends[i * 4] + (random.nextFloat() * 2 - 1) * SENSOR_RANGE;
+            ends[i * 4 + 3] = ends[i * 4 + 1] + (random.nextFloat() * 2 - 1) * SENSOR_RANGE;
+        }
+
+        System.out.println(String.format("Level: %d x %d tiles, %d entities, %d rays per tick",
+                solidity.getWidth(), solidity.getHeight(), ENTITIES, rays));
+        // Once through first, so the JIT has compiled everything before it is timed.
+        for(int pass = 0; pass < 2; ++pass) {
+            boolean report = pass == 1;
+            run("One at a time, tiles", sensor, ends, casters, rays, false, false, report);
+            run("One at a time, tiles and entities", sensor, ends, casters, rays, true, false, report);
+            run("Batched, tiles", sensor, ends, casters, rays, false, true, report);
+            run("Batched, tiles and entities", sensor, ends, casters, rays, true, true, report);
+        }
+    }
+
+    private static void run(String name, Sensor sensor, float[] ends, PhysicalEntity[] casters, int rays,
+            boolean hitEntities, boolean batched, boolean report) {
+        RayBatch batch = new RayBatch(rays, hitEntities);
+        long[] times = new long[TICKS];
+        int hits = 0;
+        long allocated = Benchmarks.allocatedBytes();
+        for(int tick = 0; tick < TICKS; ++tick) {
+            int first = tick * rays;
+            long start = System.nanoTime();
+            if(batched) {
+                batch.clear();
+                for(int i = first; i < first + rays; ++i) {
+                    batch.add(ends[i * 4], ends[i * 4 + 1], ends[i * 4 + 2], ends[i * 4 + 3], casters[i]);
+                }
+                sensor.cast(batch);
+                for(int i = 0; i < rays; ++i) {
+                    if(batch.getFraction(i) < 1) ++hits;
+                }
+            } else {
+                for(int i = first; i < first + rays; ++i) {
+                    if(sensor.raycast(ends[i * 4], ends[i * 4 + 1], ends[i * 4 + 2], ends[i * 4 + 3], hitEntities, casters[i])) {
+                        ++hits;
+                    }
+                }
+            }
+            times[tick] = System.nanoTime() - start;
+        }
+        long after = Benchmarks.allocatedBytes();
+        // Asking how much has been allocated allocates a little too, so take that off.
+        allocated = after - allocated - (Benchmarks.allocatedBytes() - after);
+        if(!report) return;
+        Arrays.sort(times);
+        System.out.println(String.format("%s: p50 %.1f us, p90 %.1f us, p99 %.1f us, max %.1f us per tick, %.0f ns per ray, %.1f%% hit%s",
+                name, times[TICKS / 2] / 1e3, times[TICKS * 9 / 10] / 1e3, times[TICKS * 99 / 100] / 1e3,
+                times[TICKS - 1] / 1e3, (double) times[TICKS / 2] / rays, 100.0 * hits / (TICKS * rays),
+                allocated < 0 ? "" : String.format(", %d bytes allocated", allocated)));
+    }
+}
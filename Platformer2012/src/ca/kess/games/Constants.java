@@ -24,7 +24,99 @@ public class Constants {
      * The maximum number of collisions returned when getting all collisions.
      */
     public static final int MAX_COLLISIONS = 8;
-    
+
+    /**
+     * The width and height of a broadphase cell, in tiles. Most entities are a tile or smaller, so this keeps
+     * them in at most four cells while keeping the number of cells a query touches small.
+     */
+    public static final int BROADPHASE_CELL_SIZE = 2;
+
+    /**
+     * The number of hash buckets in the broadphase. Must be a power of two.
+     */
+    public static final int BROADPHASE_BUCKETS = 1024;
+
+    /**
+     * The width and height of a chunk of the level, in tiles. Levels are paged in and out a chunk at a time.
+     * Must be a power of two.
+     */
+    public static final int CHUNK_SIZE = 32;
+
+    /**
+     * How many chunks out from the one the camera is looking at are kept in memory.
+     */
+    public static final int CHUNK_LOAD_RADIUS = 1;
+
+    /**
+     * The most chunks that are kept in memory at once. Chunks around the camera, and chunks that have been
+     * changed, are kept even if this goes over.
+     */
+    public static final int MAX_RESIDENT_CHUNKS = 16;
+
+    /**
+     * How many chunks can have their static tiles cached in video memory at once. This only needs to cover
+     * the chunks on screen, and each one costs CHUNK_SIZE * CHUNK_SIZE sprites of vertex memory.
+     */
+    public static final int TILE_CACHE_CHUNKS = 8;
+
+    /**
+     * The most free ActorEntities to keep pooled. Every death breaks an entity into a particle per pixel, so a
+     * fight can leave thousands behind once they fade, and only this many are kept for the next one.
+     */
+    public static final int MAX_FREE_ACTORS = 512;
+
+    /**
+     * The furthest the AI will plan to fall, in tiles. Longer drops aren't put in the navigation graph.
+     */
+    public static final int NAV_MAX_DROP = 12;
+
+    /**
+     * The most threads that find routes for the AI. Fewer are used on machines without the cores to spare.
+     */
+    public static final int PATH_THREADS = 2;
+
+    /**
+     * How many route requests can be waiting for a thread. Requests made while it is full are turned down,
+     * and should be made again on a later tick.
+     */
+    public static final int PATH_QUEUE_SIZE = 64;
+
+    /**
+     * The most worker threads that work split up each tick (like stepping the fluids) runs on, on top of
+     * the game thread. Fewer are used on machines without the cores to spare.
+     */
+    public static final int MAX_WORKER_THREADS = 3;
+
+    /**
+     * The speed, in tiles a second, below which an entity that isn't moving counts as resting.
+     */
+    public static final float SLEEP_VELOCITY = 0.05f;
+
+    /**
+     * How many updates in a row an entity has to rest on the ground before it goes to sleep. Sleeping
+     * entities aren't stepped until something (a force, a new velocity, a tile or fluid changing next to
+     * them) wakes them up.
+     */
+    public static final int SLEEP_TICKS = 30;
+
+    /**
+     * How close, in tiles, two solid entities have to be to count as touching. A little more than nothing,
+     * so that something resting on top of another entity stays in contact with it from one update to the next.
+     */
+    public static final float CONTACT_SLOP = 0.01f;
+
+    /**
+     * How many times the contacts between solid entities are worked through each update. Each pass
+     * reaches one entity further along a chain of them, like up a stack.
+     */
+    public static final int CONTACT_ITERATIONS = 4;
+
+    /**
+     * How many batched entities (see PhysicsStore) a worker thread steps at a time. The entities in a batch
+     * are close together in the level, so they look at the same tiles.
+     */
+    public static final int PHYSICS_PARTITION_SIZE = 256;
+
     /**
      * How far the camera is zoomed in. ZOOM_FACTOR * TILE_SIZE determines the relative size of a pixel.
      */
@@ -41,7 +133,30 @@ public class Constants {
      * property.
      */
     public static final float DRAG = 1.7f;
-    
+
+    /**
+     * The mass of a tile's worth of fluid. Entities float when they weigh less than the fluid they push
+     * aside, so one a tile in size with a mass of 1 just floats.
+     */
+    public static final float FLUID_DENSITY = 1.2f;
+
+    /**
+     * The drag coefficient in fluid, which is used in place of DRAG for the part of an entity that is under.
+     * Unlike in the air, this slows things down in both directions.
+     */
+    public static final float FLUID_DRAG = 3.0f;
+
+    /**
+     * How bright the parts of the level that no light reaches are, from 0 (black) to 1.
+     */
+    public static final float AMBIENT_LIGHT = 0.45f;
+
+    /**
+     * The light level (see LightMap) at which a tile is as bright as it gets. Tiles closer to a light than
+     * this aren't any brighter.
+     */
+    public static final int FULL_LIGHT = 6;
+
     /**
      * A dummy friction value for all blocks. This is a placeholder until the physics code
      * is more fleshed out.
@@ -0,0 +1,300 @@
+package ca.kess.games.ai;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import ca.kess.games.Constants;
+
+import com.badlogic.gdx.utils.IntArray;
+
+/**
+ * A coarse version of a NavGraph for long routes (HPA*). The level is cut into clusters of chunks, and
+ * each segment belongs to the cluster its left end is in. The edges that go from one cluster to another
+ * are portals. For every cluster, the cost of getting from each portal into it to each portal out of it is
+ * worked out ahead of time, so a long route is a search over portals, and only the clusters at either end
+ * (and the ones the route goes through, to fill in the steps) are searched segment by segment.
+ *
+ * When the graph is repaired, only the clusters with changed segments, and the clusters their portals lead
+ * to, are worked out again.
+ */
+class NavClusters {
+    private static final float UNREACHABLE = Float.MAX_VALUE;
+    // The width and height of a cluster, in tiles. Bigger clusters mean fewer portals to search over, but
+    // more work inside the clusters at the ends. Two chunks on a side was the quickest on large test levels.
+    private static final int CLUSTER_SIZE = Constants.CHUNK_SIZE * 2;
+
+    private static class Cluster {
+        final List<NavSegment> mSegments = new ArrayList<NavSegment>();
+        final List<NavEdge> mExits = new ArrayList<NavEdge>();
+        final List<NavEdge> mEntrances = new ArrayList<NavEdge>();
+        // mCosts[entrance][exit] is the cost from landing at an entrance to coming down from an exit (the
+        // walking, the edges in between, and the exit's flight), or UNREACHABLE.
+        float[][] mCosts = new float[0][];
+    }
+
+    private final int mClustersX;
+    private final int mClustersY;
+    private final Cluster[] mClusters;
+    private final NavGraph mGraph;
+    private final float mRunSpeed;
+
+    // Portals by id, with null for ids that are free to use again.
+    private final List<NavEdge> mPortals = new ArrayList<NavEdge>();
+    private final IntArray mFreePortals = new IntArray();
+
+    // Search state by portal id, and for searchCluster() by segment index within the cluster, for each
+    // thread that searches.
+    private final ThreadLocal<NavSearch> mSearches = NavSearch.perThread();
+    private final ThreadLocal<NavSearch> mLocalSearches = NavSearch.perThread();
+
+    NavClusters(NavGraph graph, List<List<NavSegment>> rows, int width, int height, float runSpeed) {
+        mGraph = graph;
+        mClustersX = (width + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+        mClustersY = (height + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+        mRunSpeed = runSpeed;
+        mClusters = new Cluster[mClustersX * mClustersY];
+        for(int i = 0; i < mClusters.length; ++i) {
+            mClusters[i] = new Cluster();
+        }
+        for(int i = 0; i < mClusters.length; ++i) {
+            collectSegments(i, rows);
+        }
+        for(int i = 0; i < mClusters.length; ++i) {
+            buildExits(i, null);
+        }
+        for(int i = 0; i < mClusters.length; ++i) {
+            buildCosts(mClusters[i]);
+        }
+    }
+
+    int clusterOf(NavSegment segment) {
+        return (segment.mY / CLUSTER_SIZE) * mClustersX + segment.mX0 / CLUSTER_SIZE;
+    }
+
+    /**
+     * Whether two segments are far enough apart that a search over portals is worth it.
+     */
+    boolean areFarApart(NavSegment a, NavSegment b) {
+        return Math.abs(a.mX0 / CLUSTER_SIZE - b.mX0 / CLUSTER_SIZE) > 1
+                || Math.abs(a.mY / CLUSTER_SIZE - b.mY / CLUSTER_SIZE) > 1;
+    }
+
+    int getPortalCount() {
+        return mPortals.size() - mFreePortals.size;
+    }
+
+    /**
+     * The segments in changed (including ones that were thrown away) have been rebuilt or had their edges
+     * rebuilt. Work their clusters out again, and the costs of every cluster whose portals changed.
+     */
+    void repair(Collection<NavSegment> changed, List<List<NavSegment>> rows) {
+        Set<Integer> rebuilt = new HashSet<Integer>();
+        for(NavSegment segment : changed) {
+            rebuilt.add(Integer.valueOf(clusterOf(segment)));
+        }
+        Set<Integer> affected = new HashSet<Integer>(rebuilt);
+        for(Integer index : rebuilt) {
+            collectSegments(index.intValue(), rows);
+        }
+        for(Integer index : rebuilt) {
+            buildExits(index.intValue(), affected);
+        }
+        for(Integer index : affected) {
+            buildCosts(mClusters[index.intValue()]);
+        }
+    }
+
+    private void collectSegments(int index, List<List<NavSegment>> rows) {
+        Cluster cluster = mClusters[index];
+        cluster.mSegments.clear();
+        int x0 = (index % mClustersX) * CLUSTER_SIZE;
+        int x1 = x0 + CLUSTER_SIZE;
+        int y0 = (index / mClustersX) * CLUSTER_SIZE;
+        int y1 = Math.min(rows.size(), y0 + CLUSTER_SIZE);
+        for(int y = y0; y < y1; ++y) {
+            List<NavSegment> row = rows.get(y);
+            for(int i = NavGraph.firstEndingAfter(row, x0); i < row.size(); ++i) {
+                NavSegment segment = row.get(i);
+                if(segment.mX0 >= x1) break;
+                if(segment.mX0 >= x0) {
+                    segment.mClusterIndex = cluster.mSegments.size();
+                    cluster.mSegments.add(segment);
+                }
+            }
+        }
+    }
+
+    // Replace the cluster's portals out with the edges of its segments that leave it, and update the
+    // entrances of the clusters they go to. Those clusters (before and after) are added to affected.
+    private void buildExits(int index, Set<Integer> affected) {
+        Cluster cluster = mClusters[index];
+        for(int i = 0; i < cluster.mExits.size(); ++i) {
+            NavEdge exit = cluster.mExits.get(i);
+            int to = clusterOf(exit.mTo);
+            mClusters[to].mEntrances.remove(exit);
+            if(affected != null) affected.add(Integer.valueOf(to));
+            mPortals.set(exit.mPortal, null);
+            mFreePortals.add(exit.mPortal);
+            exit.mPortal = -1;
+        }
+        cluster.mExits.clear();
+        for(int i = 0; i < cluster.mSegments.size(); ++i) {
+            List<NavEdge> edges = cluster.mSegments.get(i).mEdges;
+            for(int j = 0; j < edges.size(); ++j) {
+                NavEdge edge = edges.get(j);
+                int to = clusterOf(edge.mTo);
+                if(to == index) continue;
+                edge.mPortal = mFreePortals.size > 0 ? mFreePortals.pop() : mPortals.size();
+                if(edge.mPortal == mPortals.size()) {
+                    mPortals.add(edge);
+                } else {
+                    mPortals.set(edge.mPortal, edge);
+                }
+                cluster.mExits.add(edge);
+                mClusters[to].mEntrances.add(edge);
+                if(affected != null) affected.add(Integer.valueOf(to));
+            }
+        }
+    }
+
+    private void buildCosts(Cluster cluster) {
+        NavSearch local = mLocalSearches.get();
+        int entrances = cluster.mEntrances.size();
+        int exits = cluster.mExits.size();
+        cluster.mCosts = new float[entrances][exits];
+        for(int i = 0; i < entrances; ++i) {
+            NavEdge entrance = cluster.mEntrances.get(i);
+            entrance.mEntranceIndex = i;
+            searchCluster(local, cluster, entrance.mTo, entrance.mLandingX);
+            for(int j = 0; j < exits; ++j) {
+                cluster.mCosts[i][j] = costToTakeOff(local, cluster.mExits.get(j));
+            }
+        }
+    }
+
+    // After searchCluster(), the cost to get to the edge's takeoff and come down at its landing.
+    private float costToTakeOff(NavSearch local, NavEdge edge) {
+        int index = edge.mFrom.mClusterIndex;
+        if(!local.isReached(index)) return UNREACHABLE;
+        float walk = Math.abs(edge.mFrom.clamp(edge.mTakeoffX) - local.mEntryX[index]) / mRunSpeed;
+        return local.mCosts[index] + walk + edge.mTime;
+    }
+
+    // After searchCluster(), the cost to get to column x of the segment.
+    private float costToReach(NavSearch local, NavSegment segment, int x) {
+        int index = segment.mClusterIndex;
+        if(!local.isReached(index)) return UNREACHABLE;
+        return local.mCosts[index] + Math.abs(x - local.mEntryX[index]) / mRunSpeed;
+    }
+
+    // Dijkstra from column x of the segment to every other segment in the cluster, without leaving it.
+    private void searchCluster(NavSearch local, Cluster cluster, NavSegment from, int x) {
+        List<NavSegment> segments = cluster.mSegments;
+        int count = segments.size();
+        local.begin(count);
+        local.reach(from.mClusterIndex, 0, x, null);
+        local.mOpen.push(from.mClusterIndex, 0);
+        while(!local.mOpen.isEmpty()) {
+            int closest = local.mOpen.pop();
+            if(local.isClosed(closest)) continue;
+            local.close(closest);
+            NavSegment segment = segments.get(closest);
+            List<NavEdge> edges = segment.mEdges;
+            for(int i = 0; i < edges.size(); ++i) {
+                NavEdge edge = edges.get(i);
+                int to = edge.mTo.mClusterIndex;
+                // Segments in other clusters can have the same index, so check it really is this cluster's.
+                if(to >= count || segments.get(to) != edge.mTo || local.isClosed(to)) continue;
+                float cost = costToTakeOff(local, edge);
+                if(local.reach(to, cost, edge.mLandingX, edge)) {
+                    local.mOpen.push(to, cost);
+                }
+            }
+        }
+    }
+
+    /**
+     * Find a route by searching over portals, then fill in the steps within each cluster on the way.
+     * @return The route, or null if there isn't one.
+     */
+    NavPath findPath(NavSegment start, int startX, NavSegment goal, int goalX) {
+        NavSearch search = mSearches.get();
+        NavSearch local = mLocalSearches.get();
+        Cluster startCluster = mClusters[clusterOf(start)];
+        int goalIndex = clusterOf(goal);
+        Cluster goalCluster = mClusters[goalIndex];
+        search.begin(mPortals.size());
+
+        float best = UNREACHABLE;
+        NavEdge bestEntrance = null;
+        searchCluster(local, startCluster, start, startX);
+        if(startCluster == goalCluster) {
+            best = costToReach(local, goal, goalX);
+        }
+        for(int i = 0; i < startCluster.mExits.size(); ++i) {
+            NavEdge exit = startCluster.mExits.get(i);
+            float cost = costToTakeOff(local, exit);
+            if(cost != UNREACHABLE) {
+                open(search, exit, cost, null, goal, goalX);
+            }
+        }
+
+        while(!search.mOpen.isEmpty() && search.mOpen.peekCost() < best) {
+            int id = search.mOpen.pop();
+            if(search.isClosed(id)) continue;
+            search.close(id);
+            NavEdge portal = mPortals.get(id);
+            float cost = search.mCosts[id];
+            int index = clusterOf(portal.mTo);
+            if(index == goalIndex) {
+                searchCluster(local, goalCluster, portal.mTo, portal.mLandingX);
+                float toGoal = costToReach(local, goal, goalX);
+                if(toGoal != UNREACHABLE && cost + toGoal < best) {
+                    best = cost + toGoal;
+                    bestEntrance = portal;
+                }
+            }
+            Cluster cluster = mClusters[index];
+            float[] costs = cluster.mCosts[portal.mEntranceIndex];
+            for(int i = 0; i < costs.length; ++i) {
+                if(costs[i] == UNREACHABLE) continue;
+                NavEdge exit = cluster.mExits.get(i);
+                if(search.isClosed(exit.mPortal)) continue;
+                open(search, exit, cost + costs[i], portal, goal, goalX);
+            }
+        }
+        if(best == UNREACHABLE) return null;
+
+        // Fill in the steps, from the goal back to the start.
+        List<NavEdge> path = new ArrayList<NavEdge>();
+        NavSegment to = goal;
+        for(NavEdge portal = bestEntrance; portal != null; portal = search.mCameFrom[portal.mPortal]) {
+            addSteps(local, mClusters[clusterOf(portal.mTo)], portal.mTo, portal.mLandingX, to, path);
+            path.add(portal);
+            to = portal.mFrom;
+        }
+        addSteps(local, startCluster, start, startX, to, path);
+        NavEdge[] edges = new NavEdge[path.size()];
+        for(int i = 0; i < edges.length; ++i) {
+            edges[i] = path.get(edges.length - 1 - i);
+        }
+        return new NavPath(start, goal, edges, best);
+    }
+
+    private void open(NavSearch search, NavEdge portal, float cost, NavEdge cameFrom, NavSegment goal, int goalX) {
+        if(search.reach(portal.mPortal, cost, portal.mLandingX, cameFrom)) {
+            search.mOpen.push(portal.mPortal, cost + mGraph.estimate(portal.mLandingX, portal.mTo.mY, goalX, goal.mY));
+        }
+    }
+
+    // Add the edges from column x of one segment to another in the same cluster to path, last edge first.
+    private void addSteps(NavSearch local, Cluster cluster, NavSegment from, int x, NavSegment to, List<NavEdge> path) {
+        searchCluster(local, cluster, from, x);
+        for(NavSegment segment = to; segment != from; segment = local.mCameFrom[segment.mClusterIndex].mFrom) {
+            path.add(local.mCameFrom[segment.mClusterIndex]);
+        }
+    }
+}
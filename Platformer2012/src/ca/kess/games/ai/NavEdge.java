@@ -0,0 +1,68 @@
+package ca.kess.games.ai;
+
+/**
+ * A way to get from one NavSegment to another: walk to the takeoff column, then drop, jump or double jump
+ * to land at the landing column of the other segment.
+ */
+public class NavEdge {
+    public enum Type {
+        /**
+         * Walk off the end of the segment and fall.
+         */
+        DROP,
+        /**
+         * Jump once from the takeoff column.
+         */
+        JUMP,
+        /**
+         * Jump, then jump again at the top of the first jump.
+         */
+        DOUBLE_JUMP,
+    }
+
+    final Type mType;
+    final NavSegment mFrom;
+    final NavSegment mTo;
+    final int mTakeoffX;
+    final int mLandingX;
+    final float mTime;
+    // For edges from one cluster to another (see NavClusters): the portal id, or -1 if it isn't one, and
+    // where it is in the list of entrances of the cluster it goes to.
+    int mPortal = -1;
+    int mEntranceIndex;
+
+    NavEdge(Type type, NavSegment from, NavSegment to, int takeoffX, int landingX, float time) {
+        mType = type;
+        mFrom = from;
+        mTo = to;
+        mTakeoffX = takeoffX;
+        mLandingX = landingX;
+        mTime = time;
+    }
+
+    public Type getType() { return mType; }
+    public NavSegment getFrom() { return mFrom; }
+    public NavSegment getTo() { return mTo; }
+
+    /**
+     * The column to leave from. For drops this is the first column past the end of the segment.
+     */
+    public int getTakeoffX() { return mTakeoffX; }
+
+    /**
+     * The column the actor comes down in.
+     */
+    public int getLandingX() { return mLandingX; }
+
+    /**
+     * How long the actor is in the air for, in seconds.
+     */
+    public float getTime() { return mTime; }
+
+    /**
+     * How fast the actor needs to move sideways while in the air to land at the landing column.
+     */
+    public float getSpeedX() {
+        return mTime > 0 ? (mLandingX - mTakeoffX) / mTime : 0;
+    }
+}
@@ -0,0 +1,574 @@
+package ca.kess.games.ai;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ca.kess.games.Constants;
+import ca.kess.games.world.SolidityMap;
+
+import com.badlogic.gdx.utils.IntArray;
+
+/**
+ * Where an actor of a given size can walk, and how it can get from one bit of floor to another, worked out
+ * from the solidity map when the level loads. The nodes are NavSegments (runs of floor), and the edges are
+ * drops off the ends of segments and single and double jumps between them.
+ *
+ * Every jump and drop is checked by following it through the air a physics step at a time, the same way
+ * PhysicalEntity moves, so an actor that does what an edge says will land where it says. Finding a route is
+ * then just an A* search over the segments. Long routes are found over clusters of segments instead (see
+ * NavClusters), and the most recently used routes are cached so that actors asking for the same one share
+ * it. When a tile changes (a door opens or closes), call repair() to redo the part of the graph around it.
+ *
+ * Routes can be found on several threads at once, each with its own search state, as long as nothing
+ * repairs the graph while they are (see PathService).
+ */
+public class NavGraph {
+    // The longest a jump or fall is followed for, in physics steps.
+    private static final int MAX_FLIGHT_STEPS = 240;
+    // How many routes to remember. The one used longest ago is forgotten when there are more.
+    private static final int MAX_CACHED_PATHS = 256;
+    private static final float EPSILON = 0.001f;
+    private static final NavEdge[] NO_EDGES = new NavEdge[0];
+
+    private final SolidityMap mSolidity;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mAgentWidth;
+    private final int mAgentHeight;
+    private final float mRunSpeed;
+    private final float mAirSpeed;
+    private final float mJumpSpeed;
+    private final float mGravity;
+    private final int mMaxDrop;
+    // How far above its floor a double jump can land, and how far sideways any edge can go, in tiles.
+    private final int mMaxRise;
+    private final int mReach;
+    // The fastest an actor can get sideways, up, or down, on average over a whole edge, in tiles a second.
+    // These give a lower bound on how long a route can take, for the searches.
+    private final float mFastestSpeed;
+    private final float mRiseSpeed;
+    private final float mFallSpeed;
+
+    // Segments by id, with null for ids that are free to use again.
+    private final List<NavSegment> mSegments = new ArrayList<NavSegment>();
+    private final IntArray mFreeIds = new IntArray();
+    // Segments on each row, left to right.
+    private final List<List<NavSegment>> mRows;
+    private int mSegmentCount = 0;
+    private int mEdgeCount = 0;
+
+    private final NavClusters mClusters;
+    private boolean mUseClusters = true;
+
+    // Routes by (start id << 32 | goal id), least recently used first. Routes that couldn't be found are
+    // kept as null.
+    private final Map<Long, NavPath> mPathCache = new LinkedHashMap<Long, NavPath>(MAX_CACHED_PATHS, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, NavPath> eldest) {
+            return size() > MAX_CACHED_PATHS;
+        }
+    };
+
+    // Search state by segment id, for each thread that searches.
+    private final ThreadLocal<NavSearch> mSearches = NavSearch.perThread();
+
+    // The height above the takeoff at each step of the last flight().
+    private final float[] mFlightHeights = new float[MAX_FLIGHT_STEPS + 1];
+
+    /**
+     * @param agentWidth The width of the actors that will use the graph, in tiles.
+     * @param agentHeight Their height, in tiles.
+     * @param runSpeed How fast they walk, in tiles a second.
+     * @param airSpeed How fast they can move sideways in the air, in tiles a second.
+     * @param jumpSpeed How fast they are moving up as a jump starts, in tiles a second.
+     * @param gravity Their downward acceleration, in tiles a second squared.
+     * @param maxDrop The furthest they are allowed to fall, in tiles.
+     */
+    public NavGraph(SolidityMap solidity, int agentWidth, int agentHeight, float runSpeed, float airSpeed,
+            float jumpSpeed, float gravity, int maxDrop) {
+        mSolidity = solidity;
+        mWidth = solidity.getWidth();
+        mHeight = solidity.getHeight();
+        mAgentWidth = agentWidth;
+        mAgentHeight = agentHeight;
+        mRunSpeed = runSpeed;
+        mAirSpeed = airSpeed;
+        mJumpSpeed = jumpSpeed;
+        mGravity = gravity;
+        mMaxDrop = maxDrop;
+
+        // The longest an edge can take is a double jump that comes down as far as it is allowed to fall.
+        int steps = flight(NavEdge.Type.DOUBLE_JUMP, -maxDrop);
+        float apex = 0;
+        for(int step = 1; step <= steps; ++step) {
+            apex = Math.max(apex, mFlightHeights[step]);
+        }
+        mMaxRise = (int) apex;
+        mReach = (int) Math.ceil(airSpeed * steps * Constants.DELTA) + 1;
+        mFastestSpeed = Math.max(runSpeed, airSpeed);
+        // An edge that lands higher up can't have risen faster than its jump did on the way to the top.
+        mRiseSpeed = Math.max(riseSpeed(NavEdge.Type.JUMP), riseSpeed(NavEdge.Type.DOUBLE_JUMP));
+        // Falling is quickest straight down, and the further the fall the faster it is on average.
+        float fallSpeed = 0;
+        for(int drop = 1; drop <= maxDrop; ++drop) {
+            fallSpeed = Math.max(fallSpeed, drop / (flight(NavEdge.Type.DROP, -drop) * Constants.DELTA));
+        }
+        mFallSpeed = fallSpeed;
+
+        mRows = new ArrayList<List<NavSegment>>(mHeight);
+        for(int y = 0; y < mHeight; ++y) {
+            mRows.add(new ArrayList<NavSegment>(2));
+        }
+        for(int y = 0; y < mHeight; ++y) {
+            buildRow(y, 0, mWidth - 1, 0);
+        }
+        for(int i = 0; i < mSegments.size(); ++i) {
+            buildEdges(mSegments.get(i));
+        }
+        mClusters = new NavClusters(this, mRows, mWidth, mHeight, runSpeed);
+    }
+
+    /**
+     * A graph for actors like the ones GameScreen makes: a tile in size, with a mass of 1. A jump is
+     * HERO_JUMP_FORCE for one step, and in the air an actor can only push sideways until drag (DRAG * v^2)
+     * cancels it out.
+     */
+    public static NavGraph forActors(SolidityMap solidity) {
+        float runSpeed = 10;
+        float airSpeed = (float) Math.sqrt(Constants.HERO_MAX_FORCE / Constants.DRAG);
+        float jumpSpeed = Constants.HERO_JUMP_FORCE * Constants.DELTA;
+        return new NavGraph(solidity, 1, 1, runSpeed, airSpeed, jumpSpeed, Constants.GRAVITY, Constants.NAV_MAX_DROP);
+    }
+
+    public int getSegmentCount() { return mSegmentCount; }
+    public int getEdgeCount() { return mEdgeCount; }
+
+    /**
+     * How many edges go from one cluster to another.
+     */
+    public int getPortalCount() { return mClusters.getPortalCount(); }
+
+    /**
+     * Whether long routes are found over clusters (the default), or with a search over every segment. The
+     * routes over clusters can be a little longer, but on big levels they take less time to find.
+     */
+    public void setUseClusters(boolean useClusters) {
+        mUseClusters = useClusters;
+        clearPathCache();
+    }
+
+    public void clearPathCache() {
+        synchronized(mPathCache) {
+            mPathCache.clear();
+        }
+    }
+
+    /**
+     * The segment an actor with its left edge in column x would be standing on in row y, or null.
+     */
+    public NavSegment getSegmentAt(int x, int y) {
+        if(y < 0 || y >= mHeight) return null;
+        List<NavSegment> row = mRows.get(y);
+        int low = 0;
+        int high = row.size() - 1;
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            NavSegment segment = row.get(middle);
+            if(x < segment.mX0) {
+                high = middle - 1;
+            } else if(x > segment.mX1) {
+                low = middle + 1;
+            } else {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The segment under an actor at x, y (its bottom left corner), looking down as far as it could fall if
+     * it is in the air. Null if there isn't one.
+     */
+    public NavSegment findSegmentBelow(float x, float y) {
+        int column = Math.round(x);
+        int row = (int) Math.floor(y + EPSILON);
+        for(int i = 0; i <= mMaxDrop; ++i) {
+            NavSegment segment = getSegmentAt(column, row - i);
+            if(segment != null) return segment;
+        }
+        return null;
+    }
+
+    /**
+     * Find a route for an actor at fromX, fromY to toX, toY (bottom left corners).
+     * @return The route, or null if there isn't one, or either end isn't over a segment.
+     */
+    public NavPath findPath(float fromX, float fromY, float toX, float toY) {
+        NavSegment start = findSegmentBelow(fromX, fromY);
+        NavSegment goal = findSegmentBelow(toX, toY);
+        if(start == null || goal == null) return null;
+        return findPath(start, Math.round(fromX), goal, Math.round(toX));
+    }
+
+    /**
+     * Find a route from column startX on one segment to column goalX on another. Routes are cached by
+     * segment, so the cost of a cached route is for wherever on the segments it was first asked for.
+     * @return The route, or null if there isn't one.
+     */
+    public NavPath findPath(NavSegment start, int startX, NavSegment goal, int goalX) {
+        if(start == goal) {
+            return new NavPath(start, goal, NO_EDGES, Math.abs(goalX - startX) / mRunSpeed);
+        }
+        Long key = Long.valueOf(((long) start.mId << 32) | goal.mId);
+        NavPath path;
+        synchronized(mPathCache) {
+            path = mPathCache.get(key);
+            if(path != null || mPathCache.containsKey(key)) {
+                return path;
+            }
+        }
+        if(mUseClusters && mClusters.areFarApart(start, goal)) {
+            path = mClusters.findPath(start, start.clamp(startX), goal, goal.clamp(goalX));
+        } else {
+            path = search(start, start.clamp(startX), goal, goal.clamp(goalX));
+        }
+        synchronized(mPathCache) {
+            mPathCache.put(key, path);
+        }
+        return path;
+    }
+
+    /**
+     * The tile at x, y has changed whether it is solid. Rebuild the segments it could have split, joined or
+     * made, redo the edges of every segment near enough to reach them or to jump past the tile, then the
+     * clusters those are in, and forget the cached routes that used any of them.
+     */
+    public void repair(int x, int y) {
+        // The tile is either floor for the row above it, or in the way of actors standing in rows that
+        // overlap it. Either way, it only changes whether actors can stand with their left edge in columns
+        // x - width + 1 to x. Segments touching those columns (or next to them, since they might join up) are
+        // thrown away and that stretch of the row is scanned again.
+        int row0 = Math.max(0, y - mAgentHeight + 1);
+        int row1 = Math.min(mHeight - 1, y + 1);
+        int column0 = x - mAgentWidth;
+        int column1 = x + 1;
+        int minX = x;
+        int maxX = x;
+        Set<NavSegment> changed = new HashSet<NavSegment>();
+        for(int row = row0; row <= row1; ++row) {
+            List<NavSegment> segments = mRows.get(row);
+            int first = firstEndingAfter(segments, column0);
+            int scan0 = column0;
+            int scan1 = column1;
+            while(first < segments.size() && segments.get(first).mX0 <= column1) {
+                NavSegment segment = segments.remove(first);
+                changed.add(segment);
+                scan0 = Math.min(scan0, segment.mX0);
+                scan1 = Math.max(scan1, segment.mX1);
+                removeSegment(segment);
+            }
+            int count = segments.size();
+            buildRow(row, Math.max(0, scan0), Math.min(mWidth - 1, scan1), first);
+            for(int i = first; i < first + segments.size() - count; ++i) {
+                changed.add(segments.get(i));
+            }
+            minX = Math.min(minX, scan0);
+            maxX = Math.max(maxX, scan1);
+        }
+
+        // An edge can't go further than mReach sideways, mMaxRise up or mMaxDrop down, so nothing outside of
+        // this box can have an edge to the rebuilt rows or an arc through the tile.
+        int x0 = minX - mReach - mAgentWidth;
+        int x1 = maxX + mReach + mAgentWidth;
+        int y0 = Math.max(0, row0 - mMaxRise - mAgentHeight);
+        int y1 = Math.min(mHeight - 1, row1 + mMaxDrop + mAgentHeight);
+        for(int row = y0; row <= y1; ++row) {
+            List<NavSegment> segments = mRows.get(row);
+            for(int i = 0; i < segments.size(); ++i) {
+                NavSegment segment = segments.get(i);
+                if(segment.mX1 >= x0 && segment.mX0 <= x1) {
+                    changed.add(segment);
+                    buildEdges(segment);
+                }
+            }
+        }
+
+        mClusters.repair(changed, mRows);
+
+        // Routes that weren't found before might be possible now, so they go too.
+        synchronized(mPathCache) {
+            Iterator<NavPath> paths = mPathCache.values().iterator();
+            while(paths.hasNext()) {
+                NavPath path = paths.next();
+                if(path == null || usesAny(path, changed)) {
+                    paths.remove();
+                }
+            }
+        }
+    }
+
+    private static boolean usesAny(NavPath path, Set<NavSegment> segments) {
+        for(NavSegment segment : segments) {
+            if(path.uses(segment)) return true;
+        }
+        return false;
+    }
+
+    // Whether an actor with its bottom left corner in tile x, y fits there and has floor under it.
+    private boolean canStand(int x, int y) {
+        if(x < 0 || x + mAgentWidth > mWidth || y < 1 || y >= mHeight) return false;
+        for(int dy = 0; dy < mAgentHeight; ++dy) {
+            for(int dx = 0; dx < mAgentWidth; ++dx) {
+                if(mSolidity.isSolid(x + dx, y + dy)) return false;
+            }
+        }
+        for(int dx = 0; dx < mAgentWidth; ++dx) {
+            if(mSolidity.isSolid(x + dx, y - 1)) return true;
+        }
+        return false;
+    }
+
+    // Whether an actor with its bottom left corner at x, y would overlap a solid tile or the sides of the map.
+    private boolean isBlocked(float x, float y) {
+        int x0 = (int) Math.floor(x + EPSILON);
+        int x1 = (int) Math.floor(x + mAgentWidth - EPSILON);
+        if(x0 < 0 || x1 >= mWidth) return true;
+        int y0 = (int) Math.floor(y + EPSILON);
+        int y1 = (int) Math.floor(y + mAgentHeight - EPSILON);
+        return mSolidity.findSolidColumn(x0, x1, y0, y1, false) >= 0;
+    }
+
+    // Find the segments in columns x0 to x1 of row y, and put them in the row's list starting at index.
+    private void buildRow(int y, int x0, int x1, int index) {
+        List<NavSegment> row = mRows.get(y);
+        int x = x0;
+        while(x <= x1) {
+            if(!canStand(x, y)) {
+                ++x;
+                continue;
+            }
+            int start = x;
+            while(x + 1 <= x1 && canStand(x + 1, y)) {
+                ++x;
+            }
+            row.add(index++, addSegment(y, start, x));
+            ++x;
+        }
+    }
+
+    private NavSegment addSegment(int y, int x0, int x1) {
+        int id = mFreeIds.size > 0 ? mFreeIds.pop() : mSegments.size();
+        NavSegment segment = new NavSegment(id, y, x0, x1);
+        if(id == mSegments.size()) {
+            mSegments.add(segment);
+        } else {
+            mSegments.set(id, segment);
+        }
+        ++mSegmentCount;
+        return segment;
+    }
+
+    private void removeSegment(NavSegment segment) {
+        mEdgeCount -= segment.mEdges.size();
+        segment.mEdges.clear();
+        mSegments.set(segment.mId, null);
+        mFreeIds.add(segment.mId);
+        --mSegmentCount;
+    }
+
+    private void buildEdges(NavSegment from) {
+        mEdgeCount -= from.mEdges.size();
+        from.mEdges.clear();
+        addDrop(from, from.mX0 - 1);
+        addDrop(from, from.mX1 + 1);
+        int y0 = Math.max(0, from.mY - mMaxDrop);
+        int y1 = Math.min(mHeight - 1, from.mY + mMaxRise);
+        for(int y = y0; y <= y1; ++y) {
+            List<NavSegment> row = mRows.get(y);
+            for(int i = firstEndingAfter(row, from.mX0 - mReach); i < row.size(); ++i) {
+                NavSegment to = row.get(i);
+                if(to.mX0 > from.mX1 + mReach) break;
+                if(to != from) {
+                    addJump(from, to);
+                }
+            }
+        }
+        mEdgeCount += from.mEdges.size();
+    }
+
+    // The index of the first segment in the row that ends at or after column x.
+    static int firstEndingAfter(List<NavSegment> row, int x) {
+        int low = 0;
+        int high = row.size();
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(row.get(middle).mX1 < x) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // Walk off the end of the segment into column x, and fall straight down onto whatever is below.
+    private void addDrop(NavSegment from, int x) {
+        if(isBlocked(x, from.mY)) return;
+        int bottom = Math.max(0, from.mY - mMaxDrop);
+        for(int y = from.mY - 1; y >= bottom; --y) {
+            if(isBlocked(x, y)) return;
+            NavSegment to = getSegmentAt(x, y);
+            if(to != null) {
+                int steps = flight(NavEdge.Type.DROP, y - from.mY);
+                if(steps > 0) {
+                    from.mEdges.add(new NavEdge(NavEdge.Type.DROP, from, to, x, x, steps * Constants.DELTA));
+                }
+                return;
+            }
+        }
+    }
+
+    // Jump from the end of one segment to the nearest end of the other, or if they overlap, from just past
+    // either end of the other so the actor doesn't hit it from below. Keep the quickest that works.
+    private void addJump(NavSegment from, NavSegment to) {
+        NavEdge best = null;
+        if(to.mX0 > from.mX1) {
+            best = tryJump(from, from.mX1, to, to.mX0, best);
+        } else if(to.mX1 < from.mX0) {
+            best = tryJump(from, from.mX0, to, to.mX1, best);
+        } else {
+            best = tryJump(from, from.clamp(to.mX0 - mAgentWidth), to, to.mX0, best);
+            best = tryJump(from, from.clamp(to.mX1 + mAgentWidth), to, to.mX1, best);
+        }
+        if(best != null) {
+            from.mEdges.add(best);
+        }
+    }
+
+    private NavEdge tryJump(NavSegment from, int takeoffX, NavSegment to, int landingX, NavEdge best) {
+        NavEdge.Type type = NavEdge.Type.JUMP;
+        int steps = followArc(type, takeoffX, from.mY, landingX, to.mY);
+        if(steps < 0) {
+            type = NavEdge.Type.DOUBLE_JUMP;
+            steps = followArc(type, takeoffX, from.mY, landingX, to.mY);
+        }
+        if(steps < 0) return best;
+        float time = steps * Constants.DELTA;
+        if(best != null && best.mTime <= time) return best;
+        return new NavEdge(type, from, to, takeoffX, landingX, time);
+    }
+
+    // Follow a jump from takeoffX, fromY to landingX, toY, moving sideways at a steady speed.
+    // Returns how many steps it takes, or -1 if it can't be done.
+    private int followArc(NavEdge.Type type, int takeoffX, int fromY, int landingX, int toY) {
+        int steps = flight(type, toY - fromY);
+        if(steps < 0) return -1;
+        float speedX = (landingX - takeoffX) / (steps * Constants.DELTA);
+        if(Math.abs(speedX) > mAirSpeed) return -1;
+        for(int step = 1; step <= steps; ++step) {
+            float x = takeoffX + speedX * step * Constants.DELTA;
+            float y = step == steps ? toY : fromY + mFlightHeights[step];
+            if(isBlocked(x, y)) return -1;
+        }
+        return steps;
+    }
+
+    private float riseSpeed(NavEdge.Type type) {
+        int steps = flight(type, -mMaxDrop);
+        float speed = 0;
+        for(int step = 1; step <= steps; ++step) {
+            speed = Math.max(speed, mFlightHeights[step] / (step * Constants.DELTA));
+        }
+        return speed;
+    }
+
+    /**
+     * A lower bound on how long it takes to get from column x of row y to column goalX of row goalY.
+     */
+    float estimate(int x, int y, int goalX, int goalY) {
+        float estimate = Math.abs(goalX - x) / mFastestSpeed;
+        if(goalY > y) {
+            estimate = Math.max(estimate, (goalY - y) / mRiseSpeed);
+        } else {
+            estimate = Math.max(estimate, (y - goalY) / mFallSpeed);
+        }
+        return estimate;
+    }
+
+    // Follow the height of a drop or jump a physics step at a time, integrating the same way PhysicalEntity
+    // does, into mFlightHeights. A double jump jumps again once the first jump stops rising, like
+    // KeyboardInputHandler does. Returns the step where it comes down through height dy, or -1 if it never
+    // does (or only does before the second jump).
+    private int flight(NavEdge.Type type, int dy) {
+        float y = 0;
+        float velocity = 0;
+        boolean secondJump = type == NavEdge.Type.DOUBLE_JUMP;
+        mFlightHeights[0] = 0;
+        for(int step = 1; step <= MAX_FLIGHT_STEPS; ++step) {
+            if(step == 1 && type != NavEdge.Type.DROP) {
+                velocity += mJumpSpeed;
+            } else if(secondJump && velocity <= 0) {
+                velocity = mJumpSpeed;
+                secondJump = false;
+            }
+            velocity -= mGravity * Constants.DELTA;
+            float previous = y;
+            y += velocity * Constants.DELTA;
+            mFlightHeights[step] = y;
+            if(!secondJump && previous > dy && y <= dy) return step;
+        }
+        return -1;
+    }
+
+    private NavPath search(NavSegment start, int startX, NavSegment goal, int goalX) {
+        NavSearch search = mSearches.get();
+        search.begin(mSegments.size());
+        search.reach(start.mId, 0, startX, null);
+        search.mOpen.push(start.mId, estimate(startX, start.mY, goalX, goal.mY));
+
+        while(!search.mOpen.isEmpty()) {
+            int id = search.mOpen.pop();
+            if(search.isClosed(id)) continue;
+            search.close(id);
+            NavSegment segment = mSegments.get(id);
+            float cost = search.mCosts[id];
+            int entryX = search.mEntryX[id];
+            if(segment == goal) {
+                return buildPath(search, start, goal, cost + Math.abs(goalX - entryX) / mRunSpeed);
+            }
+            List<NavEdge> edges = segment.mEdges;
+            for(int i = 0; i < edges.size(); ++i) {
+                NavEdge edge = edges.get(i);
+                int to = edge.mTo.mId;
+                if(search.isClosed(to)) continue;
+                // Walk to the takeoff (or to the end of the segment, for a drop), then fly.
+                float walk = Math.abs(segment.clamp(edge.mTakeoffX) - entryX) / mRunSpeed;
+                float toCost = cost + walk + edge.mTime;
+                if(search.reach(to, toCost, edge.mLandingX, edge)) {
+                    search.mOpen.push(to, toCost + estimate(edge.mLandingX, edge.mTo.mY, goalX, goal.mY));
+                }
+            }
+        }
+        return null;
+    }
+
+    private static NavPath buildPath(NavSearch search, NavSegment start, NavSegment goal, float cost) {
+        NavEdge[] cameFrom = search.mCameFrom;
+        int count = 0;
+        for(NavSegment segment = goal; segment != start; segment = cameFrom[segment.mId].mFrom) {
+            ++count;
+        }
+        NavEdge[] edges = new NavEdge[count];
+        for(NavSegment segment = goal; segment != start; segment = cameFrom[segment.mId].mFrom) {
+            edges[--count] = cameFrom[segment.mId];
+        }
+        return new NavPath(start, goal, edges, cost);
+    }
+}
@@ -0,0 +1,66 @@
+package ca.kess.games.ai;
+
+/**
+ * The open list for the navigation searches: a binary heap of int ids, lowest cost first. The same id can
+ * be pushed more than once, so searches skip ids they have already closed when they come out again.
+ */
+class NavHeap {
+    private int[] mIds = new int[64];
+    private float[] mCosts = new float[64];
+    private int mSize = 0;
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * The cost of the id that pop() will return.
+     */
+    public float peekCost() {
+        return mCosts[0];
+    }
+
+    public void push(int id, float cost) {
+        if(mSize == mIds.length) {
+            int[] ids = new int[mSize * 2];
+            float[] costs = new float[mSize * 2];
+            System.arraycopy(mIds, 0, ids, 0, mSize);
+            System.arraycopy(mCosts, 0, costs, 0, mSize);
+            mIds = ids;
+            mCosts = costs;
+        }
+        int i = mSize++;
+        while(i > 0) {
+            int parent = (i - 1) >>> 1;
+            if(mCosts[parent] <= cost) break;
+            mIds[i] = mIds[parent];
+            mCosts[i] = mCosts[parent];
+            i = parent;
+        }
+        mIds[i] = id;
+        mCosts[i] = cost;
+    }
+
+    public int pop() {
+        int top = mIds[0];
+        int id = mIds[--mSize];
+        float cost = mCosts[mSize];
+        int i = 0;
+        while(true) {
+            int child = i * 2 + 1;
+            if(child >= mSize) break;
+            if(child + 1 < mSize && mCosts[child + 1] < mCosts[child]) ++child;
+            if(mCosts[child] >= cost) break;
+            mIds[i] = mIds[child];
+            mCosts[i] = mCosts[child];
+            i = child;
+        }
+        mIds[i] = id;
+        mCosts[i] = cost;
+        return top;
+    }
+}
@@ -0,0 +1,43 @@
+package ca.kess.games.ai;
+
+/**
+ * A route through a NavGraph: the edges to take in order, starting on one segment and ending on another.
+ * Between edges the actor walks along the segment it landed on to the next takeoff column. Paths are shared
+ * between everyone who asks for the same route, so they must not be changed.
+ */
+public class NavPath {
+    private final NavSegment mStart;
+    private final NavSegment mGoal;
+    private final NavEdge[] mEdges;
+    private final float mCost;
+
+    NavPath(NavSegment start, NavSegment goal, NavEdge[] edges, float cost) {
+        mStart = start;
+        mGoal = goal;
+        mEdges = edges;
+        mCost = cost;
+    }
+
+    public NavSegment getStart() { return mStart; }
+    public NavSegment getGoal() { return mGoal; }
+
+    public int getEdgeCount() { return mEdges.length; }
+
+    public NavEdge getEdge(int i) { return mEdges[i]; }
+
+    /**
+     * Roughly how long the route takes, in seconds.
+     */
+    public float getCost() { return mCost; }
+
+    /**
+     * Whether the route starts on, lands on or leaves from the segment.
+     */
+    boolean uses(NavSegment segment) {
+        if(mStart == segment || mGoal == segment) return true;
+        for(int i = 0; i < mEdges.length; ++i) {
+            if(mEdges[i].mFrom == segment || mEdges[i].mTo == segment) return true;
+        }
+        return false;
+    }
+}
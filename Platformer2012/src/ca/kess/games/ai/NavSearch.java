@@ -0,0 +1,78 @@
+package ca.kess.games.ai;
+
+/**
+ * The scratch state of a search over ids (segments, portals, or segments within a cluster): the best cost
+ * found to each id so far, where it was entered, how it was got to, and the open list. Entries are stamped
+ * with the search they belong to, so nothing needs clearing between searches.
+ *
+ * A search's state can't be shared between threads, so NavGraph and NavClusters keep one of these per
+ * thread. That way several threads can find routes over the same graph at once (see PathService).
+ */
+class NavSearch {
+    int mSearch = 0;
+    int[] mStamps = new int[0];
+    int[] mClosed = new int[0];
+    float[] mCosts = new float[0];
+    int[] mEntryX = new int[0];
+    NavEdge[] mCameFrom = new NavEdge[0];
+    final NavHeap mOpen = new NavHeap();
+
+    /**
+     * Start a new search, over ids from 0 to size - 1.
+     */
+    void begin(int size) {
+        if(mStamps.length < size) {
+            int capacity = Math.max(size, mStamps.length * 2);
+            int[] stamps = new int[capacity];
+            int[] closed = new int[capacity];
+            System.arraycopy(mStamps, 0, stamps, 0, mStamps.length);
+            System.arraycopy(mClosed, 0, closed, 0, mClosed.length);
+            mStamps = stamps;
+            mClosed = closed;
+            mCosts = new float[capacity];
+            mEntryX = new int[capacity];
+            mCameFrom = new NavEdge[capacity];
+        }
+        ++mSearch;
+        mOpen.clear();
+    }
+
+    /**
+     * Whether a cost to the id has been found in this search.
+     */
+    boolean isReached(int id) {
+        return mStamps[id] == mSearch;
+    }
+
+    boolean isClosed(int id) {
+        return mClosed[id] == mSearch;
+    }
+
+    void close(int id) {
+        mClosed[id] = mSearch;
+    }
+
+    /**
+     * Record a way to the id, if it is cheaper than the one found so far. Returns whether it was.
+     */
+    boolean reach(int id, float cost, int entryX, NavEdge cameFrom) {
+        if(mStamps[id] == mSearch && mCosts[id] <= cost) return false;
+        mStamps[id] = mSearch;
+        mCosts[id] = cost;
+        mEntryX[id] = entryX;
+        mCameFrom[id] = cameFrom;
+        return true;
+    }
+
+    /**
+     * A ThreadLocal that gives each thread its own search state.
+     */
+    static ThreadLocal<NavSearch> perThread() {
+        return new ThreadLocal<NavSearch>() {
+            @Override
+            protected NavSearch initialValue() {
+                return new NavSearch();
+            }
+        };
+    }
+}
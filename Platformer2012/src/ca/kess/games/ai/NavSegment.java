@@ -0,0 +1,56 @@
+package ca.kess.games.ai;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A stretch of floor that an actor can walk along without jumping: a run of tiles on one row, each with
+ * room for the actor to stand in and something solid underneath. These are the nodes of a NavGraph.
+ */
+public class NavSegment {
+    final int mId;
+    final int mY;
+    final int mX0;
+    final int mX1;
+    final List<NavEdge> mEdges = new ArrayList<NavEdge>(4);
+    // Where this is in its cluster's list of segments (see NavClusters).
+    int mClusterIndex;
+
+    NavSegment(int id, int y, int x0, int x1) {
+        mId = id;
+        mY = y;
+        mX0 = x0;
+        mX1 = x1;
+    }
+
+    public int getId() { return mId; }
+
+    /**
+     * The row the actor stands in (one above the floor).
+     */
+    public int getY() { return mY; }
+
+    /**
+     * The leftmost column the actor's left edge can stand at.
+     */
+    public int getLeftX() { return mX0; }
+
+    /**
+     * The rightmost column the actor's left edge can stand at.
+     */
+    public int getRightX() { return mX1; }
+
+    public boolean contains(int x) {
+        return x >= mX0 && x <= mX1;
+    }
+
+    /**
+     * The ways off this segment, to other segments.
+     */
+    public List<NavEdge> getEdges() { return mEdges; }
+
+    // Clamp x to a column the actor can stand at on this segment.
+    int clamp(int x) {
+        return Math.max(mX0, Math.min(mX1, x));
+    }
+}
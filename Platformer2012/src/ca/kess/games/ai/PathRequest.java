@@ -0,0 +1,51 @@
+package ca.kess.games.ai;
+
+import ca.kess.games.entities.PhysicalEntity;
+
+/**
+ * A route asked for from a PathService. The route is found on a worker thread, and handed to the listener
+ * on the game thread, during a later tick. If the entity that asked leaves the world first (it is recycled,
+ * or parked in a chunk that is paged out), or the request is cancelled, the listener is never called.
+ */
+public class PathRequest {
+    public interface Listener {
+        /**
+         * The route has been found. Called on the game thread.
+         * @param path The route, or null if there isn't one.
+         */
+        public void onPathFound(PathRequest request, NavPath path);
+    }
+
+    final PhysicalEntity mRequester;
+    final float mFromX;
+    final float mFromY;
+    final float mToX;
+    final float mToY;
+    final Listener mListener;
+    // Set on the game thread, and read by the worker so it can skip the search.
+    volatile boolean mCancelled = false;
+    // Set by the worker before the request is handed back to the game thread.
+    NavPath mPath;
+
+    PathRequest(PhysicalEntity requester, float fromX, float fromY, float toX, float toY, Listener listener) {
+        mRequester = requester;
+        mFromX = fromX;
+        mFromY = fromY;
+        mToX = toX;
+        mToY = toY;
+        mListener = listener;
+    }
+
+    public PhysicalEntity getRequester() { return mRequester; }
+
+    /**
+     * Don't call the listener. For example, when the entity has decided to go somewhere else.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+}
@@ -0,0 +1,177 @@
+package ca.kess.games.ai;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import ca.kess.games.Constants;
+import ca.kess.games.entities.PhysicalEntity;
+import ca.kess.games.world.SolidityMap;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.utils.Disposable;
+
+/**
+ * Finds routes for the AI on worker threads, so that a long search doesn't hold up the physics step.
+ * Controllers ask for a route with requestPath(), and get it through the request's listener on a later
+ * tick, when the level calls deliverResults().
+ *
+ * The workers never look at the level's own solidity map, which changes under them as doors open and
+ * close. They search a NavGraph built over a copy of it instead. Tile changes are queued by the game
+ * thread, and applied to the copy (and the graph repaired) by a worker before its next search, while no
+ * other searches are running. So every search sees the level as it was at some tick, never half way
+ * through a change, and the game thread never waits on a search.
+ */
+public class PathService implements Disposable {
+    private static class TileChange {
+        final int mX;
+        final int mY;
+        final boolean mSolid;
+
+        TileChange(int x, int y, boolean solid) {
+            mX = x;
+            mY = y;
+            mSolid = solid;
+        }
+    }
+
+    private final SolidityMap mSolidity;
+    private final NavGraph mGraph;
+    // Searches hold the read lock, and applying tile changes holds the write lock.
+    private final ReadWriteLock mLock = new ReentrantReadWriteLock();
+    private final ThreadPoolExecutor mWorkers;
+
+    // Filled by the game thread, emptied by the workers.
+    private final Queue<TileChange> mTileChanges = new ConcurrentLinkedQueue<TileChange>();
+    // Filled by the workers, emptied by the game thread.
+    private final Queue<PathRequest> mFinished = new ConcurrentLinkedQueue<PathRequest>();
+    // Requests that haven't been handed back yet. Only used on the game thread.
+    private final List<PathRequest> mOutstanding = new ArrayList<PathRequest>();
+
+    public PathService(SolidityMap solidity) {
+        mSolidity = new SolidityMap(solidity);
+        long start = System.nanoTime();
+        mGraph = NavGraph.forActors(mSolidity);
+        Gdx.app.log(Constants.LOG, "Built navigation graph: " + mGraph.getSegmentCount() + " segments, "
+                + mGraph.getEdgeCount() + " edges, " + mGraph.getPortalCount() + " portals in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+
+        // Leave a core for the game thread.
+        int threads = Math.max(1, Math.min(Constants.PATH_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+        mWorkers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Constants.PATH_QUEUE_SIZE), new ThreadFactory() {
+            private int mCount = 0;
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "PathWorker-" + mCount++);
+                // Don't keep the game running once the main thread has finished.
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Ask for a route for the entity, from fromX, fromY to toX, toY (bottom left corners). Call from the
+     * game thread.
+     * @return The request, or null if too many requests are waiting already. Ask again on a later tick.
+     */
+    public PathRequest requestPath(PhysicalEntity requester, float fromX, float fromY, float toX, float toY,
+            PathRequest.Listener listener) {
+        final PathRequest request = new PathRequest(requester, fromX, fromY, toX, toY, listener);
+        try {
+            mWorkers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    findPath(request);
+                }
+            });
+        } catch(RejectedExecutionException e) {
+            return null;
+        }
+        mOutstanding.add(request);
+        return request;
+    }
+
+    /**
+     * The tile at x, y has changed whether it is solid. Call from the game thread.
+     */
+    public void tileChanged(int x, int y, boolean solid) {
+        mTileChanges.add(new TileChange(x, y, solid));
+    }
+
+    /**
+     * Cancel every request the entity has made. Called when it leaves the world, so that a pooled entity
+     * never gets a route that was asked for by whatever it was before.
+     */
+    public void cancel(PhysicalEntity requester) {
+        for(int i = 0; i < mOutstanding.size(); ++i) {
+            PathRequest request = mOutstanding.get(i);
+            if(request.mRequester == requester) {
+                request.cancel();
+            }
+        }
+    }
+
+    /**
+     * Hand the routes that have been found since the last call to their listeners. Call once a tick, from
+     * the game thread.
+     */
+    public void deliverResults() {
+        PathRequest request;
+        while((request = mFinished.poll()) != null) {
+            mOutstanding.remove(request);
+            if(!request.mCancelled) {
+                request.mListener.onPathFound(request, request.mPath);
+            }
+        }
+    }
+
+    // Runs on a worker.
+    private void findPath(PathRequest request) {
+        if(!request.mCancelled) {
+            applyTileChanges();
+            mLock.readLock().lock();
+            try {
+                request.mPath = mGraph.findPath(request.mFromX, request.mFromY, request.mToX, request.mToY);
+            } finally {
+                mLock.readLock().unlock();
+            }
+        }
+        mFinished.add(request);
+    }
+
+    // Runs on a worker. The queue is emptied while holding the write lock, so changes to the same tile
+    // are applied in order.
+    private void applyTileChanges() {
+        if(mTileChanges.isEmpty()) return;
+        mLock.writeLock().lock();
+        try {
+            TileChange change;
+            while((change = mTileChanges.poll()) != null) {
+                if(change.mSolid != mSolidity.isSolid(change.mX, change.mY)) {
+                    mSolidity.setSolid(change.mX, change.mY, change.mSolid);
+                    mGraph.repair(change.mX, change.mY);
+                }
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void dispose() {
+        mWorkers.shutdownNow();
+        mOutstanding.clear();
+        mFinished.clear();
+    }
+}
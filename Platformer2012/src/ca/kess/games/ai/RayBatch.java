@@ -0,0 +1,84 @@
+package ca.kess.games.ai;
+
+import ca.kess.games.entities.PhysicalEntity;
+
+/**
+ * A set of rays for Sensor.cast() to answer in one go, and their results. Make one with room for as many
+ * rays as are cast in a tick, then clear() and add() to it each tick, so that nothing is allocated.
+ */
+public class RayBatch {
+    // x0, y0, x1, y1 for each ray.
+    final float[] mRays;
+    final PhysicalEntity[] mIgnore;
+    final boolean mHitEntities;
+    int mCount = 0;
+
+    // Results, written by Sensor.cast().
+    final float[] mFractions;
+    final int[] mTiles;
+    final PhysicalEntity[] mEntities;
+
+    /**
+     * @param capacity The most rays the batch can hold.
+     * @param hitEntities Whether the rays stop at entities, or only at solid tiles.
+     */
+    public RayBatch(int capacity, boolean hitEntities) {
+        mRays = new float[capacity * 4];
+        mIgnore = new PhysicalEntity[capacity];
+        mHitEntities = hitEntities;
+        mFractions = new float[capacity];
+        mTiles = new int[capacity];
+        mEntities = new PhysicalEntity[capacity];
+    }
+
+    public int getCapacity() { return mIgnore.length; }
+    public int getCount() { return mCount; }
+
+    public void clear() {
+        for(int i = 0; i < mCount; ++i) {
+            mIgnore[i] = null;
+            mEntities[i] = null;
+        }
+        mCount = 0;
+    }
+
+    /**
+     * Add a ray from x0, y0 to x1, y1, that passes through ignore (which can be null).
+     * @return The ray's index, for getting its results.
+     */
+    public int add(float x0, float y0, float x1, float y1, PhysicalEntity ignore) {
+        assert mCount < mIgnore.length : "The ray batch is full";
+        int i = mCount++;
+        mRays[i * 4] = x0;
+        mRays[i * 4 + 1] = y0;
+        mRays[i * 4 + 2] = x1;
+        mRays[i * 4 + 3] = y1;
+        mIgnore[i] = ignore;
+        return i;
+    }
+
+    /**
+     * How far along the ray it hit something, from 0 at the start to 1 at the end. 1 if it didn't.
+     */
+    public float getFraction(int ray) { return mFractions[ray]; }
+
+    /**
+     * The tile the ray stopped at, as y * level width + x, or -1 if it didn't stop at one.
+     */
+    public int getTile(int ray) { return mTiles[ray]; }
+
+    /**
+     * The entity the ray stopped at, or null.
+     */
+    public PhysicalEntity getEntity(int ray) { return mEntities[ray]; }
+
+    /**
+     * The fractions for every ray, indexed by ray. Only the first getCount() mean anything.
+     */
+    public float[] getFractions() { return mFractions; }
+
+    /**
+     * The tiles for every ray, indexed by ray. Only the first getCount() mean anything.
+     */
+    public int[] getTiles() { return mTiles; }
+}
@@ -1,5 +1,253 @@
 package ca.kess.games.ai;
 
+import ca.kess.games.entities.PhysicalEntity;
+import ca.kess.games.physics.SpatialHashGrid;
+import ca.kess.games.world.SolidityMap;
+
+/**
+ * Raycasts and line of sight against the level, for actors that need to see the hero and for weapons that
+ * hit the moment they are fired.
+ *
+ * A ray walks the solidity map a tile at a time, in the order the ray passes through them (a DDA, as in
+ * Amanatides and Woo), and stops at the first solid tile. If it is also to hit entities, the broadphase
+ * cells along the part of the ray before that tile are checked. The results of the last cast are kept in
+ * the sensor, and nothing is allocated per ray. To cast a lot of rays at once, fill a RayBatch and pass it
+ * to cast(): the tiles are done for every ray first, then the entities, with the results written into the
+ * batch's arrays.
+ *
+ * Only use this from the game thread, since it shares the broadphase's query state.
+ */
 public class Sensor {
+    private final SolidityMap mSolidity;
+    private final SpatialHashGrid mBroadphase;
+    private final int mWidth;
+    private final int mHeight;
+
+    // Results of the last cast.
+    private float mHitFraction;
+    private int mHitTileX;
+    private int mHitTileY;
+    private PhysicalEntity mHitEntity;
+    private float mRayX;
+    private float mRayY;
+    private float mRayDeltaX;
+    private float mRayDeltaY;
+
+    // State for mRayVisitor.
+    private PhysicalEntity mIgnore;
+    private final SpatialHashGrid.Visitor mRayVisitor = new SpatialHashGrid.Visitor() {
+        @Override
+        public boolean visit(PhysicalEntity entity) {
+            if(entity == mIgnore) return true;
+            // Clip the ray to the entity's box on each axis.
+            float enter = 0;
+            float exit = mHitFraction;
+            if(mRayDeltaX == 0) {
+                if(mRayX < entity.getPositionX() || mRayX > entity.getPositionX() + entity.getWidth()) return true;
+            } else {
+                float t0 = (entity.getPositionX() - mRayX) / mRayDeltaX;
+                float t1 = (entity.getPositionX() + entity.getWidth() - mRayX) / mRayDeltaX;
+                enter = Math.max(enter, Math.min(t0, t1));
+                exit = Math.min(exit, Math.max(t0, t1));
+            }
+            if(mRayDeltaY == 0) {
+                if(mRayY < entity.getPositionY() || mRayY > entity.getPositionY() + entity.getHeight()) return true;
+            } else {
+                float t0 = (entity.getPositionY() - mRayY) / mRayDeltaY;
+                float t1 = (entity.getPositionY() + entity.getHeight() - mRayY) / mRayDeltaY;
+                enter = Math.max(enter, Math.min(t0, t1));
+                exit = Math.min(exit, Math.max(t0, t1));
+            }
+            if(enter > exit) return true;
+            // The cells aren't visited in exactly the order the ray enters the entities, so keep looking for
+            // a nearer one. Anything further away than this one is clipped out from now on.
+            if(mHitEntity == null || enter < mHitFraction) {
+                mHitFraction = enter;
+                mHitEntity = entity;
+                mHitTileX = -1;
+                mHitTileY = -1;
+            }
+            return true;
+        }
+    };
+
+    public Sensor(SolidityMap solidity, SpatialHashGrid broadphase) {
+        mSolidity = solidity;
+        mBroadphase = broadphase;
+        mWidth = solidity.getWidth();
+        mHeight = solidity.getHeight();
+    }
+
+    /**
+     * Cast a ray from x0, y0 to x1, y1. It stops at the first solid tile, or with hitEntities, at the first
+     * tile or entity other than ignore (which can be null).
+     * @return Whether the ray hit anything. The getHit methods say what and where.
+     */
+    public boolean raycast(float x0, float y0, float x1, float y1, boolean hitEntities, PhysicalEntity ignore) {
+        castTiles(x0, y0, x1, y1);
+        if(hitEntities) {
+            castEntities(ignore);
+        }
+        return mHitFraction < 1;
+    }
+
+    /**
+     * Whether nothing solid is in the way between x0, y0 and x1, y1. Entities don't block the view.
+     */
+    public boolean hasLineOfSight(float x0, float y0, float x1, float y1) {
+        castTiles(x0, y0, x1, y1);
+        return mHitFraction >= 1;
+    }
+
+    /**
+     * Whether the middle of one entity can see the middle of the other.
+     */
+    public boolean canSee(PhysicalEntity from, PhysicalEntity to) {
+        return hasLineOfSight(from.getPositionX() + from.getWidth() / 2, from.getPositionY() + from.getHeight() / 2,
+                to.getPositionX() + to.getWidth() / 2, to.getPositionY() + to.getHeight() / 2);
+    }
+
+    /**
+     * Cast every ray in the batch, and write the results into it.
+     */
+    public void cast(RayBatch batch) {
+        float[] rays = batch.mRays;
+        for(int i = 0; i < batch.mCount; ++i) {
+            castTiles(rays[i * 4], rays[i * 4 + 1], rays[i * 4 + 2], rays[i * 4 + 3]);
+            batch.mFractions[i] = mHitFraction;
+            batch.mTiles[i] = mHitTileX < 0 ? -1 : mHitTileY * mWidth + mHitTileX;
+            batch.mEntities[i] = null;
+        }
+        if(!batch.mHitEntities) return;
+        // Only the part of each ray before the tile it hit needs checking.
+        for(int i = 0; i < batch.mCount; ++i) {
+            float fraction = batch.mFractions[i];
+            if(fraction <= 0) continue;
+            setRay(rays[i * 4], rays[i * 4 + 1], rays[i * 4 + 2], rays[i * 4 + 3]);
+            mHitFraction = fraction;
+            mHitEntity = null;
+            castEntities(batch.mIgnore[i]);
+            if(mHitEntity != null) {
+                batch.mFractions[i] = mHitFraction;
+                batch.mTiles[i] = -1;
+                batch.mEntities[i] = mHitEntity;
+            }
+        }
+    }
+
+    /**
+     * How far along the last ray it hit something, from 0 at the start to 1 at the end. 1 if it didn't.
+     */
+    public float getHitFraction() { return mHitFraction; }
+    public float getHitX() { return mRayX + mRayDeltaX * mHitFraction; }
+    public float getHitY() { return mRayY + mRayDeltaY * mHitFraction; }
+
+    /**
+     * The tile the last ray stopped at, or -1 if it didn't stop at one.
+     */
+    public int getHitTileX() { return mHitTileX; }
+    public int getHitTileY() { return mHitTileY; }
+
+    /**
+     * The entity the last ray stopped at, or null.
+     */
+    public PhysicalEntity getHitEntity() { return mHitEntity; }
+
+    private void setRay(float x0, float y0, float x1, float y1) {
+        mRayX = x0;
+        mRayY = y0;
+        mRayDeltaX = x1 - x0;
+        mRayDeltaY = y1 - y0;
+    }
+
+    // Walk the tiles along the ray, stopping at the first solid one.
+    private void castTiles(float x0, float y0, float x1, float y1) {
+        setRay(x0, y0, x1, y1);
+        mHitFraction = 1;
+        mHitTileX = -1;
+        mHitTileY = -1;
+        mHitEntity = null;
+        float dx = mRayDeltaX;
+        float dy = mRayDeltaY;
+
+        // Tiles outside of the map are never solid, so only walk the part of the ray that is inside it.
+        float enter = 0;
+        float exit = 1;
+        if(dx == 0) {
+            if(x0 < 0 || x0 >= mWidth) return;
+        } else {
+            float t0 = -x0 / dx;
+            float t1 = (mWidth - x0) / dx;
+            enter = Math.max(enter, Math.min(t0, t1));
+            exit = Math.min(exit, Math.max(t0, t1));
+        }
+        if(dy == 0) {
+            if(y0 < 0 || y0 >= mHeight) return;
+        } else {
+            float t0 = -y0 / dy;
+            float t1 = (mHeight - y0) / dy;
+            enter = Math.max(enter, Math.min(t0, t1));
+            exit = Math.min(exit, Math.max(t0, t1));
+        }
+        // Rays that only touch the map at a corner don't go through any tiles.
+        if(enter >= exit) return;
+
+        // A ray that starts on the edge of a tile and goes away from it is only in the tile on the other side.
+        float startX = x0 + dx * enter;
+        float startY = y0 + dy * enter;
+        int x = (int) Math.floor(startX);
+        int y = (int) Math.floor(startY);
+        if(dx < 0 && x == startX) --x;
+        if(dy < 0 && y == startY) --y;
+        x = Math.max(0, Math.min(mWidth - 1, x));
+        y = Math.max(0, Math.min(mHeight - 1, y));
+        int stepX = dx > 0 ? 1 : -1;
+        int stepY = dy > 0 ? 1 : -1;
+        // How far along the ray it crosses into the next column and row, and how far it goes between
+        // crossings.
+        float nextX = dx == 0 ? Float.MAX_VALUE : ((dx > 0 ? x + 1 : x) - x0) / dx;
+        float nextY = dy == 0 ? Float.MAX_VALUE : ((dy > 0 ? y + 1 : y) - y0) / dy;
+        float deltaX = dx == 0 ? 0 : 1 / Math.abs(dx);
+        float deltaY = dy == 0 ? 0 : 1 / Math.abs(dy);
+        float t = enter;
+        while(true) {
+            if(mSolidity.isSolid(x, y)) {
+                mHitFraction = t;
+                mHitTileX = x;
+                mHitTileY = y;
+                return;
+            }
+            if(nextX < nextY) {
+                if(nextX > exit) return;
+                t = nextX;
+                x += stepX;
+                nextX += deltaX;
+                if(x < 0 || x >= mWidth) return;
+            } else if(nextY < nextX) {
+                if(nextY > exit) return;
+                t = nextY;
+                y += stepY;
+                nextY += deltaY;
+                if(y < 0 || y >= mHeight) return;
+            } else {
+                // Exactly through a corner. The tiles on either side are only touched at the corner, so
+                // don't count them.
+                if(nextX > exit) return;
+                t = nextX;
+                x += stepX;
+                y += stepY;
+                nextX += deltaX;
+                nextY += deltaY;
+                if(x < 0 || x >= mWidth || y < 0 || y >= mHeight) return;
+            }
+        }
+    }
 
+    // Look for entities along the ray, up to whatever castTiles() hit.
+    private void castEntities(PhysicalEntity ignore) {
+        if(mHitFraction <= 0) return;
+        mIgnore = ignore;
+        mBroadphase.queryLine(mRayX, mRayY, getHitX(), getHitY(), mRayVisitor);
+        mIgnore = null;
+    }
 }
@@ -10,15 +10,19 @@ import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.math.Matrix4;
 
 public class FixedCamera extends GameCamera {
-    private PhysicalEntity mGameEntity;
+    private final WorldLevel mWorld;
+    // A handle to the entity being followed.
+    private final int mTarget;
 
     public FixedCamera(OrthographicCamera camera, PhysicalEntity entity) {
         super(camera);
-        mGameEntity = entity;
+        mWorld = entity.getWorld();
+        mTarget = mWorld.getHandle(entity);
     }
 
+    // The entity being followed, or null if it has been recycled.
     public final PhysicalEntity getTarget() {
-        return mGameEntity;
+        return mWorld.getEntity(mTarget);
     }
 
     @Override
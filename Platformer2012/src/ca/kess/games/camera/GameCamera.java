@@ -16,6 +16,16 @@ public abstract class GameCamera {
 	public GameCamera(OrthographicCamera camera) {
 		mCamera = camera;
 	}
+
+	/**
+	 * Where the camera is looking, in world space.
+	 */
+	public float getFocusX() {
+		return mCamera.position.x;
+	}
+	public float getFocusY() {
+		return mCamera.position.y;
+	}
 	
 	/**
 	 * Do any pre-processing logic for the camera
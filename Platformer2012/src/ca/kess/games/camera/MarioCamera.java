@@ -22,7 +22,13 @@ public class MarioCamera extends FixedCamera {
 	@Override
 	public void update() {
 		Vector3 cameraPos = getCamera().position;
-		update_entityPos.set(getTarget().getPositionX(), getTarget().getPositionY());
+		PhysicalEntity target = getTarget();
+		if(target == null) {
+			// What we were following has been recycled, so stay where we are.
+			getCamera().update();
+			return;
+		}
+		update_entityPos.set(target.getPositionX(), target.getPositionY());
 
 		float f = Constants.ZOOM_FACTOR * Constants.TILE_SIZE;
 		//Transform entity position to screen space.
@@ -1,8 +1,5 @@
 package ca.kess.games.entities;
 
-import java.util.LinkedList;
-import java.util.Queue;
-
 import ca.kess.games.Constants;
 import ca.kess.games.graphics.GraphicsCache;
 import ca.kess.games.weapons.Weapon;
@@ -101,8 +98,8 @@ public class ActorEntity extends PhysicalEntity {
         //the player can slide down easily.
         /* TODO: Removing this for now, until I can make it feel better
         if(getVelocityY() < 0) {
-            boolean touchingWallLeft = mWorldLevel.getPenetrationDepthX(mPosition, -0.1f, mAABB) == 0;
-            boolean touchingWallRight = mWorldLevel.getPenetrationDepthX(mPosition,  0.1f, mAABB) == 0;
+            boolean touchingWallLeft = mWorldLevel.getPenetrationDepthX(getPositionX(), getPositionY(), -0.1f, getWidth(), getHeight()) == 0;
+            boolean touchingWallRight = mWorldLevel.getPenetrationDepthX(getPositionX(), getPositionY(),  0.1f, getWidth(), getHeight()) == 0;
             if(touchingWallLeft != touchingWallRight) {
                 //Take the force as gravity, only against the wall.
                 frictionOut.y = -Constants.WALL_FRICTION * gravity.y * getMass();
@@ -164,7 +161,7 @@ public class ActorEntity extends PhysicalEntity {
     	if(mIcon != Icon.NONE) {
     		Color c = mIcon.getColor();
 	    	b.setColor(c.r, c.g, c.b, this.mAlpha);
-	    	b.draw(mIcon.getTextureRegion(), mPosition.x, mPosition.y + mAABB.y, 0, 0, 1, 1, 1, 1, 0);
+	    	b.draw(mIcon.getTextureRegion(), getPositionX(), getPositionY() + getHeight(), 0, 0, 1, 1, 1, 1, 0);
     	}
     	if(mEquippedWeapon != null) {
     		mEquippedWeapon.render(b, this);
@@ -177,46 +174,29 @@ public class ActorEntity extends PhysicalEntity {
      */
     @Override
     public void recycle() {
-        Gdx.app.log(Constants.LOG, "ActorEntity::recycle");
-        this.setInitialized(false);
-    
-        ActorEntity.RecycleEntity(this);
+        setInitialized(false);
+        getWorld().removeEntity(this);
+        sPool.free(this);
     }
     
-    // A list of all uninitialized game entities
-    private static Queue<ActorEntity> sAvailableActors = new LinkedList<ActorEntity>();
+    // The uninitialized entities.
+    private static final EntityPool<ActorEntity> sPool = new EntityPool<ActorEntity>("ActorEntity", 100,
+            Constants.MAX_FREE_ACTORS,
+            new EntityPool.Factory<ActorEntity>() {
+                @Override
+                public ActorEntity create() {
+                    return new ActorEntity();
+                }
+            });
 
-    // Pre-allocate some game entities
-    private static void CreateGameEntities(int num) {
-        Gdx.app.log(Constants.LOG, "ActorEntity::GetActorEntity. Allocating " + num + " entities");
-        for(int i=0; i < num; ++i) {
-            sAvailableActors.add(new ActorEntity());
-        }
-    }
-    
     // Get an uninitialized game entity. It is the caller's responsibility to initialize it.
     public static ActorEntity GetActorEntity() {
-        Gdx.app.log(Constants.LOG, "ActorEntity::GetActorEntity. There are " + sAvailableActors.size() + " available.");
-        if(sAvailableActors.size() == 0) {
-            Gdx.app.log(Constants.LOG, "No available game entities, creating new ones");
-            CreateGameEntities(100);
-        }
-        return sAvailableActors.remove();
+        return sPool.get();
     }
-    
-    // Put the entity back in the pool.
-    private static void RecycleEntity(ActorEntity entity) {
-        Gdx.app.log(Constants.LOG, "ActorEntity::RecycleEntity. There are now " + sAvailableActors.size() + 1 + " entities in the pool.");
-        entity.getWorld().removeEntity(entity);
-        sAvailableActors.add(entity);
-    }
-    
+
     // Dispose the object pool for the game entity
     public static void DisposeObjectPool() {
-        Gdx.app.log(Constants.LOG, "ActorEntity::DisposeObjectPool");
-        for(ActorEntity entity : sAvailableActors) {
-            entity.dispose();
-        }
+        sPool.dispose();
     }
 
     public void equipWeapon(Weapon weapon) {
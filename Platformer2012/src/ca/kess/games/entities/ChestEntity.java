@@ -1,13 +1,8 @@
 package ca.kess.games.entities;
 
-import java.util.LinkedList;
-import java.util.Queue;
-
-import ca.kess.games.Constants;
 import ca.kess.games.timers.DeathFadeTimer;
 import ca.kess.games.world.WorldLevel;
 
-import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.g2d.Animation;
 
 public class ChestEntity extends PhysicalEntity {
@@ -21,7 +16,8 @@ public class ChestEntity extends PhysicalEntity {
     Animation mClosedAnimation;
     ChestState mState;
 
-    PhysicalEntity mContents;
+    // A handle to what falls out when the chest is opened.
+    int mContents;
     private ChestEntity() {
         
     }
@@ -40,10 +36,12 @@ public class ChestEntity extends PhysicalEntity {
                 mass, bounciness,
                 closedAnimation);
         // TODO Auto-generated constructor stub
+        // Chests can be stacked, and stood on.
+        setSolid(true);
         mOpenAnimation = openAnimation;
         mClosedAnimation = closedAnimation;
         mState = ChestState.CLOSED;
-        mContents = contents;
+        mContents = worldLevel.getHandle(contents);
         
         return this;
     }
@@ -53,9 +51,12 @@ public class ChestEntity extends PhysicalEntity {
         if(mState == ChestState.CLOSED) {
             mState = ChestState.OPEN;
             setVelocityY(15);
-            mContents.setVelocityY(30);
-            mContents.setPosition(getPositionX(), getPositionY());
-            getWorld().addEntity(mContents);
+            PhysicalEntity contents = getWorld().getEntity(mContents);
+            if(contents != null) {
+                contents.setVelocityY(30);
+                contents.setPosition(getPositionX(), getPositionY());
+                getWorld().addEntity(contents);
+            }
             setAnimation(mOpenAnimation);
             getWorld().addTimer(new DeathFadeTimer(this, 1.0f));
             return true;
@@ -65,50 +66,32 @@ public class ChestEntity extends PhysicalEntity {
 
     @Override
     public void recycle() {
-        Gdx.app.log(Constants.LOG, "GameEntity::recycle");
         setInitialized(false);
-
-        ChestEntity.RecycleEntity(this);
+        getWorld().removeEntity(this);
+        sPool.free(this);
     }
     
     
     /**
      * Some boilerplate code for the internal object pool.
      */
-    // A list of all uninitialized game entities
-    private static Queue<ChestEntity> sAvailableEntities = new LinkedList<ChestEntity>();
-    
-    // Pre-allocate some game entities
-    private static void CreateGameEntities(int num) {
-        Gdx.app.log(Constants.LOG, "ChestEntity::GetGameEntity. Allocating " + num + " entities");
-        for(int i=0; i < num; ++i) {
-            sAvailableEntities.add(new ChestEntity());
-        }
-    }
-    
+    // The uninitialized entities.
+    private static final EntityPool<ChestEntity> sPool = new EntityPool<ChestEntity>("ChestEntity", 100,
+            new EntityPool.Factory<ChestEntity>() {
+                @Override
+                public ChestEntity create() {
+                    return new ChestEntity();
+                }
+            });
+
     // Get an uninitialized game entity. It is the caller's responsibility to initialize it.
     public static ChestEntity GetChestEntity() {
-        Gdx.app.log(Constants.LOG, "ChestEntity::GetChestEntity. There are " + sAvailableEntities.size() + " available.");
-        if(sAvailableEntities.size() == 0) {
-            Gdx.app.log(Constants.LOG, "No available game entities, creating new ones");
-            CreateGameEntities(100);
-        }
-        return sAvailableEntities.remove();
-    }
-    
-    // Put the entity back in the pool.
-    private static void RecycleEntity(ChestEntity entity) {
-        Gdx.app.log(Constants.LOG, "ChestEntity::RecycleEntity");
-        entity.getWorld().removeEntity(entity);
-        sAvailableEntities.add(entity);
+        return sPool.get();
     }
-    
+
     // Dispose the object pool for the game entity
     public static void DisposeObjectPool() {
-        Gdx.app.log(Constants.LOG, "ChestEntity::DisposeObjectPool");
-        for(ChestEntity entity : sAvailableEntities) {
-            entity.dispose();
-        }
+        sPool.dispose();
     }
 
 }
@@ -0,0 +1,563 @@
+package ca.kess.games.entities;
+
+import java.util.Arrays;
+
+import ca.kess.games.Constants;
+import ca.kess.games.physics.SpatialHashGrid;
+import ca.kess.games.world.WorldLevel;
+
+/**
+ * Pushes solid entities (see PhysicalEntity.setSolid) out of each other, after they have all moved for the
+ * update, so that they can stand on and push each other.
+ *
+ * Each awake solid entity looks itself up in the broadphase, so only entities that are near each other are
+ * compared. Two entities are in contact when their boxes overlap, or are within Constants.CONTACT_SLOP of
+ * each other, on both axes. The contact is along whichever axis they overlap the least on, and they are
+ * pushed apart along it, and have the velocity they are moving into each other with taken away. Heavier
+ * entities are pushed less. An entity that is up against a tile on the side it would be pushed towards,
+ * or against something that is, or that is asleep, isn't pushed at all. That is what lets a stack rest on
+ * the ground, and fall asleep like anything else resting. Pushes are stopped against the tiles, just like
+ * moving is, so nothing gets pushed into a wall.
+ *
+ * Contacts are remembered from one update to the next. The push that kept each one apart last update is
+ * put back before it is worked out again, so stacks settle in a few passes, and the onCollide triggers are
+ * only fired when a contact begins. An entity that wakes up, or stops being held up, wakes whatever was
+ * resting on it.
+ *
+ * This runs on the game thread, and works through the entities in slot order, so it always gives the same
+ * results.
+ *
+ * IMPORTANT: Like the PhysicsStore, this should never allocate memory once it is big enough.
+ */
+public class ContactSolver {
+    // The flags for the sides of an entity that can be blocked.
+    private static final int SIDES = PhysicsStore.ON_GROUND | PhysicsStore.ON_ROOF | PhysicsStore.ON_WALL_LEFT | PhysicsStore.ON_WALL_RIGHT;
+    private static final int ACTIVE_SOLID = PhysicsStore.ACTIVE | PhysicsStore.SOLID;
+    private static final int X = 0;
+    private static final int Y = 1;
+    // How many steps a tile is split into when sorting the contacts by height.
+    private static final int HEIGHT_STEPS = 4;
+    // Up to this many contacts are insertion sorted by height, rather than counting sorted.
+    private static final int INSERTION_SORT_CONTACTS = 16;
+
+    // A list of contacts. Contact i is between slots a[i] < b[i], along axis[i], with b on the sign[i] (1 or
+    // -1) side of a. impulse[i] is the velocity it took away, weighted by mass.
+    private static final class Contacts {
+        int count = 0;
+        int[] a = new int[64];
+        int[] b = new int[64];
+        int[] axis = new int[64];
+        float[] sign = new float[64];
+        float[] impulse = new float[64];
+        // Whether the contact is new this update, or (for last update's contacts) has been found again.
+        boolean[] marked = new boolean[64];
+
+        void add(int slotA, int slotB, int contactAxis, float contactSign, float contactImpulse, boolean mark) {
+            if(count == a.length) {
+                int capacity = a.length * 2;
+                a = Arrays.copyOf(a, capacity);
+                b = Arrays.copyOf(b, capacity);
+                axis = Arrays.copyOf(axis, capacity);
+                sign = Arrays.copyOf(sign, capacity);
+                impulse = Arrays.copyOf(impulse, capacity);
+                marked = Arrays.copyOf(marked, capacity);
+            }
+            a[count] = slotA;
+            b[count] = slotB;
+            axis[count] = contactAxis;
+            sign[count] = contactSign;
+            impulse[count] = contactImpulse;
+            marked[count] = mark;
+            ++count;
+        }
+    }
+
+    private final PhysicsStore mPhysics;
+    private final SpatialHashGrid mGrid;
+
+    // This update's contacts, and last update's.
+    private Contacts mContacts = new Contacts();
+    private Contacts mPrevious = new Contacts();
+    // Hash tables of where each of last update's contacts is in mPrevious, and where each of this update's
+    // found so far is in mContacts, plus one. 0 is empty.
+    private int[] mTable = new int[128];
+    private int[] mFound = new int[128];
+
+    // The order to work through the contacts in, the height of each, and where each height starts in mOrder.
+    private int[] mOrder = new int[0];
+    private int[] mRows = new int[0];
+    private int[] mRowStarts = new int[0];
+
+    // The awake solid slots, which look for contacts.
+    private int[] mAwake = new int[0];
+    private int mAwakeCount = 0;
+    // Per slot: the sides that are blocked, and the last update the slot was moved in.
+    private int[] mBlocked = new int[0];
+    private int[] mMovedStamp = new int[0];
+    private int mStamp = 0;
+    // The entities that were pushed, so the level can update their broadphase entries.
+    private PhysicalEntity[] mMoved = new PhysicalEntity[0];
+    private int mMovedCount = 0;
+
+    // The level being solved, and the slot looking for contacts, for mContactFinder.
+    private WorldLevel mWorld;
+    private int mQuerySlot;
+
+    private final SpatialHashGrid.Visitor mContactFinder = new SpatialHashGrid.Visitor() {
+        @Override
+        public boolean visit(PhysicalEntity entity) {
+            int slot = entity.mPhysicsSlot;
+            if(slot == mQuerySlot || (mPhysics.mFlags[slot] & ACTIVE_SOLID) != ACTIVE_SOLID) {
+                return true;
+            }
+            // Two awake entities can both find each other, but each only looks over where it moved, so either
+            // one might be the only one to. Whichever finds the pair first keeps the contact.
+            if(find(mFound, mContacts, Math.min(slot, mQuerySlot), Math.max(slot, mQuerySlot)) >= 0) {
+                return true;
+            }
+            findContact(mQuerySlot, slot);
+            return true;
+        }
+    };
+
+    public ContactSolver(PhysicsStore physics, SpatialHashGrid grid) {
+        mPhysics = physics;
+        mGrid = grid;
+    }
+
+    /**
+     * Find the contacts between the solid entities, push them apart, then fire the onCollide triggers for the
+     * contacts that began. Call once the entities have moved, and the broadphase is up to date with where
+     * they are. Entities that get pushed are listed by getMoved().
+     */
+    public void solve(WorldLevel world) {
+        PhysicsStore physics = mPhysics;
+        int[] flags = physics.mFlags;
+        ensureCapacity(physics.getCount());
+        ++mStamp;
+        mMovedCount = 0;
+        mWorld = world;
+
+        Contacts swap = mPrevious;
+        mPrevious = mContacts;
+        mContacts = swap;
+        mContacts.count = 0;
+        mTable = fillTable(mTable, mPrevious);
+        Arrays.fill(mPrevious.marked, 0, mPrevious.count, false);
+
+        mAwakeCount = 0;
+        for(int slot = 0; slot < physics.getCount(); ++slot) {
+            if((flags[slot] & ACTIVE_SOLID) != ACTIVE_SOLID) continue;
+            mBlocked[slot] = flags[slot] & SIDES;
+            if((flags[slot] & PhysicsStore.SLEEPING) == 0) {
+                mAwake[mAwakeCount++] = slot;
+            }
+        }
+
+        // Two sleeping entities can't have moved, so their contact is carried over as it is.
+        Contacts previous = mPrevious;
+        for(int i = 0; i < previous.count; ++i) {
+            if(isAsleep(previous.a[i]) && isAsleep(previous.b[i])) {
+                previous.marked[i] = true;
+                mContacts.add(previous.a[i], previous.b[i], previous.axis[i], previous.sign[i], previous.impulse[i], false);
+            }
+        }
+        mFound = fillTable(mFound, mContacts);
+        // Each looks over where it moved from as well as where it is, to find anything it passed through.
+        float slop = Constants.CONTACT_SLOP;
+        for(int i = 0; i < mAwakeCount; ++i) {
+            int slot = mAwake[i];
+            mQuerySlot = slot;
+            float x0 = Math.min(physics.mPositionX[slot], physics.mPreviousX[slot]) - slop;
+            float y0 = Math.min(physics.mPositionY[slot], physics.mPreviousY[slot]) - slop;
+            float x1 = Math.max(physics.mPositionX[slot], physics.mPreviousX[slot]) + physics.mWidth[slot] + slop;
+            float y1 = Math.max(physics.mPositionY[slot], physics.mPreviousY[slot]) + physics.mHeight[slot] + slop;
+            mGrid.query(x0, y0, x1 - x0, y1 - y0, mContactFinder);
+        }
+
+        Contacts contacts = mContacts;
+        sortByHeight();
+        for(int iteration = 0; iteration < Constants.CONTACT_ITERATIONS; ++iteration) {
+            for(int i = 0; i < contacts.count; ++i) {
+                solveContact(mOrder[i], iteration == 0);
+            }
+        }
+        // Last update's contacts that weren't found might only have come apart while the entities moved,
+        // like something sitting on a stack that drops a little before the stack is pushed back up under
+        // it. If they are touching again they are kept. Otherwise whatever they were holding up (or holding
+        // back) can move now.
+        for(int i = 0; i < previous.count; ++i) {
+            if(previous.marked[i]) continue;
+            int a = previous.a[i];
+            int b = previous.b[i];
+            int axis = previous.axis[i];
+            float sign = previous.sign[i];
+            if((flags[a] & ACTIVE_SOLID) == ACTIVE_SOLID && (flags[b] & ACTIVE_SOLID) == ACTIVE_SOLID
+                    && getPenetration(a, b, axis, sign) >= -slop && getOverlap(axis == X ? physics.mPositionY : physics.mPositionX,
+                            axis == X ? physics.mHeight : physics.mWidth, a, b) > 0) {
+                contacts.add(a, b, axis, sign, previous.impulse[i], false);
+            } else {
+                wakeIfActive(a);
+                wakeIfActive(b);
+            }
+        }
+        // The entities are touching on the sides of each contact, just as if they were up against a tile.
+        for(int i = 0; i < contacts.count; ++i) {
+            int a = contacts.a[i];
+            int b = contacts.b[i];
+            int axis = contacts.axis[i];
+            float sign = contacts.sign[i];
+            if(getPenetration(a, b, axis, sign) >= -slop) {
+                flags[a] |= side(axis, sign);
+                flags[b] |= side(axis, -sign);
+            }
+        }
+        for(int i = 0; i < mAwakeCount; ++i) {
+            physics.settle(mAwake[i]);
+        }
+        mWorld = null;
+
+        // The triggers can do anything, so they go last.
+        for(int i = 0; i < contacts.count; ++i) {
+            if(contacts.marked[i]) {
+                fireCollision(contacts.a[i], contacts.b[i], contacts.axis[i], contacts.sign[i]);
+            }
+        }
+    }
+
+    /**
+     * The number of entities that were pushed by the last solve().
+     */
+    public int getMovedCount() {
+        return mMovedCount;
+    }
+
+    public PhysicalEntity getMoved(int index) {
+        return mMoved[index];
+    }
+
+    // Work out whether the entities in slots self and other are in contact, and along which axis, and add
+    // the contact if they are. self is awake, other may be asleep.
+    private void findContact(int self, int other) {
+        PhysicsStore physics = mPhysics;
+        int a = Math.min(self, other);
+        int b = Math.max(self, other);
+        float slop = Constants.CONTACT_SLOP;
+        float overlapX = getOverlap(physics.mPositionX, physics.mWidth, a, b);
+        float overlapY = getOverlap(physics.mPositionY, physics.mHeight, a, b);
+        float previousX = getOverlap(physics.mPreviousX, physics.mWidth, a, b);
+        float previousY = getOverlap(physics.mPreviousY, physics.mHeight, a, b);
+        int axis;
+        float sign;
+        if(previousY <= 0 && previousX > 0 && overlapX > 0) {
+            // They were one above the other before they moved, so that is how they met, however far into
+            // each other (or past each other) they have moved since. Otherwise something falling fast
+            // could drop right through, or be pushed out sideways.
+            axis = Y;
+            sign = physics.mPreviousY[b] > physics.mPreviousY[a] ? 1 : -1;
+        } else if(previousX <= 0 && previousY > 0 && overlapY > 0) {
+            axis = X;
+            sign = physics.mPreviousX[b] > physics.mPreviousX[a] ? 1 : -1;
+        } else {
+            // Boxes that only come close at the corners aren't touching.
+            if(overlapX < -slop || overlapY < -slop || (overlapX <= 0 && overlapY <= 0)) {
+                return;
+            }
+            if(overlapX < overlapY) {
+                axis = X;
+                sign = physics.mPositionX[b] + physics.mWidth[b] / 2 > physics.mPositionX[a] + physics.mWidth[a] / 2 ? 1 : -1;
+            } else {
+                axis = Y;
+                sign = physics.mPositionY[b] + physics.mHeight[b] / 2 > physics.mPositionY[a] + physics.mHeight[a] / 2 ? 1 : -1;
+            }
+        }
+        if(getPenetration(a, b, axis, sign) < -slop) {
+            return;
+        }
+
+        // A sleeping entity is woken by something pushing into it, but not by something just resting on it or
+        // up against it, or it would never get back to sleep.
+        if(isAsleep(other)) {
+            boolean selfOnTop = axis == Y && (self == b ? sign > 0 : sign < 0);
+            float[] velocity = axis == X ? physics.mVelocityX : physics.mVelocityY;
+            float closing = sign * (velocity[a] - velocity[b]);
+            if(!selfOnTop && (getPenetration(a, b, axis, sign) > slop || closing > Constants.SLEEP_VELOCITY)) {
+                physics.wake(other);
+            }
+        }
+
+        float impulse = 0;
+        boolean began = true;
+        int found = find(mTable, mPrevious, a, b);
+        if(found >= 0) {
+            mPrevious.marked[found] = true;
+            began = false;
+            // The push only carries over if it is still pushing the same way.
+            if(mPrevious.axis[found] == axis && mPrevious.sign[found] == sign) {
+                impulse = mPrevious.impulse[found];
+            }
+        }
+        mContacts.add(a, b, axis, sign, impulse, began);
+        // Keep the table at most half full, so there is always an empty bucket to stop at.
+        if(mContacts.count * 2 > mFound.length) {
+            mFound = fillTable(mFound, mContacts);
+        } else {
+            insert(mFound, mContacts, mContacts.count - 1);
+        }
+    }
+
+    // Take away the velocity the two entities of the contact are moving into each other with, then push
+    // them apart. warmStart puts back last update's push first.
+    private void solveContact(int i, boolean warmStart) {
+        PhysicsStore physics = mPhysics;
+        Contacts contacts = mContacts;
+        int a = contacts.a[i];
+        int b = contacts.b[i];
+        int axis = contacts.axis[i];
+        float sign = contacts.sign[i];
+        // a is pushed away from b, and b away from a.
+        float inverseMassA = getInverseMass(a, axis, -sign);
+        float inverseMassB = getInverseMass(b, axis, sign);
+        float inverseMass = inverseMassA + inverseMassB;
+        if(inverseMass == 0) {
+            return;
+        }
+
+        float[] velocity = axis == X ? physics.mVelocityX : physics.mVelocityY;
+        float impulse = contacts.impulse[i];
+        if(warmStart) {
+            velocity[a] -= sign * impulse * inverseMassA;
+            velocity[b] += sign * impulse * inverseMassB;
+        }
+        // The contact can only push the entities apart, never pull them together, so the total push is
+        // kept from going negative.
+        float closing = sign * (velocity[a] - velocity[b]);
+        float total = Math.max(0, impulse + closing / inverseMass);
+        float delta = total - impulse;
+        contacts.impulse[i] = total;
+        velocity[a] -= sign * delta * inverseMassA;
+        velocity[b] += sign * delta * inverseMassB;
+
+        float penetration = getPenetration(a, b, axis, sign);
+        if(penetration > 0) {
+            float[] position = axis == X ? physics.mPositionX : physics.mPositionY;
+            float[] size = axis == X ? physics.mWidth : physics.mHeight;
+            if(inverseMassA > 0) {
+                pushTo(a, axis, position[a] - sign * penetration * inverseMassA / inverseMass);
+            }
+            // b takes the rest, including whatever a couldn't move because it hit a tile.
+            if(inverseMassB > 0) {
+                pushTo(b, axis, sign > 0 ? position[a] + size[a] : position[a] - size[b]);
+            }
+            // And if b hit a tile, a takes what is left.
+            if(inverseMassA > 0 && getPenetration(a, b, axis, sign) > 0) {
+                pushTo(a, axis, sign > 0 ? position[b] - size[a] : position[b] + size[b]);
+            }
+        }
+
+        // Anything up against something that can't move can't move that way either.
+        if(getInverseMass(a, axis, -sign) == 0) {
+            mBlocked[b] |= side(axis, -sign);
+        }
+        if(getInverseMass(b, axis, sign) == 0) {
+            mBlocked[a] |= side(axis, sign);
+        }
+    }
+
+    // Put the contacts in mOrder from the lowest to the highest, so that a stack is worked through from the
+    // bottom up. That way what is holding the bottom up reaches the top in one pass. Contacts are sorted on a
+    // quarter of a tile, and stably, so anything that isn't stacked stays in the order it was found. A few
+    // contacts are insertion sorted; more are counting sorted over just the rows between the lowest and the
+    // highest, so the cost goes with the contacts, not the height of the level.
+    private void sortByHeight() {
+        Contacts contacts = mContacts;
+        int count = contacts.count;
+        if(count == 0) return;
+        if(mOrder.length < count) {
+            mOrder = new int[contacts.a.length];
+            mRows = new int[contacts.a.length];
+        }
+        int[] order = mOrder;
+        int[] rows = mRows;
+        int lowest = Integer.MAX_VALUE;
+        int highest = 0;
+        for(int i = 0; i < count; ++i) {
+            float bottom = Math.min(mPhysics.mPositionY[contacts.a[i]], mPhysics.mPositionY[contacts.b[i]]);
+            int row = (int) Math.max(0, Math.floor(bottom * HEIGHT_STEPS));
+            rows[i] = row;
+            lowest = Math.min(lowest, row);
+            highest = Math.max(highest, row);
+        }
+
+        if(count <= INSERTION_SORT_CONTACTS) {
+            for(int i = 0; i < count; ++i) {
+                int j = i;
+                while(j > 0 && rows[order[j - 1]] > rows[i]) {
+                    order[j] = order[j - 1];
+                    --j;
+                }
+                order[j] = i;
+            }
+            return;
+        }
+
+        int span = highest - lowest + 1;
+        if(mRowStarts.length < span + 1) {
+            mRowStarts = new int[Math.max(span + 1, mRowStarts.length * 2)];
+        }
+        int[] starts = mRowStarts;
+        Arrays.fill(starts, 0, span + 1, 0);
+        for(int i = 0; i < count; ++i) {
+            ++starts[rows[i] - lowest + 1];
+        }
+        for(int row = 0; row < span; ++row) {
+            starts[row + 1] += starts[row];
+        }
+        for(int i = 0; i < count; ++i) {
+            order[starts[rows[i] - lowest]++] = i;
+        }
+    }
+
+    // 1 / mass of the entity in the slot, or 0 if it can't be pushed in direction (1 or -1) along axis.
+    private float getInverseMass(int slot, int axis, float direction) {
+        if((mPhysics.mFlags[slot] & PhysicsStore.SLEEPING) != 0 || (mBlocked[slot] & side(axis, direction)) != 0) {
+            return 0;
+        }
+        return 1 / mPhysics.mMass[slot];
+    }
+
+    // How far the entities in slots a and b overlap, given their positions and sizes along one axis.
+    // Negative if there is a gap between them.
+    private static float getOverlap(float[] position, float[] size, int a, int b) {
+        return Math.min(position[a] + size[a], position[b] + size[b]) - Math.max(position[a], position[b]);
+    }
+
+    // How far the entities of a contact overlap along its axis. Negative if there is a gap between them.
+    private float getPenetration(int a, int b, int axis, float sign) {
+        float[] position = axis == X ? mPhysics.mPositionX : mPhysics.mPositionY;
+        float[] size = axis == X ? mPhysics.mWidth : mPhysics.mHeight;
+        if(sign > 0) {
+            return position[a] + size[a] - position[b];
+        }
+        return position[b] + size[b] - position[a];
+    }
+
+    // Move the entity in the slot along axis to target, or as far towards it as it can go before it hits a
+    // tile. If it hits one, that side of it is blocked.
+    private void pushTo(int slot, int axis, float target) {
+        PhysicsStore physics = mPhysics;
+        float[] position = axis == X ? physics.mPositionX : physics.mPositionY;
+        float delta = target - position[slot];
+        if(delta == 0) {
+            return;
+        }
+        float moved = delta;
+        if((physics.mFlags[slot] & PhysicsStore.COLLISIONS) != 0) {
+            float x = physics.mPositionX[slot];
+            float y = physics.mPositionY[slot];
+            if(axis == X) {
+                moved = mWorld.getPenetrationDepthX(x, y, delta, physics.mWidth[slot], physics.mHeight[slot]);
+            } else {
+                moved = mWorld.getPenetrationDepthY(x, y, delta, physics.mWidth[slot], physics.mHeight[slot]);
+            }
+        }
+        if(moved == delta) {
+            // Put it exactly where it was asked to go, so that it doesn't creep from rounding.
+            position[slot] = target;
+        } else {
+            position[slot] += moved;
+            mBlocked[slot] |= side(axis, delta);
+        }
+        if(mMovedStamp[slot] != mStamp) {
+            mMovedStamp[slot] = mStamp;
+            mMoved[mMovedCount++] = physics.mOwners[slot];
+        }
+    }
+
+    // The flag for the side of an entity facing direction (1 or -1) along axis.
+    private static int side(int axis, float direction) {
+        if(axis == X) {
+            return direction < 0 ? PhysicsStore.ON_WALL_LEFT : PhysicsStore.ON_WALL_RIGHT;
+        }
+        return direction < 0 ? PhysicsStore.ON_GROUND : PhysicsStore.ON_ROOF;
+    }
+
+    // Fire the triggers for a contact that began, between b on the sign side of a along axis.
+    private void fireCollision(int a, int b, int axis, float sign) {
+        PhysicalEntity low = mPhysics.mOwners[sign > 0 ? a : b];
+        PhysicalEntity high = mPhysics.mOwners[sign > 0 ? b : a];
+        if(low == null || high == null) {
+            return;
+        }
+        if(axis == X) {
+            low.onCollideRight(high);
+            high.onCollideLeft(low);
+        } else {
+            low.onCollideTop(high);
+            high.onCollideBottom(low);
+        }
+    }
+
+    private boolean isAsleep(int slot) {
+        return (mPhysics.mFlags[slot] & (ACTIVE_SOLID | PhysicsStore.SLEEPING)) == (ACTIVE_SOLID | PhysicsStore.SLEEPING);
+    }
+
+    private void wakeIfActive(int slot) {
+        if((mPhysics.mFlags[slot] & PhysicsStore.ACTIVE) != 0) {
+            mPhysics.wake(slot);
+        }
+    }
+
+    // Where the contact between slots a and b is in contacts, going by its table, or -1 if it isn't there.
+    private static int find(int[] table, Contacts contacts, int a, int b) {
+        int mask = table.length - 1;
+        for(int bucket = hash(a, b) & mask; table[bucket] != 0; bucket = (bucket + 1) & mask) {
+            int i = table[bucket] - 1;
+            if(contacts.a[i] == a && contacts.b[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Fill a table from contacts, making a bigger one if it would be more than half full.
+    private static int[] fillTable(int[] table, Contacts contacts) {
+        int size = table.length;
+        while(size < contacts.count * 2) {
+            size *= 2;
+        }
+        if(size != table.length) {
+            table = new int[size];
+        } else {
+            Arrays.fill(table, 0);
+        }
+        for(int i = 0; i < contacts.count; ++i) {
+            insert(table, contacts, i);
+        }
+        return table;
+    }
+
+    private static void insert(int[] table, Contacts contacts, int i) {
+        int mask = table.length - 1;
+        int bucket = hash(contacts.a[i], contacts.b[i]) & mask;
+        while(table[bucket] != 0) {
+            bucket = (bucket + 1) & mask;
+        }
+        table[bucket] = i + 1;
+    }
+
+    private static int hash(int a, int b) {
+        return (a * 73856093) ^ (b * 19349663);
+    }
+
+    private void ensureCapacity(int slots) {
+        if(mBlocked.length >= slots) {
+            return;
+        }
+        int capacity = Math.max(slots, mBlocked.length * 2);
+        mAwake = new int[capacity];
+        mBlocked = new int[capacity];
+        mMovedStamp = new int[capacity];
+        mMoved = new PhysicalEntity[capacity];
+    }
+}
@@ -0,0 +1,205 @@
+package ca.kess.games.entities;
+
+import java.util.Arrays;
+
+import ca.kess.games.Constants;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.utils.Disposable;
+
+/**
+ * A pool of uninitialized entities of one type, so that entities can come and go without allocating. The
+ * free entities are kept in an array used as a stack, so getting and returning an entity is just moving a
+ * reference. When the pool runs out it makes a batch of new entities, and the array only grows when the
+ * pool holds more free entities than it ever has.
+ *
+ * A pool can be given a maximum number of free entities to keep. Entities returned past that are disposed
+ * and left for the garbage collector, so a burst (of particles, say) doesn't keep its memory forever. That
+ * is done lazily, a few entities at a time as entities come and go: an entity is usually recycled during a
+ * tick, and stays in its level until the next update, so it can't be disposed until it has actually left.
+ *
+ * The pool counts what happens to it, so a level can be checked for entities that are never recycled:
+ * - gets and returns,
+ * - misses, when a get found the pool empty and had to make new entities,
+ * - discards, when a free entity over the maximum was disposed,
+ * - the most entities that have been out of the pool at once, and the most it has held,
+ * - leaks, entities that were still out of the pool when it was disposed.
+ *
+ * With assertions on, returning an entity that is already in the pool (recycling it twice) fails, since the
+ * pool would otherwise hand the same entity out twice.
+ */
+public class EntityPool<T extends PhysicalEntity> implements Disposable {
+    public interface Factory<T> {
+        // Make a new, uninitialized entity.
+        public T create();
+    }
+
+    // How many free entities a get or free looks at to dispose, while the pool is over its maximum. More than
+    // one, so that the pool still shrinks while entities are being returned.
+    private static final int TRIM_PER_CALL = 4;
+
+    private final String mName;
+    private final Factory<T> mFactory;
+    private final int mGrowth;
+    private final int mMaximum;
+
+    // The free entities are mFree[0, mFreeCount).
+    private PhysicalEntity[] mFree;
+    private int mFreeCount = 0;
+    // Where trim() looks next.
+    private int mTrimIndex = 0;
+
+    private int mOutstanding = 0;
+    private int mOutstandingHighWater = 0;
+    private int mFreeHighWater = 0;
+    private int mCreated = 0;
+    private long mGets = 0;
+    private long mReturns = 0;
+    private long mMisses = 0;
+    private long mDiscards = 0;
+    private int mLeaks = 0;
+
+    /**
+     * An unbounded pool.
+     * @param name What the pool is called in the log.
+     * @param growth How many entities to make when the pool runs out.
+     */
+    public EntityPool(String name, int growth, Factory<T> factory) {
+        this(name, growth, Integer.MAX_VALUE, factory);
+    }
+
+    /**
+     * @param name What the pool is called in the log.
+     * @param growth How many entities to make when the pool runs out.
+     * @param maximum The most free entities to keep.
+     */
+    public EntityPool(String name, int growth, int maximum, Factory<T> factory) {
+        assert growth > 0 && maximum > 0;
+        mName = name;
+        mFactory = factory;
+        mGrowth = growth;
+        mMaximum = maximum;
+        mFree = new PhysicalEntity[Math.min(growth, maximum)];
+    }
+
+    /**
+     * Get an uninitialized entity. It is the caller's responsibility to initialize it.
+     */
+    @SuppressWarnings("unchecked")
+    public T get() {
+        ++mGets;
+        if(mFreeCount > mMaximum) {
+            trim();
+        }
+        if(mFreeCount == 0) {
+            ++mMisses;
+            grow();
+        }
+        PhysicalEntity entity = mFree[--mFreeCount];
+        mFree[mFreeCount] = null;
+        entity.mPooled = false;
+        if(++mOutstanding > mOutstandingHighWater) {
+            mOutstandingHighWater = mOutstanding;
+        }
+        return (T) entity;
+    }
+
+    /**
+     * Put an entity back in the pool. It should already be uninitialized, and out of its level.
+     */
+    public void free(T entity) {
+        assert !entity.mPooled : mName + " entity was recycled twice!";
+        // Whatever still has a handle to the entity shouldn't get it back as something else.
+        entity.retireHandle();
+        ++mReturns;
+        --mOutstanding;
+        if(mFreeCount == mFree.length) {
+            mFree = Arrays.copyOf(mFree, mFree.length * 2);
+        }
+        entity.mPooled = true;
+        mFree[mFreeCount++] = entity;
+        if(mFreeCount > mFreeHighWater) {
+            mFreeHighWater = mFreeCount;
+        }
+        if(mFreeCount > mMaximum) {
+            trim();
+        }
+    }
+
+    // Dispose some of the free entities past the maximum. Only TRIM_PER_CALL are looked at, working round
+    // the free entities from the oldest, so this costs the same however far over the pool is. Ones that are
+    // still in their level (or about to be added to it) are skipped until they have left, since the level
+    // still uses their physics slot.
+    private void trim() {
+        for(int i = 0; i < TRIM_PER_CALL && mFreeCount > mMaximum; ++i) {
+            if(mTrimIndex >= mFreeCount) {
+                mTrimIndex = 0;
+            }
+            PhysicalEntity entity = mFree[mTrimIndex];
+            if(entity.isOutOfLevel()) {
+                ++mDiscards;
+                entity.mPooled = false;
+                entity.dispose();
+                mFree[mTrimIndex] = mFree[--mFreeCount];
+                mFree[mFreeCount] = null;
+            } else {
+                ++mTrimIndex;
+            }
+        }
+    }
+
+    // Make a batch of new entities, when the pool is empty.
+    private void grow() {
+        int num = Math.min(mGrowth, mMaximum);
+        Gdx.app.log(Constants.LOG, mName + " pool is empty. Allocating " + num + " entities");
+        if(mFree.length < num) {
+            mFree = Arrays.copyOf(mFree, num);
+        }
+        for(int i = 0; i < num; ++i) {
+            PhysicalEntity entity = mFactory.create();
+            entity.mPooled = true;
+            mFree[mFreeCount++] = entity;
+        }
+        mCreated += num;
+        if(mFreeCount > mFreeHighWater) {
+            mFreeHighWater = mFreeCount;
+        }
+    }
+
+    public int getFreeCount() { return mFreeCount; }
+    public int getOutstanding() { return mOutstanding; }
+    public int getOutstandingHighWater() { return mOutstandingHighWater; }
+    public int getFreeHighWater() { return mFreeHighWater; }
+    public int getCreated() { return mCreated; }
+    public long getGets() { return mGets; }
+    public long getReturns() { return mReturns; }
+    public long getMisses() { return mMisses; }
+    public long getDiscards() { return mDiscards; }
+    public int getLeaks() { return mLeaks; }
+
+    public void logStatistics() {
+        Gdx.app.log(Constants.LOG, mName + " pool: " + mGets + " gets, " + mReturns + " returns, " + mMisses
+                + " misses, " + mDiscards + " discards, " + mCreated + " created, at most " + mOutstandingHighWater
+                + " in use and " + mFreeHighWater + " free, " + mOutstanding + " in use now");
+    }
+
+    /**
+     * Dispose the free entities. Any that are still in use are counted as leaks, since they will never come
+     * back to the pool.
+     */
+    @Override
+    public void dispose() {
+        mLeaks += mOutstanding;
+        if(mOutstanding > 0) {
+            Gdx.app.log(Constants.LOG, mName + " pool: " + mOutstanding + " entities were never recycled");
+        }
+        logStatistics();
+        for(int i = 0; i < mFreeCount; ++i) {
+            mFree[i].mPooled = false;
+            mFree[i].dispose();
+            mFree[i] = null;
+        }
+        mFreeCount = 0;
+        mOutstanding = 0;
+    }
+}
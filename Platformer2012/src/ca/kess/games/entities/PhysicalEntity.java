@@ -3,7 +3,7 @@ package ca.kess.games.entities;
 import ca.kess.games.Constants;
 import ca.kess.games.interfaces.IRenderable;
 import ca.kess.games.interfaces.IUpdateable;
-import ca.kess.games.world.Tile;
+import ca.kess.games.physics.BroadphaseProxy;
 import ca.kess.games.world.WorldLevel;
 
 import com.badlogic.gdx.Gdx;
@@ -46,80 +46,146 @@ public abstract class PhysicalEntity extends GameEntity implements IRenderable,
     /**
      * PHYSICAL PROPERTIES/PHYSICAL STATE
      * 
-     * These represent where the entity is within the world.
+     * These represent where the entity is within the world. They are kept in the level's PhysicsStore, in
+     * the entity's slot, rather than in the entity. The store doesn't exist until the entity is initialized
+     * into a level, so don't touch these before that.
      */
+    // The store that holds the entity's physical state, and which slot of it is the entity's.
+    private PhysicsStore mPhysics;
+    int mPhysicsSlot = -1;
+
     //The current position of the object. This is valid after update() has been called.
-    protected Vector2 mPosition;
-    public float getPositionX() { return mPosition.x; }
-    public float getPositionY() { return mPosition.y; }
+    public float getPositionX() { return mPhysics.mPositionX[mPhysicsSlot]; }
+    public float getPositionY() { return mPhysics.mPositionY[mPhysicsSlot]; }
     //WARNING: Be careful that you don't set to an invalid position.
     // Also - this doesn't update previous position, not sure if that is correct.
-    public void setPosition(float x, float y) { mPosition.set(x, y); }
+    public void setPosition(float x, float y) {
+        wake();
+        mPhysics.mPositionX[mPhysicsSlot] = x;
+        mPhysics.mPositionY[mPhysicsSlot] = y;
+    }
 
     //The position of the object, after the previous iteration of update() was called.
-    private Vector2 mPreviousPosition;
+    public float getPreviousPositionX() { return mPhysics.mPreviousX[mPhysicsSlot]; }
+    public float getPreviousPositionY() { return mPhysics.mPreviousY[mPhysicsSlot]; }
     //The velocity of the entity, in world space (1 = 1 tile/second).
-    protected Vector2 mVelocity;
-    public void setVelocityX(float x) { mVelocity.x = x; }
-    public void setVelocityY(float y) { mVelocity.y = y; }
-    public void setVelocity(float x, float y) { mVelocity.set(x, y); }
-    public float getVelocityX() { return mVelocity.x; }
-    public float getVelocityY() { return mVelocity.y; }
+    public void setVelocityX(float x) {
+        wake();
+        mPhysics.mVelocityX[mPhysicsSlot] = x;
+    }
+    public void setVelocityY(float y) {
+        wake();
+        mPhysics.mVelocityY[mPhysicsSlot] = y;
+    }
+    public void setVelocity(float x, float y) {
+        wake();
+        mPhysics.mVelocityX[mPhysicsSlot] = x;
+        mPhysics.mVelocityY[mPhysicsSlot] = y;
+    }
+    public float getVelocityX() { return mPhysics.mVelocityX[mPhysicsSlot]; }
+    public float getVelocityY() { return mPhysics.mVelocityY[mPhysicsSlot]; }
     
     //The absolute value of the maximum speed in either direction.
-    protected Vector2 mMaximumSpeed;
     public void setMaximumSpeed(float x, float y) {
-        mMaximumSpeed.set(x, y);
+        mPhysics.mMaximumSpeedX[mPhysicsSlot] = x;
+        mPhysics.mMaximumSpeedY[mPhysicsSlot] = y;
     }
     
     // The width and height of the bounding box which contains the entity.
-    protected Vector2 mAABB;
-    public void setWidth(float width) { mAABB.x = width; }
-    public float getWidth() { return mAABB.x; }
-    public void setHeight(float height) { mAABB.y = height; }
-    public float getHeight() { return mAABB.y; }
-    public void setSize(float width, float height) { mAABB.set(width, height); }
+    public void setWidth(float width) {
+        wake();
+        mPhysics.mWidth[mPhysicsSlot] = width;
+    }
+    public float getWidth() { return mPhysics.mWidth[mPhysicsSlot]; }
+    public void setHeight(float height) {
+        wake();
+        mPhysics.mHeight[mPhysicsSlot] = height;
+    }
+    public float getHeight() { return mPhysics.mHeight[mPhysicsSlot]; }
+    public void setSize(float width, float height) {
+        wake();
+        mPhysics.mWidth[mPhysicsSlot] = width;
+        mPhysics.mHeight[mPhysicsSlot] = height;
+    }
     
     // What portion of the entity's velocity should be restored when the object bounces off
     // of the ground. Should be between 0 and 1, probably. 0 - the object stops. 1 - the object
     // is perfectly bouncy, and should bounce to its original height. NOTE: There's no guarantee
     // that the object will bounce indefinitely - due to floating point misses, it may lose some
     // velocity (although I tried my best to make this not happen).
-    private float mBounciness = 0;
-    public void setBounciness(float bounciness) { mBounciness = bounciness; }
-    public float getBounciness() { return mBounciness; }
+    public void setBounciness(float bounciness) { mPhysics.mBounciness[mPhysicsSlot] = bounciness; }
+    public float getBounciness() { return mPhysics.mBounciness[mPhysicsSlot]; }
     
     // How heavy the object is. In physical computing acceleration, the formula a = F / m is used.
     // As a point of reference, a human sized 1x1 tile character should have mass 1 (although this
     // is just a reference point, not a rule).
-    private float mMass;
-    public float getMass() { return mMass; }
-    public void setMass(float mass) { mMass = mass; }
+    public float getMass() { return mPhysics.mMass[mPhysicsSlot]; }
+    public void setMass(float mass) { mPhysics.mMass[mPhysicsSlot] = mass; }
 
     // This is the sum of all of the applied forces on the entity (friction, gravity, movement, etc.).
-    // This vector is used ONLY for storage during update, and it is cleared between updates. It is
+    // It is used ONLY for storage during update, and it is cleared between updates. It is
     // therefore the InputHandler's job to apply forces every frame if it wants to maintain acceleration.
-    private Vector2 mAppliedForces;
     // Apply a force to the object, for a single frame. See comment above for more info
-    public void applyForce(float forceX, float forceY) { mAppliedForces.add(forceX, forceY); }
-    public void resetForces() { mAppliedForces.set(0,0); }
+    public void applyForce(float forceX, float forceY) {
+        if(forceX != 0 || forceY != 0) {
+            wake();
+        }
+        mPhysics.mForceX[mPhysicsSlot] += forceX;
+        mPhysics.mForceY[mPhysicsSlot] += forceY;
+    }
+    public void resetForces() {
+        mPhysics.mForceX[mPhysicsSlot] = 0;
+        mPhysics.mForceY[mPhysicsSlot] = 0;
+    }
 
     // Whether we should check for collisions with the world for this object. If this is set to false, the
     // object will be able to move through walls.
-    private boolean mCheckCollisions = true;
-    public boolean checkCollisions() { return mCheckCollisions; }
-    public void setCheckCollisions(boolean checkCollisions) { mCheckCollisions = checkCollisions; }
+    public boolean checkCollisions() { return mPhysics.hasFlag(mPhysicsSlot, PhysicsStore.COLLISIONS); }
+    public void setCheckCollisions(boolean checkCollisions) {
+        wake();
+        mPhysics.setFlag(mPhysicsSlot, PhysicsStore.COLLISIONS, checkCollisions);
+    }
     
     // Whether the object is affected by gravity. For ease of computation, set this flag instead of setting
     // the entity's mass to zero.
-    private boolean mAffectedByGravity = true;
-    public boolean isAffectedByGravity() { return mAffectedByGravity; }
-    public void setAffectedByGravity(boolean affectedByGravity) { mAffectedByGravity = affectedByGravity; }
+    public boolean isAffectedByGravity() { return mPhysics.hasFlag(mPhysicsSlot, PhysicsStore.GRAVITY); }
+    public void setAffectedByGravity(boolean affectedByGravity) {
+        wake();
+        mPhysics.setFlag(mPhysicsSlot, PhysicsStore.GRAVITY, affectedByGravity);
+    }
     
     // Whether drag should be applied when the entity is airborne.
     // Drag is a force in the opposite direction of the velocity, proportional to velocity squared.
-    private boolean mApplyDrag = true;
-    public void setApplyDrag(boolean applyDrag) { mApplyDrag = applyDrag; }
+    public void setApplyDrag(boolean applyDrag) { mPhysics.setFlag(mPhysicsSlot, PhysicsStore.DRAG, applyDrag); }
+
+    // Whether the entity can move far enough in one update to pass through a tile or another entity. Fast
+    // movers are swept along their whole path instead of a step at a time. That costs more, so only set this
+    // on things like projectiles.
+    public boolean isFastMover() { return mPhysics.hasFlag(mPhysicsSlot, PhysicsStore.FAST_MOVER); }
+    public void setFastMover(boolean fastMover) { mPhysics.setFlag(mPhysicsSlot, PhysicsStore.FAST_MOVER, fastMover); }
+
+    // Whether the entity is moved by the level's PhysicsStore along with the others like it, instead of by
+    // its own update(). Batched entities skip calculateFriction(), and their touch triggers are fired after
+    // all of them have moved, so only set this on entities that don't rely on either, and that have lots of
+    // copies, like debris. Cleared when the entity is initialized.
+    public boolean isBatchedPhysics() { return mPhysics.hasFlag(mPhysicsSlot, PhysicsStore.BATCHED); }
+    public void setBatchedPhysics(boolean batched) { mPhysics.setFlag(mPhysicsSlot, PhysicsStore.BATCHED, batched); }
+
+    // Whether the entity has been resting for long enough that it has gone to sleep. Sleeping entities aren't
+    // stepped at all, and don't move, until they are woken up. Setting its velocity, position or size, or
+    // applying a force to it, wakes it up, and so does a tile or fluid changing next to it. Call wake()
+    // for anything else that should get it moving, like being hit.
+    public boolean isSleeping() { return mPhysics.hasFlag(mPhysicsSlot, PhysicsStore.SLEEPING); }
+    public void wake() { mPhysics.wake(mPhysicsSlot); }
+
+    // Whether other solid entities are pushed out of this one, rather than passing through it. Solid entities
+    // can stand on and push each other, and get the onCollide triggers below. Cleared when the entity is
+    // initialized.
+    public boolean isSolid() { return mPhysics.hasFlag(mPhysicsSlot, PhysicsStore.SOLID); }
+    public void setSolid(boolean solid) {
+        wake();
+        mPhysics.setFlag(mPhysicsSlot, PhysicsStore.SOLID, solid);
+    }
     
     /**
      * INTERACTIVE PROPERTIES/TRIGGER STATE
@@ -128,20 +194,16 @@ public abstract class PhysicalEntity extends GameEntity implements IRenderable,
      * they are touching parts of the world. 
      */
     //Whether the entity is touching the ground on its bottom side.
-    protected boolean mIsOnGround = false;
-    public boolean isOnGround() { return mIsOnGround; }
+    public boolean isOnGround() { return mPhysics.hasFlag(mPhysicsSlot, PhysicsStore.ON_GROUND); }
     
     //Whether the entity is touching a wall on its left side.
-    protected boolean mIsOnWallLeft = false;
-    public boolean isOnWallLeft() { return mIsOnWallLeft; }
+    public boolean isOnWallLeft() { return mPhysics.hasFlag(mPhysicsSlot, PhysicsStore.ON_WALL_LEFT); }
     
     //Whether the entity is touching a wall on its right side.
-    protected boolean mIsOnWallRight = false;
-    public boolean isOnWallRight() { return mIsOnWallRight; }
+    public boolean isOnWallRight() { return mPhysics.hasFlag(mPhysicsSlot, PhysicsStore.ON_WALL_RIGHT); }
     
     //Whether the entity is touching a wall on its top side.
-    protected boolean mIsOnRoof = false;
-    public boolean isOnRoof() { return mIsOnRoof; }
+    public boolean isOnRoof() { return mPhysics.hasFlag(mPhysicsSlot, PhysicsStore.ON_ROOF); }
 
     //Whether the entity bounced last update.
     private boolean mBounced = false;
@@ -217,6 +279,10 @@ public abstract class PhysicalEntity extends GameEntity implements IRenderable,
     protected WorldLevel mWorldLevel;
     public WorldLevel getWorld() { return mWorldLevel; }
 
+    // Where the world's broadphase has this entity stored.
+    private final BroadphaseProxy mBroadphaseProxy;
+    public BroadphaseProxy getBroadphaseProxy() { return mBroadphaseProxy; }
+
     // The entity's animation. Updated in update.
     private Animation mAnimation;
     private float mAnimationTime = 0.0f;
@@ -232,25 +298,29 @@ public abstract class PhysicalEntity extends GameEntity implements IRenderable,
     private boolean mInitialized;
     public boolean isInitialized() { return mInitialized; }
     public void setInitialized(boolean initialized) { mInitialized = initialized; }
+
+    // Whether the entity is sitting free in its EntityPool, to catch it being recycled twice.
+    boolean mPooled = false;
+
+    // Where the entity is in its level's list of entities. It is negative if it isn't in the level: -1 if the
+    // level has nothing to do with it, or something else while it waits to be added. Only the level's
+    // EntityList should set this.
+    private int mLevelIndex = -1;
+    public int getLevelIndex() { return mLevelIndex; }
+    public void setLevelIndex(int index) { mLevelIndex = index; }
+    // Whether the level has let go of the entity, so that its physics slot can be given back.
+    boolean isOutOfLevel() { return mLevelIndex == -1; }
     
 
     // Private constructor. Should be constructed through static game entity pool methods.
     // Allocate any memory that you need to allocate here!
     protected PhysicalEntity() {
         Gdx.app.log(Constants.LOG, "PhysicalEntity::PhysicalEntity");
-        mPosition = new Vector2();
-        mPreviousPosition = new Vector2();
-        mVelocity = new Vector2();
         mAnimation = null;
-        mAppliedForces = new Vector2();
         
-        mAABB = new Vector2(1, 1);
         mWorldLevel = null;
-        mBounciness = 0;
+        mBroadphaseProxy = new BroadphaseProxy();
         mAlpha = 1.0f;
-        mMass = 1.0f;
-        
-        mMaximumSpeed = new Vector2(10, 10);
         
         mInitialized = false;
         
@@ -268,24 +338,54 @@ public abstract class PhysicalEntity extends GameEntity implements IRenderable,
             float bounciness,
             Animation animation) {
         assert !mInitialized : "Trying to initialize an already initialized entity!";
-        mPosition.set(x, y);
-        mPreviousPosition.set(x, y);
-        mVelocity.set(vx, vy);
-        mAABB.set(width, height);
+        // Take a slot in the level's store the first time the entity is used in it. After that it keeps the
+        // slot, and whatever flags were set on it, like it would keep its fields.
+        attachPhysics(worldLevel.getPhysicsStore());
+        setPosition(x, y);
+        mPhysics.mPreviousX[mPhysicsSlot] = x;
+        mPhysics.mPreviousY[mPhysicsSlot] = y;
+        setVelocity(vx, vy);
+        setSize(width, height);
         
-        mAppliedForces.set(0, 0);
+        resetForces();
         mWorldLevel = worldLevel;
-        mBounciness = bounciness;
+        setBounciness(bounciness);
         
         mAnimation = animation;
         mAlpha = 1.0f;
-        mMass = mass;
+        setMass(mass);
         mAlive = true;
+        setFastMover(false);
+        setBatchedPhysics(false);
+        setSolid(false);
         
         mVisible = true;
         return this;
     }
 
+    // A handle to the entity, which stops resolving once the entity is recycled. See WorldLevel.getEntity.
+    public int getHandle() {
+        return mPhysics.getHandle(mPhysicsSlot);
+    }
+
+    // Make the handles to the entity stop resolving. Its pool does this when it is recycled.
+    void retireHandle() {
+        if(mPhysics != null) {
+            mPhysics.retire(mPhysicsSlot);
+        }
+    }
+
+    // Keep the entity's physical state in a slot of physics, giving back the slot it had. initializeBase
+    // does this with the level's store, so this is only needed to use an entity outside of a level.
+    public void attachPhysics(PhysicsStore physics) {
+        if(mPhysics == physics) return;
+        if(mPhysics != null) {
+            mPhysics.free(mPhysicsSlot);
+        }
+        mPhysics = physics;
+        mPhysicsSlot = physics.allocate(this);
+    }
+
     //Recycle the entity. This should dispose any objects that need to be disposed
     public abstract void recycle();
 
@@ -294,26 +394,24 @@ public abstract class PhysicalEntity extends GameEntity implements IRenderable,
     public boolean openDoor() {
         Gdx.app.log(Constants.LOG, "PhysicalEntity::openDoor");
 
-        float x = mPosition.x;
+        float x = getPositionX();
         if(mDirection == Direction.LEFT) {
             x -= 0.1;
         } else {
-            x += mAABB.x + 0.1;
+            x += getWidth() + 0.1;
         }
-        float y = mAABB.y * 0.5f + mPosition.y;
+        float y = getHeight() * 0.5f + getPositionY();
 
-        Tile tile = mWorldLevel.getTile((int)Math.floor(x), (int)Math.floor(y));
-        if(tile != null) {
-            return tile.onInteraction(this);
-        }
-        return false;
+        return mWorldLevel.interactWithTile((int)Math.floor(x), (int)Math.floor(y), this);
     }
     
     @Override
     public void render(SpriteBatch b) {
         if(this.isVisible()) {
-            b.setColor(1, 1, 1, mAlpha);
-            b.draw(mAnimation.getKeyFrame(mAnimationTime, true), mPosition.x, mPosition.y, getWidth()/2, getHeight()/2, getWidth(), getHeight(), mDirection.scaleX, 1, 0);
+            // Lit by whatever tile the middle of the entity is in.
+            float light = mWorldLevel.getBrightness(getPositionX() + getWidth() / 2, getPositionY() + getHeight() / 2);
+            b.setColor(light, light, light, mAlpha);
+            b.draw(mAnimation.getKeyFrame(mAnimationTime, true), getPositionX(), getPositionY(), getWidth()/2, getHeight()/2, getWidth(), getHeight(), mDirection.scaleX, 1, 0);
         }
     }
     
@@ -327,20 +425,20 @@ public abstract class PhysicalEntity extends GameEntity implements IRenderable,
     }
 
     public boolean collidesWith(PhysicalEntity other) {
-        return collidesWith(other.mPosition, other.mAABB);
+        return collidesWith(other.getPositionX(), other.getPositionY(), other.getWidth(), other.getHeight());
     }
     
-    // Return whether this entity overlaps the position and location
-    protected boolean collidesWith(Vector2 pos, Vector2 aabb) {
-        float ax1 = mPosition.x;
-        float ax2 = mPosition.x + getWidth();
-        float ay1 = mPosition.y;
-        float ay2 = mPosition.y + getHeight();
+    // Return whether this entity overlaps the rectangle at x, y
+    protected boolean collidesWith(float x, float y, float width, float height) {
+        float ax1 = getPositionX();
+        float ax2 = getPositionX() + getWidth();
+        float ay1 = getPositionY();
+        float ay2 = getPositionY() + getHeight();
         
-        float bx1 = pos.x;
-        float bx2 = pos.x + aabb.x;
-        float by1 = pos.y;
-        float by2 = pos.y + aabb.y;
+        float bx1 = x;
+        float bx2 = x + width;
+        float by1 = y;
+        float by2 = y + height;
         
         //Check for a separating axis:
         
@@ -349,22 +447,11 @@ public abstract class PhysicalEntity extends GameEntity implements IRenderable,
     }
     
     
+    // Work out the friction on the entity into frictionOut, where gravity is the gravity on it. This can
+    // also apply forces, like buoyancy. Not called for batched entities.
     protected void calculateFriction(final Vector2 frictionOut, final Vector2 gravity) {
-        float u_k = mWorldLevel.getFriction(mPosition, mAABB);
-        if(mIsOnGround) {
-            float forceFriction = -u_k * gravity.y * mMass;
-            if(forceFriction < 0) {
-                Gdx.app.error(Constants.LOG, "Error - friction " + forceFriction + " should not be negative");
-                forceFriction = 0;
-            }
-            frictionOut.x = forceFriction;
-        } else {
-            //We're airborne!
-            if(mApplyDrag) {
-                // Now here, force of friction becomes drag, which is proportional to the square of the velocity.
-                frictionOut.x = Constants.DRAG * mVelocity.x * mVelocity.x;
-            }
-        }
+        mPhysics.calculateFriction(mPhysicsSlot, mWorldLevel, gravity.y, frictionOut.x, frictionOut.y);
+        frictionOut.set(mPhysics.mFrictionX[mPhysicsSlot], mPhysics.mFrictionY[mPhysicsSlot]);
     }
 
     /**
@@ -376,7 +463,8 @@ public abstract class PhysicalEntity extends GameEntity implements IRenderable,
      * It then computes acceleration with a = F / m, and updates the entity's
      * velocity accordingly. Then it tries to move the entity as far on the X
      * axis as it needs to, resolving collisions. Then it tries to move the entity
-     * as far ion the Y axis as it can.
+     * as far ion the Y axis as it can. The physics itself is done by the
+     * PhysicsStore, so that batched entities are moved in exactly the same way.
      * 
      * This also updates the trigger state of the entity.
      * 
@@ -384,164 +472,25 @@ public abstract class PhysicalEntity extends GameEntity implements IRenderable,
      * so be careful bout what you call!
      */
     //TODO: Maybe make these static?
-    Vector2 update_Acceleration = new Vector2();  //LOCAL VARIABLE: Only to be used in update()!
     Vector2 update_Gravity = new Vector2();       //LOCAL VARIABLE: Only to be used in update()!
     Vector2 update_Friction = new Vector2();      //LOCAL VARIABLE: Only to be used in update()!
     @Override
     public void update() {
-        //Copy the state flags to determine when to fire triggers.
-        boolean wasOnGround = isOnGround();
-        boolean wasOnWallLeft = isOnWallLeft();
-        boolean wasOnWallRight = isOnWallRight();
-        boolean wasOnRoof = isOnRoof();
-        
         mAnimationTime += Constants.DELTA;
-        if(mAffectedByGravity) {
-            Vector2 gravity = mWorldLevel.getGravity();
-            update_Gravity.set(gravity);
-        } else {
-            update_Gravity.set(0,0);
+        if(isBatchedPhysics() || isSleeping()) {
+            // Either the store has already moved it this update, or it isn't moving.
+            return;
         }
-        applyForce(update_Gravity.x * mMass, update_Gravity.y * mMass);
         update_Friction.set(0,0);
-        if(mAffectedByGravity) {
+        if(isAffectedByGravity()) {
+            update_Gravity.set(mWorldLevel.getGravity());
+            // Not through applyForce(), since gravity shouldn't keep the entity awake.
+            mPhysics.mForceX[mPhysicsSlot] += update_Gravity.x * getMass();
+            mPhysics.mForceY[mPhysicsSlot] += update_Gravity.y * getMass();
             calculateFriction(update_Friction, update_Gravity);
         }
-
-        //F = m * a => a = F / m
-        update_Acceleration.set(mAppliedForces.x / mMass, mAppliedForces.y / mMass);
-
-        mVelocity.x += update_Acceleration.x * Constants.DELTA;
-        mVelocity.y += update_Acceleration.y * Constants.DELTA;
-        
-        //Now we have the velocity without friction. Apply friction.
-        float frictionAccelerationX = update_Friction.x * mMass;
-        float frictionDeltaVelocityX = frictionAccelerationX * Constants.DELTA;
-        if(mVelocity.x > 0) {
-            mVelocity.x -= frictionDeltaVelocityX;
-            if(mVelocity.x < 0) {
-                mVelocity.x = 0;
-            }
-        } else {
-            mVelocity.x += frictionDeltaVelocityX;
-            if(mVelocity.x > 0) {
-                mVelocity.x = 0;
-            }
-        }
-        float frictionAccelerationY = update_Friction.y * mMass;
-        float frictionDeltaVelocityY = frictionAccelerationY * Constants.DELTA;
-        if(mVelocity.y > 0) {
-            mVelocity.y -= frictionDeltaVelocityY;
-            if(mVelocity.y < 0) {
-                mVelocity.y = 0;
-            }
-        } else {
-            mVelocity.y += frictionDeltaVelocityY;
-            if(mVelocity.y > 0) {
-                mVelocity.y = 0;
-            }
-        }
-        //Now try to move
-        float deltaX;
-        float deltaY;
-        
-        mPreviousPosition.x = mPosition.x;
-        mPreviousPosition.y = mPosition.y;
-        
-        float deltaXprev = mVelocity.x * Constants.DELTA;
-        float deltaYprev = mVelocity.y * Constants.DELTA;
-
-        if(!mCheckCollisions) {
-            //We don't check collisions, so just update the entity's position and be done with it.
-            //NOTE: No triggers will ever be fired here.
-            
-            mPosition.x += deltaXprev;
-            mPosition.y += deltaYprev;
-        } else {
-            //First, move the character as far along the X axis as we can.
-            //This is somewhat easier, because there is no gravity to worry about.
-            deltaX = mWorldLevel.getPenetrationDepthX(mPosition, deltaXprev, mAABB);
-            mPosition.x += deltaX;
-
-            //If we collided with something.
-            if(deltaX != deltaXprev) {
-                if(deltaXprev < 0) {
-                    if(!wasOnWallLeft) {
-                        mIsOnWallLeft = true;
-                        onTouchWallLeft(mVelocity);
-                    }
-                } else if(deltaXprev > 0) {
-                    if(!wasOnWallRight) {
-                        mIsOnWallRight = true;
-                        onTouchWallRight(mVelocity);
-                    }
-                }
-                mVelocity.x = 0;
-            } else {
-                mIsOnWallLeft = mIsOnWallRight = false;
-            }
-
-            deltaY = mWorldLevel.getPenetrationDepthY(mPosition, deltaYprev, mAABB);
-            mPosition.y += deltaY;
-            
-            if(deltaY != deltaYprev) {
-                if(deltaYprev < 0) {
-                    if(!wasOnGround) {
-                        mIsOnGround = true;
-                        onTouchGround(mVelocity);
-                    }
-                } else if(deltaYprev > 0) {
-                    if(!wasOnRoof) {
-                        mIsOnRoof = true;
-                        onTouchRoof(mVelocity);
-                    }
-                }
-                if(deltaY < 0) {
-                    //Apply bounciness
-                    float deltaDelta = deltaY - deltaYprev;  //how much we overshot by
-                    mVelocity.y = -mVelocity.y * mBounciness;
-                    
-                    if(mVelocity.y > Constants.MINIMUM_BOUNCE_VELOCITY) {
-                        float newDeltaY = mWorldLevel.getPenetrationDepthY(mPosition, deltaDelta, mAABB);
-                        mPosition.y += newDeltaY;
-                        //And stop. If the object is between two objects, we don't want to loop forever.
-                        if(newDeltaY != deltaDelta) {
-                            mVelocity.y = 0;
-                        }
-                    }
-                } else {
-                    mVelocity.y = 0;
-                }
-            } else {
-                mIsOnRoof = mIsOnGround = false;
-            }
-            
-            /*
-            if(deltaY != deltaYprev) {
-
-                    //TODO: Update the position again
-                } else if (deltaY == 0) {
-                    mVelocity.y = 0;
-                } else {
-                    mVelocity.y = 0;
-                }
-            }*/
-        }
-
-        //Cap velocity.
-        if(mVelocity.x > mMaximumSpeed.x) {
-            mVelocity.x = mMaximumSpeed.x;
-        } else if (mVelocity.x < -mMaximumSpeed.x) {
-            mVelocity.x = -mMaximumSpeed.x;
-        }
-        
-        if(!mIsOnGround && mApplyDrag) {
-            if(mVelocity.x > -Constants.MINIMUM_GROUND_VELOCITY && mVelocity.x < Constants.MINIMUM_GROUND_VELOCITY) {
-                mVelocity.x = 0;
-            }
-        }
-        
-        resetForces();
+        mPhysics.integrate(mPhysicsSlot, update_Friction.x, update_Friction.y);
+        mPhysics.move(mPhysicsSlot, mWorldLevel, false);
     }
     
     /**
@@ -579,7 +528,8 @@ public abstract class PhysicalEntity extends GameEntity implements IRenderable,
         }
     }
     
-    //These methods are called when two entities collide.
+    //These methods are called when two solid entities collide, on the side of this entity that the other
+    // one touched, when they were not touching previously. They are called after both have been pushed apart.
     
     public void onCollideTop(PhysicalEntity other) {
         
@@ -601,6 +551,10 @@ public abstract class PhysicalEntity extends GameEntity implements IRenderable,
     // collected and must be reconstructed after this.
     @Override
     public void dispose() {
+        if(mPhysics != null) {
+            mPhysics.free(mPhysicsSlot);
+            mPhysics = null;
+        }
     }
 
 }
@@ -0,0 +1,699 @@
+package ca.kess.games.entities;
+
+import ca.kess.games.Constants;
+import ca.kess.games.util.ParallelLoop;
+import ca.kess.games.world.FluidSimulation;
+import ca.kess.games.world.WorldLevel;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Disposable;
+
+/**
+ * The physical state of a level's entities, kept as a set of parallel arrays (one for the x positions, one
+ * for the y velocities, and so on) instead of in the entities. Each entity has a slot in the arrays, and its
+ * getters and setters read and write that slot.
+ *
+ * Entities that don't do anything special while they move, like the pieces that killed entities break into,
+ * can be batched (see PhysicalEntity.setBatchedPhysics). All of the batched entities are stepped at once by
+ * step(), which works down the arrays rather than going through each entity's update(). Everything else is
+ * still stepped one at a time by PhysicalEntity.update(), with the same code, so that entities can override
+ * calculateFriction().
+ *
+ * The batched entities are split up into partitions of nearby entities, which are stepped on worker threads.
+ * Each entity's step only depends on its own state and the level, so it comes out the same whichever thread
+ * does it. Their touch triggers can do anything, so they aren't fired during the step. They are fired after
+ * it, on the calling thread, one entity at a time in slot order. That way a step gives bit for bit the same
+ * results with any number of threads, including none.
+ *
+ * Entities that have rested on the ground without moving for Constants.SLEEP_TICKS updates go to sleep, and
+ * aren't stepped at all until they are woken: by a force or a new velocity or position (see
+ * PhysicalEntity.wake), or by a tile or fluid changing next to them. A resting entity would stay exactly
+ * where it is if it were stepped, so sleeping doesn't change where anything ends up.
+ *
+ * Entities only stop against the tiles here. Solid entities are pushed out of each other afterwards, by the
+ * level's ContactSolver.
+ *
+ * An entity gets a slot the first time it is initialized into the level, and keeps it while it sits in its
+ * pool, so its flags stick around between uses just like fields would. The slot is given back when the
+ * entity is disposed.
+ *
+ * Each slot also has a generation, which goes up whenever the entity in it is recycled or the slot is given
+ * back. A handle (see getHandle) is the slot and the generation packed into an int, so it only resolves
+ * while the entity is still the one it was made from: afterwards it resolves to null, rather than to
+ * whatever the pooled entity has been reused as.
+ *
+ * IMPORTANT: Like the entities, this should never allocate memory once it is big enough.
+ */
+public class PhysicsStore implements Disposable {
+    // The flags each slot can have set.
+    // The entity is in the level's list of entities.
+    static final int ACTIVE = 1 << 0;
+    // The entity is stepped by step(), rather than its own update().
+    static final int BATCHED = 1 << 1;
+    static final int GRAVITY = 1 << 2;
+    static final int DRAG = 1 << 3;
+    static final int COLLISIONS = 1 << 4;
+    static final int FAST_MOVER = 1 << 5;
+    static final int ON_GROUND = 1 << 6;
+    static final int ON_WALL_LEFT = 1 << 7;
+    static final int ON_WALL_RIGHT = 1 << 8;
+    static final int ON_ROOF = 1 << 9;
+    // The entity isn't stepped until something wakes it.
+    static final int SLEEPING = 1 << 10;
+    // Some of the entity was under fluid, last time its friction was worked out.
+    static final int IN_FLUID = 1 << 11;
+    // Other solid entities can't pass through the entity (see ContactSolver).
+    static final int SOLID = 1 << 12;
+    // What a new entity starts out with.
+    private static final int DEFAULT_FLAGS = GRAVITY | DRAG | COLLISIONS;
+    private static final int STEPPED = ACTIVE | BATCHED;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // A handle is the slot in the low HANDLE_SLOT_BITS bits, and the generation above them. Generations
+    // start at 1, so 0 is never a handle. They wrap around after MAXIMUM_GENERATION, so a handle kept for that
+    // many reuses of the same entity could resolve again.
+    private static final int HANDLE_SLOT_BITS = 20;
+    private static final int HANDLE_SLOT_MASK = (1 << HANDLE_SLOT_BITS) - 1;
+    private static final int MAXIMUM_GENERATION = (1 << (32 - HANDLE_SLOT_BITS)) - 1;
+
+    // The state of each slot. Read these directly rather than holding on to them, since they are replaced
+    // when the store grows.
+    float[] mPositionX;
+    float[] mPositionY;
+    float[] mPreviousX;
+    float[] mPreviousY;
+    float[] mVelocityX;
+    float[] mVelocityY;
+    float[] mForceX;
+    float[] mForceY;
+    float[] mWidth;
+    float[] mHeight;
+    float[] mMaximumSpeedX;
+    float[] mMaximumSpeedY;
+    float[] mMass;
+    float[] mBounciness;
+    int[] mFlags;
+    PhysicalEntity[] mOwners;
+    // The friction worked out by calculateFriction(), for the integrate() that follows it.
+    float[] mFrictionX;
+    float[] mFrictionY;
+    // The touch triggers a batched entity hit during the step, as flags, and the velocity it hit with: x and
+    // y against the walls, then x and y against the ground or roof.
+    private int[] mTouched;
+    private float[] mImpacts;
+    // How many updates in a row each entity has been resting for.
+    private int[] mRestTicks;
+    // The generation of each slot, for handles.
+    private int[] mGenerations;
+
+    // One past the highest slot that has been handed out.
+    private int mCount = 0;
+    // Slots that have been given back.
+    private int[] mFree;
+    private int mFreeCount = 0;
+
+    // A copy of the velocity the entity hit with, for the touch triggers. They change the entity's velocity
+    // through its setters, not through this.
+    private final Vector2 mImpactVelocity = new Vector2();
+
+    // Steps the partitions of batched entities.
+    private final ParallelLoop mLoop;
+    // The slots to step, sorted by the region of the level they are in, and how many of them there are.
+    private int[] mOrder;
+    private int mOrderCount = 0;
+    // Which region each slot is in, and where each region's slots start in mOrder.
+    private int[] mRegions;
+    private int[] mRegionStarts = new int[0];
+    // The level being stepped, and its gravity, for the partitions.
+    private WorldLevel mStepWorld;
+    private float mGravityX;
+    private float mGravityY;
+
+    private final ParallelLoop.Body mStepPartition = new ParallelLoop.Body() {
+        @Override
+        public void run(int index) {
+            int end = Math.min(mOrderCount, (index + 1) * Constants.PHYSICS_PARTITION_SIZE);
+            for(int i = index * Constants.PHYSICS_PARTITION_SIZE; i < end; ++i) {
+                stepBatched(mOrder[i]);
+            }
+        }
+    };
+
+    /**
+     * A store whose step runs on the calling thread only.
+     */
+    public PhysicsStore() {
+        this(0);
+    }
+
+    /**
+     * @param threads How many worker threads to step the batched entities on, on top of the calling thread.
+     */
+    public PhysicsStore(int threads) {
+        allocateArrays(INITIAL_CAPACITY);
+        mLoop = new ParallelLoop("PhysicsWorker", threads);
+    }
+
+    /**
+     * The number of slots that have been handed out, including ones that have since been given back.
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Mark the entity as being in the level or not. The level calls this as it adds and removes entities,
+     * so that step() only moves the ones that are in it.
+     */
+    public void setActive(PhysicalEntity entity, boolean active) {
+        setFlag(entity.mPhysicsSlot, ACTIVE, active);
+    }
+
+    /**
+     * A handle to the entity in the slot, for as long as it stays that entity. See getEntity.
+     */
+    public int getHandle(int slot) {
+        return (mGenerations[slot] << HANDLE_SLOT_BITS) | slot;
+    }
+
+    /**
+     * The entity the handle was made from, or null if it has been recycled or disposed since.
+     */
+    public PhysicalEntity getEntity(int handle) {
+        int slot = handle & HANDLE_SLOT_MASK;
+        if(slot >= mCount || mGenerations[slot] != handle >>> HANDLE_SLOT_BITS) return null;
+        return mOwners[slot];
+    }
+
+    // Make the handles to the slot's entity stop resolving, when it is recycled or the slot is given back.
+    void retire(int slot) {
+        mGenerations[slot] = mGenerations[slot] == MAXIMUM_GENERATION ? 1 : mGenerations[slot] + 1;
+    }
+
+    /**
+     * Step all of the batched entities that are in the level, then fire the touch triggers they hit. Don't
+     * change the level's tiles or fluids from another thread while this runs.
+     */
+    public void step(WorldLevel world) {
+        partition(world);
+        mStepWorld = world;
+        mGravityX = world.getGravity().x;
+        mGravityY = world.getGravity().y;
+        int partitions = (mOrderCount + Constants.PHYSICS_PARTITION_SIZE - 1) / Constants.PHYSICS_PARTITION_SIZE;
+        mLoop.run(partitions, mStepPartition);
+        mStepWorld = null;
+        for(int slot = 0; slot < mCount; ++slot) {
+            if(mTouched[slot] != 0) {
+                fireTouches(slot);
+            }
+        }
+    }
+
+    /**
+     * Wake the sleeping entities that overlap any of the tiles x0..x1, y0..y1 (inclusive). Call this when
+     * those tiles change.
+     */
+    public void wakeTiles(int x0, int y0, int x1, int y1) {
+        for(int slot = 0; slot < mCount; ++slot) {
+            if((mFlags[slot] & SLEEPING) == 0) continue;
+            if(mPositionX[slot] < x1 + 1 && mPositionX[slot] + mWidth[slot] > x0
+                    && mPositionY[slot] < y1 + 1 && mPositionY[slot] + mHeight[slot] > y0) {
+                wake(slot);
+            }
+        }
+    }
+
+    /**
+     * Wake the sleeping entities that fluid moved into (or out of) in the fluid simulation's last step.
+     */
+    public void wakeInChangedFluid(FluidSimulation fluids) {
+        for(int slot = 0; slot < mCount; ++slot) {
+            if((mFlags[slot] & SLEEPING) == 0) continue;
+            float x = mPositionX[slot];
+            float y = mPositionY[slot];
+            if(fluids.changedLastStep((int) Math.floor(x), (int) Math.floor(y),
+                    (int) Math.ceil(x + mWidth[slot]) - 1, (int) Math.ceil(y + mHeight[slot]) - 1)) {
+                wake(slot);
+            }
+        }
+    }
+
+    void wake(int slot) {
+        mFlags[slot] &= ~SLEEPING;
+        mRestTicks[slot] = 0;
+    }
+
+    // Put the slots to step in mOrder, grouped by the chunk of the level they are in, so that each partition
+    // works on a small part of the level. Within a chunk they stay in slot order.
+    private void partition(WorldLevel world) {
+        int size = Constants.CHUNK_SIZE;
+        int chunksX = (world.getWidth() + size - 1) / size;
+        int chunksY = (world.getHeight() + size - 1) / size;
+        // The last region is for anything outside of the level.
+        int regions = chunksX * chunksY + 1;
+        if(mRegionStarts.length < regions + 1) {
+            mRegionStarts = new int[regions + 1];
+        }
+        int[] starts = mRegionStarts;
+        for(int region = 0; region <= regions; ++region) {
+            starts[region] = 0;
+        }
+        for(int slot = 0; slot < mCount; ++slot) {
+            if((mFlags[slot] & (STEPPED | SLEEPING)) != STEPPED) continue;
+            int chunkX = (int) Math.floor(mPositionX[slot] / size);
+            int chunkY = (int) Math.floor(mPositionY[slot] / size);
+            int region = regions - 1;
+            if(chunkX >= 0 && chunkX < chunksX && chunkY >= 0 && chunkY < chunksY) {
+                region = chunkY * chunksX + chunkX;
+            }
+            mRegions[slot] = region;
+            ++starts[region + 1];
+        }
+        for(int region = 0; region < regions; ++region) {
+            starts[region + 1] += starts[region];
+        }
+        mOrderCount = starts[regions];
+        for(int slot = 0; slot < mCount; ++slot) {
+            if((mFlags[slot] & (STEPPED | SLEEPING)) != STEPPED) continue;
+            mOrder[starts[mRegions[slot]]++] = slot;
+        }
+    }
+
+    // Step one batched entity. This runs on the worker threads, so it only touches the entity's own slot.
+    private void stepBatched(int slot) {
+        float frictionX = 0;
+        float frictionY = 0;
+        if((mFlags[slot] & GRAVITY) != 0) {
+            mForceX[slot] += mGravityX * mMass[slot];
+            mForceY[slot] += mGravityY * mMass[slot];
+            calculateFriction(slot, mStepWorld, mGravityY, 0, 0);
+            frictionX = mFrictionX[slot];
+            frictionY = mFrictionY[slot];
+        }
+        integrate(slot, frictionX, frictionY);
+        move(slot, mStepWorld, true);
+    }
+
+    // Fire the touch triggers that the entity in the slot hit during the step.
+    private void fireTouches(int slot) {
+        int touched = mTouched[slot];
+        mTouched[slot] = 0;
+        PhysicalEntity owner = mOwners[slot];
+        int impact = slot * 4;
+        if((touched & ON_WALL_LEFT) != 0) {
+            owner.onTouchWallLeft(mImpactVelocity.set(mImpacts[impact], mImpacts[impact + 1]));
+        }
+        if((touched & ON_WALL_RIGHT) != 0) {
+            owner.onTouchWallRight(mImpactVelocity.set(mImpacts[impact], mImpacts[impact + 1]));
+        }
+        if((touched & ON_GROUND) != 0) {
+            owner.onTouchGround(mImpactVelocity.set(mImpacts[impact + 2], mImpacts[impact + 3]));
+        }
+        if((touched & ON_ROOF) != 0) {
+            owner.onTouchRoof(mImpactVelocity.set(mImpacts[impact + 2], mImpacts[impact + 3]));
+        }
+    }
+
+    @Override
+    public void dispose() {
+        mLoop.dispose();
+    }
+
+    // Take a slot for the entity, with the state a newly constructed entity has.
+    int allocate(PhysicalEntity owner) {
+        int slot;
+        if(mFreeCount > 0) {
+            slot = mFree[--mFreeCount];
+        } else {
+            if(mCount == mFlags.length) {
+                grow();
+            }
+            assert mCount <= HANDLE_SLOT_MASK : "Too many entities for a handle to hold the slot";
+            slot = mCount++;
+            mGenerations[slot] = 1;
+        }
+        mPositionX[slot] = mPositionY[slot] = 0;
+        mPreviousX[slot] = mPreviousY[slot] = 0;
+        mVelocityX[slot] = mVelocityY[slot] = 0;
+        mForceX[slot] = mForceY[slot] = 0;
+        mWidth[slot] = mHeight[slot] = 1;
+        mMaximumSpeedX[slot] = mMaximumSpeedY[slot] = 10;
+        mMass[slot] = 1;
+        mBounciness[slot] = 0;
+        mFrictionX[slot] = mFrictionY[slot] = 0;
+        mTouched[slot] = 0;
+        mRestTicks[slot] = 0;
+        mFlags[slot] = DEFAULT_FLAGS;
+        mOwners[slot] = owner;
+        return slot;
+    }
+
+    // Give a slot back.
+    void free(int slot) {
+        retire(slot);
+        mFlags[slot] = 0;
+        mOwners[slot] = null;
+        if(mFreeCount == mFree.length) {
+            int[] grown = new int[mFree.length * 2];
+            System.arraycopy(mFree, 0, grown, 0, mFreeCount);
+            mFree = grown;
+        }
+        mFree[mFreeCount++] = slot;
+    }
+
+    boolean hasFlag(int slot, int flag) {
+        return (mFlags[slot] & flag) != 0;
+    }
+
+    void setFlag(int slot, int flag, boolean value) {
+        if(value) {
+            mFlags[slot] |= flag;
+        } else {
+            mFlags[slot] &= ~flag;
+        }
+    }
+
+    // Work out the friction on the entity in the slot, starting from frictionX, frictionY, into its
+    // mFrictionX, mFrictionY. Applies buoyancy as well, since that has to go in before the forces are added up.
+    void calculateFriction(int slot, WorldLevel world, float gravityY, float frictionX, float frictionY) {
+        int flags = mFlags[slot];
+        float x = mPositionX[slot];
+        float y = mPositionY[slot];
+        float width = mWidth[slot];
+        float height = mHeight[slot];
+        float velocityX = mVelocityX[slot];
+        float velocityY = mVelocityY[slot];
+        boolean onGround = (flags & ON_GROUND) != 0;
+        boolean drag = (flags & DRAG) != 0;
+
+        if(onGround) {
+            // Only looked up when it is needed, since it means going through the tiles.
+            float u_k = world.getFriction(x, y, width);
+            float forceFriction = -u_k * gravityY * mMass[slot];
+            if(forceFriction < 0) {
+                Gdx.app.error(Constants.LOG, "Error - friction " + forceFriction + " should not be negative");
+                forceFriction = 0;
+            }
+            frictionX = forceFriction;
+        } else {
+            //We're airborne!
+            if(drag) {
+                // Now here, force of friction becomes drag, which is proportional to the square of the velocity.
+                frictionX = Constants.DRAG * velocityX * velocityX;
+            }
+        }
+
+        float submerged = world.getSubmergedFraction(x, y, width, height);
+        if(submerged > 0) {
+            mFlags[slot] |= IN_FLUID;
+        } else {
+            mFlags[slot] &= ~IN_FLUID;
+        }
+        if(submerged > 0) {
+            // Buoyancy is the weight of the fluid that the entity pushes aside.
+            mForceY[slot] += -gravityY * Constants.FLUID_DENSITY * submerged * width * height;
+            // The part that is under drags in the fluid rather than the air.
+            if(!onGround && drag) {
+                frictionX *= 1 - submerged;
+            }
+            frictionX += Constants.FLUID_DRAG * submerged * velocityX * velocityX;
+            frictionY += Constants.FLUID_DRAG * submerged * velocityY * velocityY;
+        }
+        mFrictionX[slot] = frictionX;
+        mFrictionY[slot] = frictionY;
+    }
+
+    // Turn the forces on the entity in the slot into velocity, then take the friction off of it.
+    void integrate(int slot, float frictionX, float frictionY) {
+        float mass = mMass[slot];
+        //F = m * a => a = F / m
+        float accelerationX = mForceX[slot] / mass;
+        float accelerationY = mForceY[slot] / mass;
+        float velocityX = mVelocityX[slot] + accelerationX * Constants.DELTA;
+        float velocityY = mVelocityY[slot] + accelerationY * Constants.DELTA;
+
+        //Now we have the velocity without friction. Apply friction.
+        float frictionDeltaVelocityX = frictionX * mass * Constants.DELTA;
+        if(velocityX > 0) {
+            velocityX -= frictionDeltaVelocityX;
+            if(velocityX < 0) {
+                velocityX = 0;
+            }
+        } else {
+            velocityX += frictionDeltaVelocityX;
+            if(velocityX > 0) {
+                velocityX = 0;
+            }
+        }
+        float frictionDeltaVelocityY = frictionY * mass * Constants.DELTA;
+        if(velocityY > 0) {
+            velocityY -= frictionDeltaVelocityY;
+            if(velocityY < 0) {
+                velocityY = 0;
+            }
+        } else {
+            velocityY += frictionDeltaVelocityY;
+            if(velocityY > 0) {
+                velocityY = 0;
+            }
+        }
+        mVelocityX[slot] = velocityX;
+        mVelocityY[slot] = velocityY;
+    }
+
+    // Move the entity in the slot by its velocity, stopping it against the tiles and firing its touch
+    // triggers, or just noting them down for fireTouches() if deferTriggers is set. Then cap its velocity
+    // and clear its forces for the next update. The state is worked on in locals, and only written back
+    // around the triggers, which can change it.
+    void move(int slot, WorldLevel world, boolean deferTriggers) {
+        int flags = mFlags[slot];
+        //Copy the state flags to determine when to fire triggers.
+        boolean wasOnGround = (flags & ON_GROUND) != 0;
+        boolean wasOnWallLeft = (flags & ON_WALL_LEFT) != 0;
+        boolean wasOnWallRight = (flags & ON_WALL_RIGHT) != 0;
+        boolean wasOnRoof = (flags & ON_ROOF) != 0;
+        float x = mPositionX[slot];
+        float y = mPositionY[slot];
+        float velocityX = mVelocityX[slot];
+        float velocityY = mVelocityY[slot];
+        float width = mWidth[slot];
+        float height = mHeight[slot];
+
+        mPreviousX[slot] = x;
+        mPreviousY[slot] = y;
+
+        float deltaXprev = velocityX * Constants.DELTA;
+        float deltaYprev = velocityY * Constants.DELTA;
+
+        if((flags & COLLISIONS) == 0) {
+            //We don't check collisions, so just update the entity's position and be done with it.
+            //NOTE: No triggers will ever be fired here.
+            x += deltaXprev;
+            y += deltaYprev;
+        } else {
+            if((flags & FAST_MOVER) != 0) {
+                //Move along the diagonal until the first tile that is in the way. The rest of the move is left
+                //to the per axis sweeps below, which stop it against that tile and fire the triggers.
+                float time = world.sweepTiles(x, y, width, height, deltaXprev, deltaYprev);
+                x += deltaXprev * time;
+                y += deltaYprev * time;
+                deltaXprev -= deltaXprev * time;
+                deltaYprev -= deltaYprev * time;
+            }
+
+            //First, move the character as far along the X axis as we can.
+            float deltaX = world.getPenetrationDepthX(x, y, deltaXprev, width, height);
+            x += deltaX;
+
+            //If we collided with something.
+            if(deltaX != deltaXprev) {
+                int touched = 0;
+                if(deltaXprev < 0) {
+                    if(!wasOnWallLeft) touched = ON_WALL_LEFT;
+                } else if(deltaXprev > 0) {
+                    if(!wasOnWallRight) touched = ON_WALL_RIGHT;
+                }
+                if(touched != 0 && deferTriggers) {
+                    flags |= touched;
+                    mTouched[slot] |= touched;
+                    mImpacts[slot * 4] = velocityX;
+                    mImpacts[slot * 4 + 1] = velocityY;
+                } else if(touched != 0) {
+                    mPositionX[slot] = x;
+                    mPositionY[slot] = y;
+                    mVelocityX[slot] = velocityX;
+                    mVelocityY[slot] = velocityY;
+                    mFlags[slot] = flags | touched;
+                    mImpactVelocity.set(velocityX, velocityY);
+                    if(touched == ON_WALL_LEFT) {
+                        mOwners[slot].onTouchWallLeft(mImpactVelocity);
+                    } else {
+                        mOwners[slot].onTouchWallRight(mImpactVelocity);
+                    }
+                    x = mPositionX[slot];
+                    y = mPositionY[slot];
+                    velocityY = mVelocityY[slot];
+                    width = mWidth[slot];
+                    height = mHeight[slot];
+                    flags = mFlags[slot];
+                }
+                velocityX = 0;
+            } else {
+                flags &= ~(ON_WALL_LEFT | ON_WALL_RIGHT);
+            }
+
+            float deltaY = world.getPenetrationDepthY(x, y, deltaYprev, width, height);
+            y += deltaY;
+
+            if(deltaY != deltaYprev) {
+                int touched = 0;
+                if(deltaYprev < 0) {
+                    if(!wasOnGround) touched = ON_GROUND;
+                } else if(deltaYprev > 0) {
+                    if(!wasOnRoof) touched = ON_ROOF;
+                }
+                if(touched != 0 && deferTriggers) {
+                    flags |= touched;
+                    mTouched[slot] |= touched;
+                    mImpacts[slot * 4 + 2] = velocityX;
+                    mImpacts[slot * 4 + 3] = velocityY;
+                } else if(touched != 0) {
+                    mPositionX[slot] = x;
+                    mPositionY[slot] = y;
+                    mVelocityX[slot] = velocityX;
+                    mVelocityY[slot] = velocityY;
+                    mFlags[slot] = flags | touched;
+                    mImpactVelocity.set(velocityX, velocityY);
+                    if(touched == ON_GROUND) {
+                        mOwners[slot].onTouchGround(mImpactVelocity);
+                    } else {
+                        mOwners[slot].onTouchRoof(mImpactVelocity);
+                    }
+                    x = mPositionX[slot];
+                    y = mPositionY[slot];
+                    velocityX = mVelocityX[slot];
+                    velocityY = mVelocityY[slot];
+                    width = mWidth[slot];
+                    height = mHeight[slot];
+                    flags = mFlags[slot];
+                }
+                if(deltaY < 0) {
+                    //Apply bounciness
+                    float deltaDelta = deltaY - deltaYprev;  //how much we overshot by
+                    velocityY = -velocityY * mBounciness[slot];
+
+                    if(velocityY > Constants.MINIMUM_BOUNCE_VELOCITY) {
+                        float newDeltaY = world.getPenetrationDepthY(x, y, deltaDelta, width, height);
+                        y += newDeltaY;
+                        //And stop. If the object is between two objects, we don't want to loop forever.
+                        if(newDeltaY != deltaDelta) {
+                            velocityY = 0;
+                        }
+                    }
+                } else {
+                    velocityY = 0;
+                }
+            } else {
+                flags &= ~(ON_ROOF | ON_GROUND);
+            }
+        }
+
+        //Cap velocity.
+        float maximumSpeedX = mMaximumSpeedX[slot];
+        if(velocityX > maximumSpeedX) {
+            velocityX = maximumSpeedX;
+        } else if(velocityX < -maximumSpeedX) {
+            velocityX = -maximumSpeedX;
+        }
+
+        if((flags & (ON_GROUND | DRAG)) == DRAG) {
+            if(velocityX > -Constants.MINIMUM_GROUND_VELOCITY && velocityX < Constants.MINIMUM_GROUND_VELOCITY) {
+                velocityX = 0;
+            }
+        }
+
+        mPositionX[slot] = x;
+        mPositionY[slot] = y;
+        mVelocityX[slot] = velocityX;
+        mVelocityY[slot] = velocityY;
+        mFlags[slot] = flags;
+        mForceX[slot] = 0;
+        mForceY[slot] = 0;
+        if((flags & SOLID) == 0) {
+            settle(slot);
+        }
+    }
+
+    // Put the entity in the slot to sleep if it has sat still on the ground (and out of any fluid, which can
+    // move under it) for long enough. move() does this for everything but solid entities. The ContactSolver
+    // can still push those after they move, so it does it for them once it is done.
+    void settle(int slot) {
+        int flags = mFlags[slot];
+        if((flags & (ON_GROUND | IN_FLUID)) == ON_GROUND && mPositionX[slot] == mPreviousX[slot] && mPositionY[slot] == mPreviousY[slot]
+                && Math.abs(mVelocityX[slot]) < Constants.SLEEP_VELOCITY && Math.abs(mVelocityY[slot]) < Constants.SLEEP_VELOCITY) {
+            if(++mRestTicks[slot] >= Constants.SLEEP_TICKS) {
+                mFlags[slot] = flags | SLEEPING;
+                mVelocityX[slot] = 0;
+                mVelocityY[slot] = 0;
+            }
+        } else {
+            mRestTicks[slot] = 0;
+        }
+    }
+
+    private void grow() {
+        int capacity = mFlags.length * 2;
+        float[][] old = { mPositionX, mPositionY, mPreviousX, mPreviousY, mVelocityX, mVelocityY, mForceX, mForceY,
+                mWidth, mHeight, mMaximumSpeedX, mMaximumSpeedY, mMass, mBounciness, mFrictionX, mFrictionY };
+        float[] oldImpacts = mImpacts;
+        int[] oldFlags = mFlags;
+        int[] oldTouched = mTouched;
+        int[] oldRestTicks = mRestTicks;
+        int[] oldGenerations = mGenerations;
+        PhysicalEntity[] oldOwners = mOwners;
+        int[] oldFree = mFree;
+        allocateArrays(capacity);
+        float[][] grown = { mPositionX, mPositionY, mPreviousX, mPreviousY, mVelocityX, mVelocityY, mForceX, mForceY,
+                mWidth, mHeight, mMaximumSpeedX, mMaximumSpeedY, mMass, mBounciness, mFrictionX, mFrictionY };
+        for(int i = 0; i < old.length; ++i) {
+            System.arraycopy(old[i], 0, grown[i], 0, mCount);
+        }
+        System.arraycopy(oldImpacts, 0, mImpacts, 0, mCount * 4);
+        System.arraycopy(oldFlags, 0, mFlags, 0, mCount);
+        System.arraycopy(oldTouched, 0, mTouched, 0, mCount);
+        System.arraycopy(oldRestTicks, 0, mRestTicks, 0, mCount);
+        System.arraycopy(oldGenerations, 0, mGenerations, 0, mCount);
+        System.arraycopy(oldOwners, 0, mOwners, 0, mCount);
+        System.arraycopy(oldFree, 0, mFree, 0, mFreeCount);
+    }
+
+    private void allocateArrays(int capacity) {
+        mPositionX = new float[capacity];
+        mPositionY = new float[capacity];
+        mPreviousX = new float[capacity];
+        mPreviousY = new float[capacity];
+        mVelocityX = new float[capacity];
+        mVelocityY = new float[capacity];
+        mForceX = new float[capacity];
+        mForceY = new float[capacity];
+        mWidth = new float[capacity];
+        mHeight = new float[capacity];
+        mMaximumSpeedX = new float[capacity];
+        mMaximumSpeedY = new float[capacity];
+        mMass = new float[capacity];
+        mBounciness = new float[capacity];
+        mFrictionX = new float[capacity];
+        mFrictionY = new float[capacity];
+        mImpacts = new float[capacity * 4];
+        mFlags = new int[capacity];
+        mTouched = new int[capacity];
+        mRestTicks = new int[capacity];
+        mGenerations = new int[capacity];
+        mOrder = new int[capacity];
+        mRegions = new int[capacity];
+        mOwners = new PhysicalEntity[capacity];
+        mFree = new int[capacity];
+    }
+}
@@ -0,0 +1,23 @@
+package ca.kess.games.physics;
+
+/**
+ * The bookkeeping that the broadphase keeps on each entity. Every PhysicalEntity owns exactly one
+ * of these, allocated when the entity is constructed, so that moving an entity around the grid
+ * never has to allocate.
+ *
+ * Only the physics package should touch these fields.
+ */
+public class BroadphaseProxy {
+    // Whether the entity is currently stored in the grid.
+    boolean mInGrid = false;
+
+    // The range of cells (inclusive) that the entity was stored under.
+    int mCellX0;
+    int mCellY0;
+    int mCellX1;
+    int mCellY1;
+
+    // The last query that returned this entity. Used to avoid returning an entity that spans
+    // several cells more than once.
+    int mQueryStamp = 0;
+}
@@ -0,0 +1,223 @@
+package ca.kess.games.physics;
+
+import ca.kess.games.entities.PhysicalEntity;
+
+/**
+ * A broadphase for finding entities that are near each other, without looking at every entity in the world.
+ *
+ * The world is divided into square cells that are a whole number of tiles wide, and each entity is stored
+ * under every cell that its bounding box touches. Cells are hashed into a fixed number of buckets, so the grid
+ * works for entities anywhere (even ones that have fallen out of the level) and doesn't need to know how big
+ * the level is.
+ *
+ * The grid is kept up to date incrementally: call update() after an entity moves, and it only does work if
+ * the entity crossed into a different set of cells.
+ *
+ * IMPORTANT: This is used every tick by every entity, so it should never allocate once the buckets have grown
+ * to their working size.
+ */
+public class SpatialHashGrid {
+    /**
+     * Called for each entity found by a query.
+     */
+    public interface Visitor {
+        /**
+         * @return false to stop the query early.
+         */
+        public boolean visit(PhysicalEntity entity);
+    }
+
+    // Cell coordinates are clamped to this range, so that an entity falling forever doesn't make the cell
+    // loops overflow.
+    private static final int MAX_CELL = 1 << 20;
+
+    private static final int INITIAL_BUCKET_SIZE = 4;
+
+    private final float mCellSize;
+    private final int mMask;
+    private final PhysicalEntity[][] mBuckets;
+    private final int[] mBucketSizes;
+    private int mQueryStamp = 0;
+
+    /**
+     * @param cellSize The width and height of a cell, in tiles.
+     * @param bucketCount The number of hash buckets. Must be a power of two.
+     */
+    public SpatialHashGrid(int cellSize, int bucketCount) {
+        assert cellSize > 0 : "Cell size must be positive";
+        assert (bucketCount & (bucketCount - 1)) == 0 : "Bucket count must be a power of two";
+        mCellSize = cellSize;
+        mMask = bucketCount - 1;
+        mBuckets = new PhysicalEntity[bucketCount][];
+        mBucketSizes = new int[bucketCount];
+        for(int i = 0; i < bucketCount; ++i) {
+            mBuckets[i] = new PhysicalEntity[INITIAL_BUCKET_SIZE];
+        }
+    }
+
+    /**
+     * Add the entity to the grid. Does nothing if it is already in the grid.
+     */
+    public void insert(PhysicalEntity entity) {
+        BroadphaseProxy proxy = entity.getBroadphaseProxy();
+        if(proxy.mInGrid) return;
+
+        proxy.mCellX0 = toCell(entity.getPositionX());
+        proxy.mCellY0 = toCell(entity.getPositionY());
+        proxy.mCellX1 = toCell(entity.getPositionX() + entity.getWidth());
+        proxy.mCellY1 = toCell(entity.getPositionY() + entity.getHeight());
+        addToCells(entity, proxy.mCellX0, proxy.mCellY0, proxy.mCellX1, proxy.mCellY1);
+        proxy.mInGrid = true;
+    }
+
+    /**
+     * Remove the entity from the grid. Does nothing if it isn't in the grid.
+     */
+    public void remove(PhysicalEntity entity) {
+        BroadphaseProxy proxy = entity.getBroadphaseProxy();
+        if(!proxy.mInGrid) return;
+
+        removeFromCells(entity, proxy.mCellX0, proxy.mCellY0, proxy.mCellX1, proxy.mCellY1);
+        proxy.mInGrid = false;
+    }
+
+    /**
+     * Move the entity to the cells under its current bounding box. Cheap if the entity hasn't changed cells.
+     */
+    public void update(PhysicalEntity entity) {
+        BroadphaseProxy proxy = entity.getBroadphaseProxy();
+        if(!proxy.mInGrid) return;
+
+        int x0 = toCell(entity.getPositionX());
+        int y0 = toCell(entity.getPositionY());
+        int x1 = toCell(entity.getPositionX() + entity.getWidth());
+        int y1 = toCell(entity.getPositionY() + entity.getHeight());
+        if(x0 == proxy.mCellX0 && y0 == proxy.mCellY0 && x1 == proxy.mCellX1 && y1 == proxy.mCellY1) {
+            return;
+        }
+        removeFromCells(entity, proxy.mCellX0, proxy.mCellY0, proxy.mCellX1, proxy.mCellY1);
+        addToCells(entity, x0, y0, x1, y1);
+        proxy.mCellX0 = x0;
+        proxy.mCellY0 = y0;
+        proxy.mCellX1 = x1;
+        proxy.mCellY1 = y1;
+    }
+
+    /**
+     * Visit every entity stored in a cell touched by the rectangle. Each entity is visited at most once,
+     * but it is up to the visitor to check whether the entity actually overlaps the rectangle.
+     *
+     * Queries can't be nested - don't query the grid from inside a visitor.
+     */
+    public void query(float x, float y, float width, float height, Visitor visitor) {
+        int x0 = toCell(x);
+        int y0 = toCell(y);
+        int x1 = toCell(x + width);
+        int y1 = toCell(y + height);
+
+        int stamp = ++mQueryStamp;
+        for(int cy = y0; cy <= y1; ++cy) {
+            for(int cx = x0; cx <= x1; ++cx) {
+                if(!visitCell(cx, cy, stamp, visitor)) return;
+            }
+        }
+    }
+
+    /**
+     * Visit every entity stored in a cell that the line from x0, y0 to x1, y1 passes through, a cell at a
+     * time from the start of the line. Each entity is visited at most once, but it is up to the visitor to
+     * check whether the line actually hits it. Only the cells along the line are looked at, so this is much
+     * cheaper than a query over the line's bounding box for long diagonal lines.
+     *
+     * Queries can't be nested - don't query the grid from inside a visitor.
+     */
+    public void queryLine(float x0, float y0, float x1, float y1, Visitor visitor) {
+        int cx = toCell(x0);
+        int cy = toCell(y0);
+        int cells = Math.abs(toCell(x1) - cx) + Math.abs(toCell(y1) - cy) + 1;
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        int stepX = dx > 0 ? 1 : -1;
+        int stepY = dy > 0 ? 1 : -1;
+        // How far along the line (0 at the start, 1 at the end) it crosses into the next column and row of
+        // cells, and how far it goes between crossings.
+        float nextX = dx == 0 ? Float.MAX_VALUE : ((dx > 0 ? cx + 1 : cx) * mCellSize - x0) / dx;
+        float nextY = dy == 0 ? Float.MAX_VALUE : ((dy > 0 ? cy + 1 : cy) * mCellSize - y0) / dy;
+        float deltaX = dx == 0 ? 0 : mCellSize / Math.abs(dx);
+        float deltaY = dy == 0 ? 0 : mCellSize / Math.abs(dy);
+
+        int stamp = ++mQueryStamp;
+        for(int i = 0; i < cells; ++i) {
+            if(!visitCell(cx, cy, stamp, visitor)) return;
+            if(nextX < nextY) {
+                cx += stepX;
+                nextX += deltaX;
+            } else {
+                cy += stepY;
+                nextY += deltaY;
+            }
+        }
+    }
+
+    // Visit the entities in the cell that haven't been visited by this query yet. Returns false if the
+    // visitor stopped the query.
+    private boolean visitCell(int cx, int cy, int stamp, Visitor visitor) {
+        int bucket = hash(cx, cy);
+        PhysicalEntity[] entities = mBuckets[bucket];
+        int size = mBucketSizes[bucket];
+        for(int i = 0; i < size; ++i) {
+            PhysicalEntity entity = entities[i];
+            BroadphaseProxy proxy = entity.getBroadphaseProxy();
+            if(proxy.mQueryStamp == stamp) continue;
+            proxy.mQueryStamp = stamp;
+            if(!visitor.visit(entity)) return false;
+        }
+        return true;
+    }
+
+    private int toCell(float v) {
+        float cell = (float) Math.floor(v / mCellSize);
+        if(cell < -MAX_CELL) return -MAX_CELL;
+        if(cell > MAX_CELL) return MAX_CELL;
+        return (int) cell;
+    }
+
+    private int hash(int cx, int cy) {
+        return ((cx * 73856093) ^ (cy * 19349663)) & mMask;
+    }
+
+    private void addToCells(PhysicalEntity entity, int x0, int y0, int x1, int y1) {
+        for(int cy = y0; cy <= y1; ++cy) {
+            for(int cx = x0; cx <= x1; ++cx) {
+                int bucket = hash(cx, cy);
+                int size = mBucketSizes[bucket];
+                if(size == mBuckets[bucket].length) {
+                    PhysicalEntity[] grown = new PhysicalEntity[size * 2];
+                    System.arraycopy(mBuckets[bucket], 0, grown, 0, size);
+                    mBuckets[bucket] = grown;
+                }
+                mBuckets[bucket][size] = entity;
+                mBucketSizes[bucket] = size + 1;
+            }
+        }
+    }
+
+    private void removeFromCells(PhysicalEntity entity, int x0, int y0, int x1, int y1) {
+        for(int cy = y0; cy <= y1; ++cy) {
+            for(int cx = x0; cx <= x1; ++cx) {
+                int bucket = hash(cx, cy);
+                PhysicalEntity[] entities = mBuckets[bucket];
+                int size = mBucketSizes[bucket];
+                // Order within a bucket doesn't matter, so swap the last entry into the hole.
+                for(int i = 0; i < size; ++i) {
+                    if(entities[i] == entity) {
+                        entities[i] = entities[size - 1];
+                        entities[size - 1] = null;
+                        mBucketSizes[bucket] = size - 1;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -16,6 +16,8 @@ import ca.kess.games.input.KeyboardInputHandler;
 import ca.kess.games.input.SimpleAIController;
 import ca.kess.games.ui.GameButton;
 import ca.kess.games.weapons.MeleeWeapon;
+import ca.kess.games.weapons.projectiles.GravityArrow;
+import ca.kess.games.weapons.projectiles.SimpleArrow;
 import ca.kess.games.world.WorldLevel;
 
 import com.badlogic.gdx.Game;
@@ -127,6 +129,7 @@ public class GameScreen extends PlatformerScreen {
         registerController(new SimpleAIController(monster));
         monster.setDamagesPlayerOnCollision(true);
         monster.setCanBeDamaged(true);
+        monster.setSolid(true);
         mWorldLevel.addEntity(monster);
         
         mCamera = new MarioCamera(new OrthographicCamera(Gdx.graphics.getWidth()/(Constants.TILE_SIZE*Constants.ZOOM_FACTOR), Gdx.graphics.getHeight()/(Constants.TILE_SIZE*Constants.ZOOM_FACTOR)), mHero
@@ -347,6 +350,7 @@ public class GameScreen extends PlatformerScreen {
         
         
         mCamera.update();
+        mWorldLevel.updateStreaming(mCamera.getFocusX(), mCamera.getFocusY());
         
         mTotalTime += Gdx.graphics.getDeltaTime();
         
@@ -394,6 +398,11 @@ public class GameScreen extends PlatformerScreen {
         mSpriteBatch.dispose();
         GraphicsCache.clear();
         mWorldLevel.dispose();
+        // The pools log how they were used, and any entities that were never recycled.
+        ActorEntity.DisposeObjectPool();
+        ChestEntity.DisposeObjectPool();
+        SimpleArrow.DisposeObjectPool();
+        GravityArrow.DisposeObjectPool();
     }
     
     @Override
@@ -9,7 +9,11 @@ public class DeathFadeTimer extends FadeOutTimer {
 
     @Override
     public void onFinish() {
-        getEntity().recycle();
+        // Something else may have recycled it already.
+        PhysicalEntity entity = getEntity();
+        if(entity != null) {
+            entity.recycle();
+        }
         super.onFinish();
     }
 
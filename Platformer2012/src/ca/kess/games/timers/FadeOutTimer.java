@@ -16,7 +16,10 @@ public class FadeOutTimer extends Timer {
 
     @Override
     public void onUpdate() {
-        getEntity().setAlpha(1.0f - getPercentTimeElapsed());
+        PhysicalEntity entity = getEntity();
+        if(entity != null) {
+            entity.setAlpha(1.0f - getPercentTimeElapsed());
+        }
     }
 
 }
@@ -2,21 +2,26 @@ package ca.kess.games.timers;
 import ca.kess.games.Constants;
 import ca.kess.games.entities.PhysicalEntity;
 import ca.kess.games.interfaces.IUpdateable;
+import ca.kess.games.world.WorldLevel;
 
 
 public abstract class Timer implements IUpdateable {
     private final float mDuration;
     private float mElapsedTime;
     private boolean mRunning;
-    private final PhysicalEntity mEntity;
+    private final WorldLevel mWorld;
+    // A handle to the entity, since it can be recycled while the timer is running.
+    private final int mEntity;
     public Timer(PhysicalEntity entity, float duration) {
         mDuration = duration;
         mRunning = true;
         mElapsedTime = 0.0f;
-        mEntity = entity;
+        mWorld = entity.getWorld();
+        mEntity = mWorld.getHandle(entity);
     }
     
-    public PhysicalEntity getEntity() { return mEntity; }
+    // The entity the timer is running on, or null if it has been recycled since the timer started.
+    public PhysicalEntity getEntity() { return mWorld.getEntity(mEntity); }
     public float getElapsedTime() { return mElapsedTime; }
     public final float getDuration() { return mDuration; }
 
@@ -48,7 +53,7 @@ public abstract class Timer implements IUpdateable {
     }
     
     public void onFinish() {
-        mEntity.getWorld().removeTimer(this);
+        mWorld.removeTimer(this);
     }
     public abstract void onUpdate();
 }
@@ -0,0 +1,171 @@
+package ca.kess.games.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ca.kess.games.Constants;
+
+import com.badlogic.gdx.utils.Disposable;
+
+/**
+ * Runs the iterations of a loop on a fixed set of worker threads as well as the calling thread, and returns
+ * once they have all finished. This is for work that is split up every tick, so it doesn't allocate: the
+ * threads are made once, and wait for the next loop in between.
+ *
+ * Iterations are handed out one at a time to whichever thread is free, so the body mustn't care which
+ * thread runs an iteration or in what order. Everything the caller did before run() is visible to the body,
+ * and everything the body did is visible to the caller once run() returns.
+ */
+public class ParallelLoop implements Disposable {
+    public interface Body {
+        public void run(int index);
+    }
+
+    private final Thread[] mWorkers;
+    private final Object mLock = new Object();
+    // Counts the loops that have been started. Guarded by mLock.
+    private int mGeneration = 0;
+    // How many workers haven't finished the current loop yet. Guarded by mLock.
+    private int mBusy = 0;
+    private boolean mDisposed = false;
+
+    // The current loop. Set before the workers are woken, under mLock.
+    private Body mBody;
+    private int mCount;
+    private final AtomicInteger mNext = new AtomicInteger();
+    private Throwable mError;
+
+    /**
+     * @param threads How many worker threads to make. With none, loops just run on the calling thread.
+     */
+    public ParallelLoop(String name, int threads) {
+        mWorkers = new Thread[threads];
+        for(int i = 0; i < threads; ++i) {
+            mWorkers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    workerLoop();
+                }
+            }, name + "-" + i);
+            mWorkers[i].setDaemon(true);
+            mWorkers[i].start();
+        }
+    }
+
+    /**
+     * How many worker threads to use on this machine: one less than the number of cores, so the game thread
+     * has one to itself, up to Constants.MAX_WORKER_THREADS.
+     */
+    public static int defaultThreads() {
+        return Math.max(0, Math.min(Constants.MAX_WORKER_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    public int getThreadCount() {
+        return mWorkers.length;
+    }
+
+    /**
+     * Call body.run(i) for i from 0 to count - 1, and wait for them all to finish. Only call this from one
+     * thread at a time, and not from inside a body.
+     */
+    public void run(int count, Body body) {
+        if(mWorkers.length == 0 || count <= 1) {
+            for(int i = 0; i < count; ++i) {
+                body.run(i);
+            }
+            return;
+        }
+        synchronized(mLock) {
+            mBody = body;
+            mCount = count;
+            mNext.set(0);
+            mError = null;
+            mBusy = mWorkers.length;
+            ++mGeneration;
+            mLock.notifyAll();
+        }
+        Throwable error = null;
+        try {
+            work(body, count);
+        } catch(Throwable t) {
+            error = t;
+            // Don't leave the rest of the loop to the workers.
+            mNext.set(count);
+        } finally {
+            // Even if the caller's share failed, the workers have to be finished with this loop before
+            // anything else touches what it was working on, or starts the next one.
+            synchronized(mLock) {
+                boolean interrupted = false;
+                while(mBusy > 0) {
+                    try {
+                        mLock.wait();
+                    } catch(InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if(interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                mBody = null;
+                if(error == null) {
+                    error = mError;
+                }
+            }
+        }
+        if(error instanceof RuntimeException) throw (RuntimeException) error;
+        if(error instanceof Error) throw (Error) error;
+        if(error != null) throw new RuntimeException(error);
+    }
+
+    private void work(Body body, int count) {
+        int i;
+        while((i = mNext.getAndIncrement()) < count) {
+            body.run(i);
+        }
+    }
+
+    private void workerLoop() {
+        int seen = 0;
+        while(true) {
+            Body body;
+            int count;
+            synchronized(mLock) {
+                while(mGeneration == seen && !mDisposed) {
+                    try {
+                        mLock.wait();
+                    } catch(InterruptedException e) {
+                        // Only dispose() stops the workers.
+                    }
+                }
+                if(mDisposed) return;
+                seen = mGeneration;
+                body = mBody;
+                count = mCount;
+            }
+            try {
+                work(body, count);
+            } catch(Throwable t) {
+                // Don't leave the rest of the loop to the others, and pass the error back to run().
+                mNext.set(count);
+                synchronized(mLock) {
+                    if(mError == null) {
+                        mError = t;
+                    }
+                }
+            } finally {
+                synchronized(mLock) {
+                    if(--mBusy == 0) {
+                        mLock.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void dispose() {
+        synchronized(mLock) {
+            mDisposed = true;
+            mLock.notifyAll();
+        }
+    }
+}
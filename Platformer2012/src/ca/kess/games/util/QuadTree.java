@@ -1,22 +1,243 @@
 package ca.kess.games.util;
 
-import ca.kess.games.entities.PhysicalEntity;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
-import com.badlogic.gdx.math.Rectangle;
+import ca.kess.games.entities.PhysicalEntity;
 
-public class QuadTree <Key, Value> {
+/**
+ * A loose quadtree of entities, keyed on their bounding boxes.
+ *
+ * Each node covers a square, and its "loose" bounds are twice as big in each direction. An entity is stored
+ * in the deepest node that its centre falls in and whose size is at least as big as the entity, which means
+ * it always fits inside that node's loose bounds. This lets us work out where an entity goes without testing
+ * it against children, and means that an entity that moves a little usually stays in the same node.
+ *
+ * Entities whose centre is outside the tree, or which are bigger than the whole tree, are kept in the root,
+ * which is always searched.
+ *
+ * Nodes are only created where there are entities, so large, mostly empty levels cost very little.
+ *
+ * IMPORTANT: Queries and updates don't allocate, so they're safe to use every tick.
+ */
+public class QuadTree {
     private class Node {
-        Value value;
-        
-        Rectangle position;
-        
+        // The centre and half the width of the (tight) square covered by this node.
+        final float x;
+        final float y;
+        final float halfSize;
+        final int depth;
+        final Node parent;
+
         Node NW;
         Node NE;
         Node SW;
         Node SE;
+
+        PhysicalEntity[] entities = new PhysicalEntity[INITIAL_NODE_SIZE];
+        int count = 0;
+
+        // The number of entities in this node and all of its children, so queries can skip empty branches.
+        int subtreeCount = 0;
+
+        Node(Node parent, float x, float y, float halfSize, int depth) {
+            this.parent = parent;
+            this.x = x;
+            this.y = y;
+            this.halfSize = halfSize;
+            this.depth = depth;
+        }
+    }
+
+    private static final int INITIAL_NODE_SIZE = 4;
+
+    private final Node mRoot;
+    private final int mMaxDepth;
+    private final Map<PhysicalEntity, Node> mLocations = new IdentityHashMap<PhysicalEntity, Node>();
+
+    /**
+     * @param x The left edge of the area covered by the tree.
+     * @param y The bottom edge of the area covered by the tree.
+     * @param size The width and height of the area covered by the tree.
+     * @param maxDepth The deepest the tree can go. The smallest nodes are size / 2^maxDepth wide.
+     */
+    public QuadTree(float x, float y, float size, int maxDepth) {
+        mRoot = new Node(null, x + size / 2, y + size / 2, size / 2, 0);
+        mMaxDepth = maxDepth;
     }
-    
+
+    /**
+     * The number of entities in the tree.
+     */
+    public int size() {
+        return mRoot.subtreeCount;
+    }
+
+    public boolean contains(PhysicalEntity entity) {
+        return mLocations.containsKey(entity);
+    }
+
+    /**
+     * Add the entity to the tree. Does nothing if it is already in the tree.
+     */
     public void insert(PhysicalEntity entity) {
-        
+        if(mLocations.containsKey(entity)) return;
+        Node node = findNode(entity, true);
+        add(node, entity);
+    }
+
+    /**
+     * Move the entity to the node that matches its current bounding box. This is cheap if the entity hasn't
+     * moved out of its node.
+     */
+    public void update(PhysicalEntity entity) {
+        Node current = mLocations.get(entity);
+        if(current == null) return;
+        if(current == findNode(entity, false)) return;
+        removeFrom(current, entity);
+        add(findNode(entity, true), entity);
+    }
+
+    /**
+     * Remove the entity from the tree, and drop the branch it was in if that is left empty. Does nothing if it
+     * isn't in the tree.
+     */
+    public void remove(PhysicalEntity entity) {
+        Node node = mLocations.remove(entity);
+        if(node == null) return;
+        removeFrom(node, entity);
+        prune(node);
+    }
+
+    /**
+     * Remove every entity from the tree.
+     */
+    public void clear() {
+        mLocations.clear();
+        mRoot.NW = mRoot.NE = mRoot.SW = mRoot.SE = null;
+        for(int i = 0; i < mRoot.count; ++i) {
+            mRoot.entities[i] = null;
+        }
+        mRoot.count = 0;
+        mRoot.subtreeCount = 0;
+    }
+
+    /**
+     * Add every entity whose bounding box overlaps the rectangle to out. Touching edges count as overlapping,
+     * the same as PhysicalEntity.collidesWith.
+     */
+    public void query(float x, float y, float width, float height, List<PhysicalEntity> out) {
+        query(mRoot, x, y, x + width, y + height, out);
+    }
+
+    /**
+     * Add every entity whose bounding box contains the point to out.
+     */
+    public void query(float x, float y, List<PhysicalEntity> out) {
+        query(mRoot, x, y, x, y, out);
+    }
+
+    private void query(Node node, float x0, float y0, float x1, float y1, List<PhysicalEntity> out) {
+        if(node.subtreeCount == 0) return;
+
+        // The root holds everything that doesn't fit elsewhere, so only prune below it.
+        if(node != mRoot) {
+            float loose = node.halfSize * 2;
+            if(x1 < node.x - loose || x0 > node.x + loose || y1 < node.y - loose || y0 > node.y + loose) {
+                return;
+            }
+        }
+
+        for(int i = 0; i < node.count; ++i) {
+            PhysicalEntity entity = node.entities[i];
+            float ex = entity.getPositionX();
+            float ey = entity.getPositionY();
+            if(ex <= x1 && ex + entity.getWidth() >= x0 && ey <= y1 && ey + entity.getHeight() >= y0) {
+                out.add(entity);
+            }
+        }
+
+        if(node.NW != null) query(node.NW, x0, y0, x1, y1, out);
+        if(node.NE != null) query(node.NE, x0, y0, x1, y1, out);
+        if(node.SW != null) query(node.SW, x0, y0, x1, y1, out);
+        if(node.SE != null) query(node.SE, x0, y0, x1, y1, out);
+    }
+
+    // Find the node that the entity belongs in. If create is false, returns null when that node doesn't exist yet.
+    private Node findNode(PhysicalEntity entity, boolean create) {
+        float w = entity.getWidth();
+        float h = entity.getHeight();
+        float cx = entity.getPositionX() + w / 2;
+        float cy = entity.getPositionY() + h / 2;
+        float extent = Math.max(w, h);
+
+        Node node = mRoot;
+        if(Math.abs(cx - node.x) > node.halfSize || Math.abs(cy - node.y) > node.halfSize) {
+            return node;
+        }
+        // Stop at the first node whose children would be too small to hold the entity.
+        while(node.depth < mMaxDepth && extent <= node.halfSize) {
+            boolean west = cx < node.x;
+            boolean south = cy < node.y;
+            Node child = south ? (west ? node.SW : node.SE) : (west ? node.NW : node.NE);
+            if(child == null) {
+                if(!create) return null;
+                float quarter = node.halfSize / 2;
+                child = new Node(node,
+                        west ? node.x - quarter : node.x + quarter,
+                        south ? node.y - quarter : node.y + quarter,
+                        quarter, node.depth + 1);
+                if(south) {
+                    if(west) node.SW = child; else node.SE = child;
+                } else {
+                    if(west) node.NW = child; else node.NE = child;
+                }
+            }
+            node = child;
+        }
+        return node;
+    }
+
+    private void add(Node node, PhysicalEntity entity) {
+        if(node.count == node.entities.length) {
+            PhysicalEntity[] grown = new PhysicalEntity[node.count * 2];
+            System.arraycopy(node.entities, 0, grown, 0, node.count);
+            node.entities = grown;
+        }
+        node.entities[node.count++] = entity;
+        for(Node n = node; n != null; n = n.parent) {
+            ++n.subtreeCount;
+        }
+        mLocations.put(entity, node);
+    }
+
+    private void removeFrom(Node node, PhysicalEntity entity) {
+        for(int i = 0; i < node.count; ++i) {
+            if(node.entities[i] == entity) {
+                node.entities[i] = node.entities[node.count - 1];
+                node.entities[--node.count] = null;
+                break;
+            }
+        }
+        for(Node n = node; n != null; n = n.parent) {
+            --n.subtreeCount;
+        }
+    }
+
+    // Drop the highest empty node on the way up from node to the root. Nodes are kept around while entities
+    // move so that moving back and forth doesn't allocate, so this is only done when an entity is removed.
+    // It only looks at node's ancestors, so it costs the same however big the tree is.
+    private void prune(Node node) {
+        Node empty = null;
+        for(Node n = node; n != mRoot && n.subtreeCount == 0; n = n.parent) {
+            empty = n;
+        }
+        if(empty == null) return;
+        Node parent = empty.parent;
+        if(parent.NW == empty) parent.NW = null;
+        else if(parent.NE == empty) parent.NE = null;
+        else if(parent.SW == empty) parent.SW = null;
+        else if(parent.SE == empty) parent.SE = null;
     }
 }
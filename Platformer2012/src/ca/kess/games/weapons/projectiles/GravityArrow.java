@@ -1,14 +1,10 @@
 package ca.kess.games.weapons.projectiles;
 
-import java.util.LinkedList;
-import java.util.Queue;
-
-import ca.kess.games.Constants;
 import ca.kess.games.entities.ActorEntity;
+import ca.kess.games.entities.EntityPool;
 import ca.kess.games.entities.PhysicalEntity;
 import ca.kess.games.world.WorldLevel;
 
-import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.g2d.Animation;
 import com.badlogic.gdx.math.Vector2;
 
@@ -18,7 +14,8 @@ import com.badlogic.gdx.math.Vector2;
  *
  */
 public class GravityArrow extends Projectile {
-    private ActorEntity mOwner;
+    // A handle to whoever fired the arrow, so it doesn't hit them.
+    private int mOwner;
     
     public GravityArrow initialize(
             ActorEntity owner,
@@ -31,13 +28,14 @@ public class GravityArrow extends Projectile {
         initializeBase(worldLevel, x, y, vx, vy, width, height, mass, 0, animation);
         setAffectedByGravity(true);
         setApplyDrag(false);
-        mOwner = owner;
+        setFastMover(true);
+        mOwner = worldLevel.getHandle(owner);
         return this;
     }
     
     @Override
     public void handleCollision(PhysicalEntity entity) {
-        if(entity != mOwner) {
+        if(entity.getHandle() != mOwner) {
             entity.damage(1);
             
             setVelocity(0, 0);
@@ -80,45 +78,27 @@ public class GravityArrow extends Projectile {
      */
     @Override
     public void recycle() {
-        Gdx.app.log(Constants.LOG, "Arrow::recycle");
-        this.setInitialized(false);
-    
-        GravityArrow.RecycleEntity(this);
+        setInitialized(false);
+        getWorld().removeEntity(this);
+        sPool.free(this);
     }
     
-    // A list of all uninitialized game entities
-    private static Queue<GravityArrow> sAvailableActors = new LinkedList<GravityArrow>();
+    // The uninitialized entities.
+    private static final EntityPool<GravityArrow> sPool = new EntityPool<GravityArrow>("GravityArrow", 100,
+            new EntityPool.Factory<GravityArrow>() {
+                @Override
+                public GravityArrow create() {
+                    return new GravityArrow();
+                }
+            });
 
-    // Pre-allocate some game entities
-    private static void CreateGameEntities(int num) {
-        Gdx.app.log(Constants.LOG, "GravityArrow::GetActorEntity. Allocating " + num + " entities");
-        for(int i=0; i < num; ++i) {
-            sAvailableActors.add(new GravityArrow());
-        }
-    }
-    
     // Get an uninitialized game entity. It is the caller's responsibility to initialize it.
     public static GravityArrow GetActorEntity() {
-        Gdx.app.log(Constants.LOG, "GravityArrow::GetActorEntity. There are " + sAvailableActors.size() + " available.");
-        if(sAvailableActors.size() == 0) {
-            Gdx.app.log(Constants.LOG, "No available game entities, creating new ones");
-            CreateGameEntities(100);
-        }
-        return sAvailableActors.remove();
+        return sPool.get();
     }
-    
-    // Put the entity back in the pool.
-    private static void RecycleEntity(GravityArrow entity) {
-        Gdx.app.log(Constants.LOG, "GravityArrow::RecycleEntity. There are now " + sAvailableActors.size() + 1 + " entities in the pool.");
-        entity.getWorld().removeEntity(entity);
-        sAvailableActors.add(entity);
-    }
-    
+
     // Dispose the object pool for the game entity
     public static void DisposeObjectPool() {
-        Gdx.app.log(Constants.LOG, "GravityArrow::DisposeObjectPool");
-        for(GravityArrow entity : sAvailableActors) {
-            entity.dispose();
-        }
+        sPool.dispose();
     }
 }
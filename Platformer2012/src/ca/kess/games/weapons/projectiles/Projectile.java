@@ -1,12 +1,21 @@
 package ca.kess.games.weapons.projectiles;
 
+import java.util.List;
+
 import ca.kess.games.entities.PhysicalEntity;
 
 public abstract class Projectile extends PhysicalEntity {
     @Override
     public void update() {
         super.update();
-        for(PhysicalEntity entity : getWorld().getCollisions(this, true)) {
+        //Fast projectiles can pass right over something in one update, so check their whole path.
+        List<PhysicalEntity> collisions;
+        if(isFastMover()) {
+            collisions = getWorld().getSweptCollisions(this, getPreviousPositionX(), getPreviousPositionY(), true);
+        } else {
+            collisions = getWorld().getCollisions(this, true);
+        }
+        for(PhysicalEntity entity : collisions) {
             if(entity.canBeDamaged()) {
                 handleCollision(entity);
             }
@@ -1,14 +1,10 @@
 package ca.kess.games.weapons.projectiles;
 
-import java.util.LinkedList;
-import java.util.Queue;
-
-import ca.kess.games.Constants;
 import ca.kess.games.entities.ActorEntity;
+import ca.kess.games.entities.EntityPool;
 import ca.kess.games.entities.PhysicalEntity;
 import ca.kess.games.world.WorldLevel;
 
-import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.g2d.Animation;
 import com.badlogic.gdx.math.Vector2;
 
@@ -16,7 +12,8 @@ import com.badlogic.gdx.math.Vector2;
  * This arrow just travels in a straight line until it hits something
  */
 public class SimpleArrow extends Projectile {
-    private ActorEntity mOwner;
+    // A handle to whoever fired the arrow, so it doesn't hit them.
+    private int mOwner;
     
     public SimpleArrow initialize(
             ActorEntity owner,
@@ -29,13 +26,14 @@ public class SimpleArrow extends Projectile {
         initializeBase(worldLevel, x, y, vx, vy, width, height, mass, 0, animation);
         setAffectedByGravity(false);
         setApplyDrag(false);
-        mOwner = owner;
+        setFastMover(true);
+        mOwner = worldLevel.getHandle(owner);
         return this;
     }
     
     @Override
     public void handleCollision(PhysicalEntity entity) {
-        if(entity != mOwner) {
+        if(entity.getHandle() != mOwner) {
             entity.damage(1);
 
             setVelocity(0, 0);
@@ -63,45 +61,27 @@ public class SimpleArrow extends Projectile {
      */
     @Override
     public void recycle() {
-        Gdx.app.log(Constants.LOG, "SimpleArrow::recycle");
-        this.setInitialized(false);
-    
-        SimpleArrow.RecycleEntity(this);
+        setInitialized(false);
+        getWorld().removeEntity(this);
+        sPool.free(this);
     }
     
-    // A list of all uninitialized game entities
-    private static Queue<SimpleArrow> sAvailableActors = new LinkedList<SimpleArrow>();
+    // The uninitialized entities.
+    private static final EntityPool<SimpleArrow> sPool = new EntityPool<SimpleArrow>("SimpleArrow", 100,
+            new EntityPool.Factory<SimpleArrow>() {
+                @Override
+                public SimpleArrow create() {
+                    return new SimpleArrow();
+                }
+            });
 
-    // Pre-allocate some game entities
-    private static void CreateGameEntities(int num) {
-        Gdx.app.log(Constants.LOG, "SimpleArrow::GetActorEntity. Allocating " + num + " entities");
-        for(int i=0; i < num; ++i) {
-            sAvailableActors.add(new SimpleArrow());
-        }
-    }
-    
     // Get an uninitialized game entity. It is the caller's responsibility to initialize it.
     public static SimpleArrow GetActorEntity() {
-        Gdx.app.log(Constants.LOG, "SimpleArrow::GetActorEntity. There are " + sAvailableActors.size() + " available.");
-        if(sAvailableActors.size() == 0) {
-            Gdx.app.log(Constants.LOG, "No available game entities, creating new ones");
-            CreateGameEntities(100);
-        }
-        return sAvailableActors.remove();
+        return sPool.get();
     }
-    
-    // Put the entity back in the pool.
-    private static void RecycleEntity(SimpleArrow entity) {
-        Gdx.app.log(Constants.LOG, "SimpleArrow::RecycleEntity. There are now " + sAvailableActors.size() + 1 + " entities in the pool.");
-        entity.getWorld().removeEntity(entity);
-        sAvailableActors.add(entity);
-    }
-    
+
     // Dispose the object pool for the game entity
     public static void DisposeObjectPool() {
-        Gdx.app.log(Constants.LOG, "SimpleArrow::DisposeObjectPool");
-        for(SimpleArrow entity : sAvailableActors) {
-            entity.dispose();
-        }
+        sPool.dispose();
     }
 }
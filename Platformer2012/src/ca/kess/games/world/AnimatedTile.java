@@ -1,29 +1,34 @@
 package ca.kess.games.world;
 
-import ca.kess.games.Constants;
-
-import com.badlogic.gdx.graphics.g2d.Animation;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
 
 public class AnimatedTile extends Tile {
-    private Animation mAnimation;
-    private float mElapsedTime = 0.0f;
-    public AnimatedTile(Animation animation, boolean blocksMovement, float staticFriction, float kineticFriction) {
-        super(blocksMovement, staticFriction, kineticFriction);
-        mAnimation = animation;
+    private final AnimationClock mClock;
+    // The id of the animation in mClock.
+    private int mAnimationId;
+    public AnimatedTile(AnimationClock clock, int animationId, TileType type) {
+        super(type);
+        mClock = clock;
+        mAnimationId = animationId;
     }
     
-    public void setAnimation(Animation animation) {
-        mAnimation = animation;
+    public void setAnimationId(int animationId) {
+        mAnimationId = animationId;
     }
     
+    // The frame the tile is showing right now.
+    public TextureRegion getFrame() {
+        return mClock.getFrame(mAnimationId);
+    }
+
     @Override
     public void render(SpriteBatch b, int x, int y) {
-        b.draw(mAnimation.getKeyFrame(mElapsedTime, true), x, y, 0, 0, 1, 1, 1, 1, 0);
+        renderAnimation(b, x, y, mAnimationId);
     }
-    
-    @Override
-    public void update() {
-        mElapsedTime += Constants.DELTA;
+
+    // Draw the current frame of any of the clock's animations at x, y.
+    protected void renderAnimation(SpriteBatch b, int x, int y, int animationId) {
+        b.draw(mClock.getFrame(animationId), x, y, 0, 0, 1, 1, 1, 1, 0);
     }
 }
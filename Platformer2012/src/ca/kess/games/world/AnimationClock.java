@@ -0,0 +1,62 @@
+package ca.kess.games.world;
+
+import ca.kess.games.Constants;
+import ca.kess.games.interfaces.IUpdateable;
+
+import com.badlogic.gdx.graphics.g2d.Animation;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+
+/**
+ * One clock that every animated tile runs off of. Instead of each tile keeping its own time, the tile set
+ * registers each animation here once and tiles just remember its id. The current frame of every animation
+ * is worked out once per rendered frame, so drawing a tile is a table lookup, and there is nothing to do
+ * per tile when the world updates - however many tiles (or door instances) there are.
+ *
+ * Register all animations up front. Tiles can be made on the chunk loading thread, and they only read the
+ * tables.
+ */
+public class AnimationClock implements IUpdateable {
+    private Animation[] mAnimations = new Animation[8];
+    private TextureRegion[] mFrames = new TextureRegion[8];
+    private int mAnimationCount = 0;
+    private float mTime = 0.0f;
+
+    /**
+     * Add an animation to the clock.
+     * @return The id to draw the animation's current frame with.
+     */
+    public int register(Animation animation) {
+        if(mAnimationCount == mAnimations.length) {
+            Animation[] animations = new Animation[mAnimationCount * 2];
+            TextureRegion[] frames = new TextureRegion[mAnimationCount * 2];
+            System.arraycopy(mAnimations, 0, animations, 0, mAnimationCount);
+            System.arraycopy(mFrames, 0, frames, 0, mAnimationCount);
+            mAnimations = animations;
+            mFrames = frames;
+        }
+        mAnimations[mAnimationCount] = animation;
+        mFrames[mAnimationCount] = animation.getKeyFrame(mTime, true);
+        return mAnimationCount++;
+    }
+
+    @Override
+    public void update() {
+        mTime += Constants.DELTA;
+    }
+
+    /**
+     * Work out the current frame of every animation. Call once per rendered frame, before drawing tiles.
+     */
+    public void resolveFrames() {
+        for(int i = 0; i < mAnimationCount; ++i) {
+            mFrames[i] = mAnimations[i].getKeyFrame(mTime, true);
+        }
+    }
+
+    /**
+     * The current frame of the animation, as of the last resolveFrames().
+     */
+    public TextureRegion getFrame(int animationId) {
+        return mFrames[animationId];
+    }
+}
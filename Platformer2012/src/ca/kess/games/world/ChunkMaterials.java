@@ -0,0 +1,108 @@
+package ca.kess.games.world;
+
+import ca.kess.games.Constants;
+
+/**
+ * What the tiles of a resident chunk are made of, for questions like "what is the average friction under
+ * this entity". Each tile's material is packed into an int, and summed-area tables are kept over the chunk,
+ * so the total over any rectangle of it is four lookups per material, however big the rectangle is.
+ *
+ * Friction is stored in fixed point (FRICTION_SCALE to 1), so that the sums stay exact.
+ */
+public class ChunkMaterials {
+    // The materials, which are also the channels of the summed-area tables.
+    public static final int SOLID = 0;
+    public static final int FRICTION = 1;
+    public static final int CHANNELS = 2;
+
+    public static final int FRICTION_SCALE = 256;
+
+    // Bits of a packed material.
+    private static final int SOLID_BIT = 1 << 0;
+    private static final int FRICTION_SHIFT = 16;
+
+    private static final int SIZE = Constants.CHUNK_SIZE;
+    private static final int STRIDE = SIZE + 1;
+
+    // The packed material of each tile, row by row.
+    private final int[] mMaterials = new int[SIZE * SIZE];
+    // Summed-area tables, interleaved by channel. Entry (x, y) holds the totals of the tiles below and to
+    // the left of it, so it has one more row and column than the chunk.
+    private final int[] mSums = new int[STRIDE * STRIDE * CHANNELS];
+
+    /**
+     * Pack a tile's material. Friction only counts for solid tiles, since that's what things stand on.
+     * Fluid tiles only say where the fluid starts out, and are left empty here. Where it is now is up to the
+     * level's FluidSimulation.
+     */
+    public static int pack(Tile tile, boolean solid) {
+        if(tile == null) return 0;
+        int material = 0;
+        if(solid) {
+            material |= SOLID_BIT;
+            material |= Math.round(tile.getKineticFriction() * FRICTION_SCALE) << FRICTION_SHIFT;
+        }
+        return material;
+    }
+
+    /**
+     * Set a tile's material without updating the sums. Call rebuild() once all of the tiles are set.
+     */
+    public void setMaterial(int x, int y, int material) {
+        mMaterials[y * SIZE + x] = material;
+    }
+
+    /**
+     * Work out the summed-area tables from scratch.
+     */
+    public void rebuild() {
+        for(int x = 0; x < STRIDE * CHANNELS; ++x) {
+            mSums[x] = 0;
+        }
+        for(int y = 1; y < STRIDE; ++y) {
+            int row = y * STRIDE * CHANNELS;
+            int below = (y - 1) * STRIDE * CHANNELS;
+            for(int c = 0; c < CHANNELS; ++c) {
+                mSums[row + c] = 0;
+            }
+            int solid = 0, friction = 0;
+            for(int x = 1; x < STRIDE; ++x) {
+                int material = mMaterials[(y - 1) * SIZE + (x - 1)];
+                solid += material & SOLID_BIT;
+                friction += material >>> FRICTION_SHIFT;
+                int entry = row + x * CHANNELS;
+                int entryBelow = below + x * CHANNELS;
+                mSums[entry + SOLID] = mSums[entryBelow + SOLID] + solid;
+                mSums[entry + FRICTION] = mSums[entryBelow + FRICTION] + friction;
+            }
+        }
+    }
+
+    /**
+     * Change a single tile's material, and update the sums to match. This only touches the part of the
+     * tables above and to the right of the tile.
+     */
+    public void updateMaterial(int x, int y, int material) {
+        int old = mMaterials[y * SIZE + x];
+        if(old == material) return;
+        mMaterials[y * SIZE + x] = material;
+        int solid = (material & SOLID_BIT) - (old & SOLID_BIT);
+        int friction = (material >>> FRICTION_SHIFT) - (old >>> FRICTION_SHIFT);
+        for(int sy = y + 1; sy < STRIDE; ++sy) {
+            for(int sx = x + 1; sx < STRIDE; ++sx) {
+                int entry = (sy * STRIDE + sx) * CHANNELS;
+                mSums[entry + SOLID] += solid;
+                mSums[entry + FRICTION] += friction;
+            }
+        }
+    }
+
+    /**
+     * The total of one channel over the tiles x0..x1, y0..y1 (inclusive). This only reads the tables, so it is
+     * safe to call from more than one thread at once.
+     */
+    public int getSum(int channel, int x0, int y0, int x1, int y1) {
+        return mSums[((y1 + 1) * STRIDE + (x1 + 1)) * CHANNELS + channel] - mSums[((y1 + 1) * STRIDE + x0) * CHANNELS + channel]
+                - mSums[(y0 * STRIDE + (x1 + 1)) * CHANNELS + channel] + mSums[(y0 * STRIDE + x0) * CHANNELS + channel];
+    }
+}
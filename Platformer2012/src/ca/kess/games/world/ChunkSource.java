@@ -0,0 +1,40 @@
+package ca.kess.games.world;
+
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.IntArray;
+
+/**
+ * Somewhere that the tiles of a level can be read from, a chunk at a time. The level only keeps the chunks
+ * near the camera in memory, and reads the rest from here when they are needed.
+ */
+public interface ChunkSource extends Disposable {
+    /**
+     * The width of the level, in tiles.
+     */
+    public int getWidth();
+
+    /**
+     * The height of the level, in tiles.
+     */
+    public int getHeight();
+
+    /**
+     * Fill in which tiles of the whole level block movement.
+     */
+    public void readSolidity(SolidityMap out);
+
+    /**
+     * Read the tile ids of a chunk into out, row by row, Constants.CHUNK_SIZE tiles to a row. Tiles that are
+     * outside of the level should be set to -1.
+     *
+     * NOTE: This is called from the chunk loading thread, so it must be thread safe.
+     */
+    public void readChunk(int chunkX, int chunkY, short[] out);
+
+    /**
+     * Add the tiles of a chunk that give off light or hold fluid to out, two ints to a tile: its index in the
+     * chunk (row by row, as in readChunk) and its tile id. The level sets up its lights and fluids from these,
+     * so it doesn't have to read every chunk to find them.
+     */
+    public void readFeatures(int chunkX, int chunkY, IntArray out);
+}
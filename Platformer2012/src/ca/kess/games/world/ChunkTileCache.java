@@ -0,0 +1,205 @@
+package ca.kess.games.world;
+
+import ca.kess.games.Constants;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.GL10;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.SpriteCache;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.utils.Disposable;
+
+/**
+ * Keeps the static tiles of the chunks on screen in video memory, so that they don't have to be sent through
+ * the SpriteBatch every frame. Each chunk that is drawn gets a slot in a SpriteCache. Tiles that don't have a
+ * static image (like animated tiles and doors) are left out of the cache, and a list of where they are is kept
+ * so they can be drawn on top. A chunk's tile ids never change while the level is played (a door keeps whether
+ * it is open in the level's tile states), but the tiles are tinted by the light on them, so a chunk's slot is
+ * rebuilt when the light in the chunk changes.
+ *
+ * There are only Constants.TILE_CACHE_CHUNKS slots, and they are handed out to whichever chunks were drawn
+ * most recently. A chunk that can't get a slot is drawn the old way.
+ */
+public class ChunkTileCache implements Disposable {
+    private static final int TILES_PER_CHUNK = Constants.CHUNK_SIZE * Constants.CHUNK_SIZE;
+    // x, y, colour, u, v for the 4 corners of a sprite.
+    private static final float[] EMPTY_SPRITE = new float[5 * 4];
+
+    private final SpriteCache mCache;
+    // For each slot: the chunk it holds (or null), its SpriteCache id (or -1 if the slots haven't been made
+    // yet), and the frame it was last drawn in.
+    private final WorldChunk[] mOwners;
+    private final int[] mCacheIds;
+    private final long[] mLastDrawn;
+    // For each slot, the tiles (index into the chunk) that have to be drawn every frame.
+    private final int[][] mDynamicCells;
+    private final int[] mDynamicCounts;
+    private long mFrame = 0;
+
+    public ChunkTileCache() {
+        int slots = Constants.TILE_CACHE_CHUNKS;
+        mCache = new SpriteCache(slots * TILES_PER_CHUNK, true);
+        mOwners = new WorldChunk[slots];
+        mCacheIds = new int[slots];
+        mLastDrawn = new long[slots];
+        mDynamicCells = new int[slots][TILES_PER_CHUNK];
+        mDynamicCounts = new int[slots];
+        for(int i = 0; i < slots; ++i) {
+            mCacheIds[i] = -1;
+        }
+    }
+
+    /**
+     * Call at the start of each frame, before prepare().
+     */
+    public void startFrame() {
+        ++mFrame;
+    }
+
+    /**
+     * Get the chunk ready to be drawn this frame, building its cache if it needs it. Call this for every chunk
+     * before begin(), since the cache can't be changed while it is drawing.
+     * @return Whether the chunk can be drawn with draw(). If not, all of its tiles need drawing some other way.
+     */
+    public boolean prepare(WorldChunk chunk, short[] tileIds, TileSet tileSet, LightMap lights) {
+        int slot = chunk.mCacheSlot;
+        int lightVersion = lights.getVersion(chunk.getChunkX(), chunk.getChunkY());
+        if(slot < 0 || chunk.mCacheLightVersion != lightVersion) {
+            if(slot < 0) {
+                slot = findSlot();
+                if(slot < 0) return false;
+            }
+            if(!build(slot, chunk, tileIds, tileSet, lights)) return false;
+            chunk.mCacheLightVersion = lightVersion;
+        }
+        mLastDrawn[slot] = mFrame;
+        return true;
+    }
+
+    /**
+     * Start drawing cached chunks. The SpriteBatch must not be drawing.
+     */
+    public void begin(Matrix4 projection) {
+        mCache.setProjectionMatrix(projection);
+        // SpriteCache doesn't turn blending on itself.
+        Gdx.gl.glEnable(GL10.GL_BLEND);
+        Gdx.gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
+        mCache.begin();
+    }
+
+    /**
+     * Draw the static tiles of a chunk that prepare() accepted this frame.
+     */
+    public void draw(WorldChunk chunk) {
+        mCache.draw(mCacheIds[chunk.mCacheSlot]);
+    }
+
+    public void end() {
+        mCache.end();
+    }
+
+    /**
+     * Whether prepare() accepted the chunk this frame.
+     */
+    public boolean isPrepared(WorldChunk chunk) {
+        return chunk.mCacheSlot >= 0 && mLastDrawn[chunk.mCacheSlot] == mFrame;
+    }
+
+    /**
+     * The tiles of the chunk that aren't in its cache, as indices into the chunk. Only valid for chunks that
+     * prepare() accepted this frame.
+     */
+    public int[] getDynamicCells(WorldChunk chunk) {
+        return mDynamicCells[chunk.mCacheSlot];
+    }
+
+    public int getDynamicCount(WorldChunk chunk) {
+        return mDynamicCounts[chunk.mCacheSlot];
+    }
+
+    /**
+     * Give up the chunk's slot, for example because its tiles have been unloaded.
+     */
+    public void release(WorldChunk chunk) {
+        if(chunk.mCacheSlot >= 0) {
+            mOwners[chunk.mCacheSlot] = null;
+            chunk.mCacheSlot = -1;
+        }
+    }
+
+    // A free slot, or else the one drawn longest ago, as long as it wasn't drawn this frame. -1 if there isn't one.
+    private int findSlot() {
+        int best = -1;
+        for(int i = 0; i < mOwners.length; ++i) {
+            if(mOwners[i] == null) return i;
+            if(mLastDrawn[i] < mFrame && (best < 0 || mLastDrawn[i] < mLastDrawn[best])) {
+                best = i;
+            }
+        }
+        if(best >= 0) {
+            mOwners[best].mCacheSlot = -1;
+            mOwners[best] = null;
+        }
+        return best;
+    }
+
+    private boolean build(int slot, WorldChunk chunk, short[] tileIds, TileSet tileSet, LightMap lights) {
+        if(mCacheIds[slot] < 0 && !createSlots(tileIds, tileSet)) return false;
+
+        mCache.beginCache(mCacheIds[slot]);
+        int[] dynamicCells = mDynamicCells[slot];
+        int dynamicCount = 0;
+        int size = Constants.CHUNK_SIZE;
+        for(int i = 0; i < TILES_PER_CHUNK; ++i) {
+            Tile tile = tileSet.getTile(tileIds[i]);
+            if(tile == null) continue;
+            TextureRegion region = tile.getStaticRegion();
+            if(region != null) {
+                int x = chunk.getTileX() + (i % size);
+                int y = chunk.getTileY() + (i / size);
+                mCache.setColor(lights.getTint(x, y));
+                mCache.add(region, x, y, 1, 1);
+            } else {
+                dynamicCells[dynamicCount++] = i;
+            }
+        }
+        mCache.endCache();
+
+        mDynamicCounts[slot] = dynamicCount;
+        mOwners[slot] = chunk;
+        chunk.mCacheSlot = slot;
+        return true;
+    }
+
+    // A cache can't be rebuilt with more sprites than it was first made with (unless it's the last one), so
+    // all of the slots are made up front, filled with a whole chunk of empty sprites. That needs a texture,
+    // so it waits until a chunk with a static tile in it is drawn.
+    private boolean createSlots(short[] tileIds, TileSet tileSet) {
+        Texture texture = findTexture(tileIds, tileSet);
+        if(texture == null) return false;
+        for(int slot = 0; slot < mCacheIds.length; ++slot) {
+            mCache.beginCache();
+            for(int i = 0; i < TILES_PER_CHUNK; ++i) {
+                mCache.add(texture, EMPTY_SPRITE, 0, EMPTY_SPRITE.length);
+            }
+            mCacheIds[slot] = mCache.endCache();
+        }
+        return true;
+    }
+
+    private static Texture findTexture(short[] tileIds, TileSet tileSet) {
+        for(int i = 0; i < TILES_PER_CHUNK; ++i) {
+            Tile tile = tileSet.getTile(tileIds[i]);
+            if(tile != null && tile.getStaticRegion() != null) {
+                return tile.getStaticRegion().getTexture();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void dispose() {
+        mCache.dispose();
+    }
+}
@@ -0,0 +1,227 @@
+package ca.kess.games.world;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import ca.kess.games.Constants;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.utils.Disposable;
+
+/**
+ * The tiles of a level, split into chunks. Only the chunks near the camera, plus a few recently used ones,
+ * are kept in memory. Chunks are loaded from the ChunkSource on a background thread as the camera
+ * approaches them, and the least recently used chunks are evicted when there are too many in memory.
+ *
+ * Anything that needs a tile from a chunk that isn't in memory gets it loaded on the spot, so callers never
+ * see missing tiles - they just pay for the load.
+ *
+ * Everything except the loading itself happens on the game thread.
+ */
+public class ChunkedTileMap implements Disposable {
+    /**
+     * Told when chunks come and go, so that the level can park and restore what's in them.
+     */
+    public interface Listener {
+        public void onChunkLoaded(WorldChunk chunk);
+        public void onChunkEvicted(WorldChunk chunk);
+    }
+
+    // A chunk that the loading thread has finished reading.
+    private static class LoadedChunk {
+        final WorldChunk chunk;
+        final short[] tileIds;
+        LoadedChunk(WorldChunk chunk, short[] tileIds) {
+            this.chunk = chunk;
+            this.tileIds = tileIds;
+        }
+    }
+
+    private final ChunkSource mSource;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mChunkShift;
+    private final int mChunkMask;
+    private final int mChunksX;
+    private final int mChunksY;
+    private final WorldChunk[] mChunks;
+    private final List<WorldChunk> mResidentChunks = new ArrayList<WorldChunk>();
+    // Tile arrays from evicted chunks, so loading a chunk doesn't need to allocate.
+    private final List<short[]> mFreeTileArrays = new ArrayList<short[]>();
+    private final ExecutorService mLoader;
+    private final ConcurrentLinkedQueue<LoadedChunk> mLoadedChunks = new ConcurrentLinkedQueue<LoadedChunk>();
+    private long mFrame = 0;
+    private Listener mListener = null;
+
+    public ChunkedTileMap(ChunkSource source) {
+        assert (Constants.CHUNK_SIZE & (Constants.CHUNK_SIZE - 1)) == 0 : "Chunk size must be a power of two";
+        mSource = source;
+        mWidth = source.getWidth();
+        mHeight = source.getHeight();
+        mChunkShift = Integer.numberOfTrailingZeros(Constants.CHUNK_SIZE);
+        mChunkMask = Constants.CHUNK_SIZE - 1;
+        mChunksX = (mWidth + mChunkMask) >> mChunkShift;
+        mChunksY = (mHeight + mChunkMask) >> mChunkShift;
+        mChunks = new WorldChunk[mChunksX * mChunksY];
+        for(int cy = 0; cy < mChunksY; ++cy) {
+            for(int cx = 0; cx < mChunksX; ++cx) {
+                mChunks[cy * mChunksX + cx] = new WorldChunk(cx, cy);
+            }
+        }
+        mLoader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ChunkLoader");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public int getWidth() { return mWidth; }
+    public int getHeight() { return mHeight; }
+    public int getChunksX() { return mChunksX; }
+    public int getChunksY() { return mChunksY; }
+
+    /**
+     * Get the chunk, or null if it is outside of the level.
+     */
+    public WorldChunk getChunk(int chunkX, int chunkY) {
+        if(chunkX < 0 || chunkX >= mChunksX || chunkY < 0 || chunkY >= mChunksY) return null;
+        return mChunks[chunkY * mChunksX + chunkX];
+    }
+
+    /**
+     * Get the chunk containing the point, or null if it is outside of the level.
+     */
+    public WorldChunk getChunkAt(float x, float y) {
+        if(x < 0 || y < 0) return null;
+        return getChunk((int) x >> mChunkShift, (int) y >> mChunkShift);
+    }
+
+    /**
+     * Get the tile id at x, y, or -1 if the position is outside the level. Loads the chunk if it isn't resident.
+     */
+    public int getTileId(int x, int y) {
+        if(x < 0 || x >= mWidth) return -1;
+        if(y < 0 || y >= mHeight) return -1;
+        short[] tileIds = getTileIds(mChunks[(y >> mChunkShift) * mChunksX + (x >> mChunkShift)]);
+        return tileIds[((y & mChunkMask) << mChunkShift) + (x & mChunkMask)];
+    }
+
+    /**
+     * Get the tile ids of the chunk, loading it right away if it isn't resident.
+     */
+    public short[] getTileIds(WorldChunk chunk) {
+        if(chunk.mTileIds == null) {
+            Gdx.app.log(Constants.LOG, "ChunkedTileMap::getTileIds. Loading chunk " + chunk.getChunkX() + ", " + chunk.getChunkY() + " immediately");
+            short[] tileIds = obtainTileArray();
+            mSource.readChunk(chunk.getChunkX(), chunk.getChunkY(), tileIds);
+            install(chunk, tileIds);
+        }
+        return chunk.mTileIds;
+    }
+
+    /**
+     * Keep the chunks around the point in memory, start loading any that aren't, and evict the least recently
+     * used chunks if there are too many. Call this once a frame with wherever the camera is looking.
+     */
+    public void update(float focusX, float focusY) {
+        ++mFrame;
+
+        LoadedChunk loaded;
+        while((loaded = mLoadedChunks.poll()) != null) {
+            loaded.chunk.mLoading = false;
+            if(loaded.chunk.mTileIds == null) {
+                install(loaded.chunk, loaded.tileIds);
+            } else {
+                // It was needed before the load finished, and got loaded on the spot.
+                mFreeTileArrays.add(loaded.tileIds);
+            }
+        }
+
+        for(WorldChunk chunk : mResidentChunks) {
+            chunk.mWanted = false;
+        }
+        int radius = Constants.CHUNK_LOAD_RADIUS;
+        int focusChunkX = (int) Math.floor(focusX) >> mChunkShift;
+        int focusChunkY = (int) Math.floor(focusY) >> mChunkShift;
+        for(int cy = focusChunkY - radius; cy <= focusChunkY + radius; ++cy) {
+            for(int cx = focusChunkX - radius; cx <= focusChunkX + radius; ++cx) {
+                WorldChunk chunk = getChunk(cx, cy);
+                if(chunk == null) continue;
+                chunk.mWanted = true;
+                chunk.mLastUsed = mFrame;
+                if(chunk.mTileIds == null && !chunk.mLoading) {
+                    startLoad(chunk);
+                }
+            }
+        }
+
+        while(mResidentChunks.size() > Constants.MAX_RESIDENT_CHUNKS) {
+            WorldChunk victim = null;
+            for(WorldChunk chunk : mResidentChunks) {
+                if(chunk.mWanted) continue;
+                if(victim == null || chunk.mLastUsed < victim.mLastUsed) {
+                    victim = chunk;
+                }
+            }
+            if(victim == null) break;
+            evict(victim);
+        }
+    }
+
+    private void startLoad(final WorldChunk chunk) {
+        chunk.mLoading = true;
+        final short[] tileIds = obtainTileArray();
+        mLoader.execute(new Runnable() {
+            @Override
+            public void run() {
+                mSource.readChunk(chunk.getChunkX(), chunk.getChunkY(), tileIds);
+                mLoadedChunks.add(new LoadedChunk(chunk, tileIds));
+            }
+        });
+    }
+
+    private void install(WorldChunk chunk, short[] tileIds) {
+        chunk.mTileIds = tileIds;
+        chunk.mEvicted = false;
+        chunk.mLastUsed = mFrame;
+        mResidentChunks.add(chunk);
+        if(mListener != null) {
+            mListener.onChunkLoaded(chunk);
+        }
+    }
+
+    private void evict(WorldChunk chunk) {
+        if(mListener != null) {
+            mListener.onChunkEvicted(chunk);
+        }
+        mResidentChunks.remove(chunk);
+        mFreeTileArrays.add(chunk.mTileIds);
+        chunk.mTileIds = null;
+        chunk.mEvicted = true;
+    }
+
+    private short[] obtainTileArray() {
+        if(mFreeTileArrays.isEmpty()) {
+            return new short[Constants.CHUNK_SIZE * Constants.CHUNK_SIZE];
+        }
+        return mFreeTileArrays.remove(mFreeTileArrays.size() - 1);
+    }
+
+    @Override
+    public void dispose() {
+        mLoader.shutdownNow();
+        mSource.dispose();
+    }
+}
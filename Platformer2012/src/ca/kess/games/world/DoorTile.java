@@ -2,48 +2,43 @@ package ca.kess.games.world;
 
 import ca.kess.games.entities.PhysicalEntity;
 
-import com.badlogic.gdx.graphics.g2d.Animation;
+import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 
+/**
+ * A door, which opens and closes when it's interacted with. One DoorTile is shared by every door in the
+ * level; whether a particular door is open is kept in the level's TileStateMap.
+ */
 public class DoorTile extends AnimatedTile {
-    private enum State {
-        OPEN,
-        CLOSED,
-    }
-    private State mState;
-    private Animation mOpenAnimation;
-    private Animation mClosedAnimation;
+    // States in the TileStateMap. Doors start closed.
+    public static final int CLOSED = 0;
+    public static final int OPEN = 1;
+
+    // Animation ids in the tile set's AnimationClock.
+    private int mOpenAnimation;
+    private int mClosedAnimation;
     
-    public DoorTile(Animation closedAnimation, Animation openAnimation, float staticFriction, float kineticFriction) {
-        super(closedAnimation, true, staticFriction, kineticFriction);
-        mState = State.CLOSED;
+    public DoorTile(AnimationClock clock, int closedAnimation, int openAnimation, TileType type) {
+        super(clock, closedAnimation, type);
         mClosedAnimation = closedAnimation;
         mOpenAnimation = openAnimation;
     }
-    
-    public void open() {
-        mState = State.OPEN;
-        setBlocksMovement(false);
-        setAnimation(mOpenAnimation);
+
+    @Override
+    public boolean hasState() { return true; }
+
+    @Override
+    public boolean blocksMovement(int state) {
+        return state != OPEN;
     }
-    
-    private void toggleState() {
-        if(mState == State.OPEN) {
-            close();
-        } else {
-            open();
-        }
+
+    @Override
+    public void render(SpriteBatch b, int x, int y, int state) {
+        renderAnimation(b, x, y, state == OPEN ? mOpenAnimation : mClosedAnimation);
     }
     
     @Override
-    public boolean onInteraction(PhysicalEntity entity) {
-        toggleState();
+    public boolean onInteraction(PhysicalEntity entity, TileStateMap states, int x, int y) {
+        states.put(x, y, states.get(x, y) == OPEN ? CLOSED : OPEN);
         return true;
     }
-    
-    public void close(){
-        mState = State.CLOSED;
-        setBlocksMovement(true);
-        setAnimation(mClosedAnimation);
-    }
-
 }
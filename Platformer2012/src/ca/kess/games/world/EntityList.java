@@ -0,0 +1,133 @@
+package ca.kess.games.world;
+
+import java.util.Arrays;
+
+import ca.kess.games.entities.PhysicalEntity;
+
+/**
+ * The entities in a level. They are kept packed in an array, in no particular order, and each one knows
+ * its index in it (PhysicalEntity.getLevelIndex), so removing an entity is just moving the last one into its
+ * place. Adding and removing don't depend on how many entities there are.
+ *
+ * Entities are added and removed during a tick, while the list is being gone through, so add() and remove()
+ * only queue the change. update() makes them, in the order they were asked for, so whatever happened last to
+ * an entity is what sticks: a pooled entity that is recycled and reused in the same tick stays in the list.
+ * Adding or removing an entity twice does nothing more.
+ *
+ * None of this allocates, except to grow the arrays when there are more entities than there have been.
+ */
+public class EntityList {
+    public interface Listener {
+        // Called from update() as each entity is actually added or removed.
+        public void onEntityAdded(PhysicalEntity entity);
+        public void onEntityRemoved(PhysicalEntity entity);
+    }
+
+    // How many entities the arrays start out with room for. They double when they fill up.
+    private static final int INITIAL_CAPACITY = 256;
+    // The level index of an entity that isn't in the list, and of one that is waiting to be added.
+    private static final int NOT_IN_LEVEL = -1;
+    private static final int ADDING = -2;
+
+    private final Listener mListener;
+
+    // The entities are mEntities[0, mCount). mRemoving[i] is set while mEntities[i] is waiting to be removed.
+    private PhysicalEntity[] mEntities = new PhysicalEntity[INITIAL_CAPACITY];
+    private boolean[] mRemoving = new boolean[INITIAL_CAPACITY];
+    private int mCount = 0;
+
+    // The changes asked for since the last update(), in order. mPendingAdd[i] says whether mPending[i] is
+    // to be added or removed.
+    private PhysicalEntity[] mPending = new PhysicalEntity[INITIAL_CAPACITY];
+    private boolean[] mPendingAdd = new boolean[INITIAL_CAPACITY];
+    private int mPendingCount = 0;
+
+    public EntityList(Listener listener) {
+        mListener = listener;
+    }
+
+    public int size() { return mCount; }
+    public PhysicalEntity get(int index) { return mEntities[index]; }
+
+    public boolean contains(PhysicalEntity entity) {
+        int index = entity.getLevelIndex();
+        return index >= 0 && index < mCount && mEntities[index] == entity;
+    }
+
+    /**
+     * Whether the entity is in the list, and will be taken out at the next update().
+     */
+    public boolean isRemoving(PhysicalEntity entity) {
+        return contains(entity) && mRemoving[entity.getLevelIndex()];
+    }
+
+    /**
+     * Add the entity at the next update().
+     */
+    public void add(PhysicalEntity entity) {
+        if(contains(entity)) {
+            // Added back before it was taken out.
+            mRemoving[entity.getLevelIndex()] = false;
+        } else {
+            entity.setLevelIndex(ADDING);
+        }
+        queue(entity, true);
+    }
+
+    /**
+     * Remove the entity at the next update().
+     * @return False if it was already going to be removed.
+     */
+    public boolean remove(PhysicalEntity entity) {
+        if(contains(entity)) {
+            if(mRemoving[entity.getLevelIndex()]) return false;
+            mRemoving[entity.getLevelIndex()] = true;
+        }
+        queue(entity, false);
+        return true;
+    }
+
+    private void queue(PhysicalEntity entity, boolean add) {
+        if(mPendingCount == mPending.length) {
+            mPending = Arrays.copyOf(mPending, mPendingCount * 2);
+            mPendingAdd = Arrays.copyOf(mPendingAdd, mPendingCount * 2);
+        }
+        mPending[mPendingCount] = entity;
+        mPendingAdd[mPendingCount] = add;
+        ++mPendingCount;
+    }
+
+    /**
+     * Make the changes queued since the last update.
+     */
+    public void update() {
+        for(int i = 0; i < mPendingCount; ++i) {
+            PhysicalEntity entity = mPending[i];
+            mPending[i] = null;
+            if(mPendingAdd[i]) {
+                if(contains(entity)) continue;
+                if(mCount == mEntities.length) {
+                    mEntities = Arrays.copyOf(mEntities, mCount * 2);
+                    mRemoving = Arrays.copyOf(mRemoving, mCount * 2);
+                }
+                entity.setLevelIndex(mCount);
+                mEntities[mCount] = entity;
+                mRemoving[mCount] = false;
+                ++mCount;
+                mListener.onEntityAdded(entity);
+            } else {
+                if(!contains(entity)) continue;
+                int index = entity.getLevelIndex();
+                PhysicalEntity last = mEntities[--mCount];
+                mEntities[index] = last;
+                mRemoving[index] = mRemoving[mCount];
+                last.setLevelIndex(index);
+                mEntities[mCount] = null;
+                mRemoving[mCount] = false;
+                entity.setLevelIndex(NOT_IN_LEVEL);
+                mListener.onEntityRemoved(entity);
+            }
+        }
+        mPendingCount = 0;
+    }
+}
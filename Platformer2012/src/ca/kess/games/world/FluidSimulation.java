@@ -0,0 +1,613 @@
+package ca.kess.games.world;
+
+import ca.kess.games.Constants;
+import ca.kess.games.util.ParallelLoop;
+
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.IntArray;
+
+/**
+ * Water and lava that flow. Every tile holds a level of fluid, from 0 (empty) to FULL, and a step moves
+ * fluid between neighbouring tiles like a cellular automaton: down as far as there is room, sideways
+ * towards emptier tiles, and up out of tiles that have been squeezed past full.
+ *
+ * Only the tiles that might change are looked at. A tile is active for a step if it or one of its
+ * neighbours changed in the step before (or the level woke it, say because a door opened next to it). A
+ * lake that has settled has no active tiles, and costs nothing. The levels are kept by chunk, and chunks
+ * that have never held fluid aren't allocated.
+ *
+ * A step is done in three passes over the chunks, each of which only writes to the chunk it is working on:
+ * 1. Work out how much flows out of each active tile, from the levels at the start of the step.
+ * 2. Move it: each tile loses what flows out of it and gains what flows into it from its neighbours.
+ * 3. Make the tiles that changed, and their neighbours, active for the next step.
+ * So the chunks of a pass can be done on several threads at once, and the result is the same however
+ * they're shared out. Fluid is never made or lost, except where water runs into lava and boils away.
+ *
+ * Only use this from the game thread.
+ */
+public class FluidSimulation implements Disposable {
+    /**
+     * How much fluid a full tile holds.
+     */
+    public static final int FULL = 1024;
+
+    // Kinds of fluid.
+    private static final byte WATER = 1;
+    private static final byte LAVA = 2;
+    private static final TileType[] TYPES = { null, TileType.WATER, TileType.LAVA };
+    // How much can fall into the tile below in a step, and what share of the difference in level with a
+    // neighbour flows to it sideways in a step, for each kind. Lava is thick.
+    private static final int[] MAX_FALL = { 0, FULL, FULL / 8 };
+    private static final int[] SPREAD_DIVISOR = { 1, 4, 16 };
+    // Smaller differences in level than this don't flow sideways, so that a lake settles rather than
+    // passing the last few units back and forth forever.
+    private static final int SETTLE_DIFFERENCE = 3;
+
+    // Directions of flow, in the order they are stored.
+    private static final int DOWN = 0;
+    private static final int UP = 1;
+    private static final int LEFT = 2;
+    private static final int RIGHT = 3;
+
+    private static final int SIZE = Constants.CHUNK_SIZE;
+    private static final long ROW_MASK = SIZE == 64 ? -1L : (1L << SIZE) - 1;
+
+    private static final class Chunk {
+        final int mX;
+        final int mY;
+        final short[] mLevels = new short[SIZE * SIZE];
+        final byte[] mKinds = new byte[SIZE * SIZE];
+        // How much flows out of each tile in each direction, four to a tile. Only tiles with their bit set
+        // in mFlowing have any.
+        final short[] mFlows = new short[SIZE * SIZE * 4];
+        // One bit per tile, a long per row.
+        final long[] mActive = new long[SIZE];
+        final long[] mFlowing = new long[SIZE];
+        final long[] mChanged = new long[SIZE];
+        boolean mAnyActive = false;
+        // Whether the chunk is in mAwake.
+        boolean mAwake = false;
+        // The step that mFlowing and mChanged were last worked out in. They're stale otherwise.
+        int mFlowStep = -1;
+        int mChangeStep = -1;
+        // For making the lists of chunks for each pass without repeats.
+        int mGathered = -1;
+        // How many tiles were active in the last step.
+        int mActiveCount = 0;
+
+        Chunk(int x, int y) {
+            mX = x;
+            mY = y;
+        }
+    }
+
+    private final SolidityMap mSolidity;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mChunksX;
+    private final int mChunksY;
+    private final Chunk[] mChunks;
+    private final ParallelLoop mLoop;
+    private int mStep = 0;
+    private int mGatherStamp = 0;
+    private int mActiveCount = 0;
+
+    // Chunks with active tiles, for the next step.
+    private final IntArray mAwake = new IntArray();
+    // The chunks the current pass works on.
+    private IntArray mPass = new IntArray();
+    private IntArray mGather = new IntArray();
+
+    private final ParallelLoop.Body mComputeFlows = new ParallelLoop.Body() {
+        @Override
+        public void run(int index) {
+            computeFlows(mChunks[mPass.get(index)]);
+        }
+    };
+    private final ParallelLoop.Body mApplyFlows = new ParallelLoop.Body() {
+        @Override
+        public void run(int index) {
+            applyFlows(mChunks[mPass.get(index)]);
+        }
+    };
+    private final ParallelLoop.Body mActivate = new ParallelLoop.Body() {
+        @Override
+        public void run(int index) {
+            activate(mChunks[mPass.get(index)]);
+        }
+    };
+
+    /**
+     * @param solidity The level's solidity map. Fluid doesn't flow into solid tiles, or out of them.
+     * @param threads How many worker threads to step chunks on, as well as the calling thread.
+     */
+    public FluidSimulation(SolidityMap solidity, int threads) {
+        mSolidity = solidity;
+        mWidth = solidity.getWidth();
+        mHeight = solidity.getHeight();
+        mChunksX = (mWidth + SIZE - 1) / SIZE;
+        mChunksY = (mHeight + SIZE - 1) / SIZE;
+        mChunks = new Chunk[mChunksX * mChunksY];
+        mLoop = new ParallelLoop("FluidWorker", threads);
+    }
+
+    /**
+     * Fill the tile at x, y with level units of water or lava (type must be one or the other), and wake it
+     * and its neighbours up.
+     */
+    public void setLevel(int x, int y, TileType type, int level) {
+        if(!inLevel(x, y)) return;
+        Chunk chunk = allocate(x / SIZE, y / SIZE);
+        int i = (y - chunk.mY) * SIZE + (x - chunk.mX);
+        chunk.mLevels[i] = (short) Math.min(Short.MAX_VALUE, Math.max(0, level));
+        chunk.mKinds[i] = type == TileType.LAVA ? LAVA : WATER;
+        wake(x, y);
+    }
+
+    /**
+     * Something has changed at x, y (it has become solid or stopped being solid), so have the fluid in it
+     * and around it look again.
+     */
+    public void wake(int x, int y) {
+        activate(x, y);
+        activate(x - 1, y);
+        activate(x + 1, y);
+        activate(x, y - 1);
+        activate(x, y + 1);
+    }
+
+    /**
+     * How much fluid is in the tile at x, y, from 0 up. More than FULL means it is being squeezed.
+     */
+    public int getLevel(int x, int y) {
+        if(!inLevel(x, y)) return 0;
+        Chunk chunk = mChunks[(y / SIZE) * mChunksX + x / SIZE];
+        if(chunk == null) return 0;
+        return chunk.mLevels[(y - chunk.mY) * SIZE + (x - chunk.mX)];
+    }
+
+    /**
+     * What is in the tile at x, y: TileType.WATER, TileType.LAVA, or null if it is empty.
+     */
+    public TileType getType(int x, int y) {
+        if(!inLevel(x, y)) return null;
+        Chunk chunk = mChunks[(y / SIZE) * mChunksX + x / SIZE];
+        if(chunk == null) return null;
+        int i = (y - chunk.mY) * SIZE + (x - chunk.mX);
+        return chunk.mLevels[i] == 0 ? null : TYPES[chunk.mKinds[i]];
+    }
+
+    /**
+     * How full the tile at x, y is, from 0 to 1.
+     */
+    public float getFill(int x, int y) {
+        return Math.min(getLevel(x, y), FULL) / (float) FULL;
+    }
+
+    /**
+     * Whether the chunk at chunkX, chunkY has ever had any fluid in it. If not, there's no need to look at
+     * its tiles.
+     */
+    public boolean hasChunk(int chunkX, int chunkY) {
+        if(chunkX < 0 || chunkX >= mChunksX || chunkY < 0 || chunkY >= mChunksY) return false;
+        return mChunks[chunkY * mChunksX + chunkX] != null;
+    }
+
+    /**
+     * How much of the rectangle with its bottom left corner at x, y is under fluid, from 0 to 1. The fluid
+     * in a tile sits at the bottom of it.
+     */
+    public float getSubmergedFraction(float x, float y, float width, float height) {
+        if(width <= 0 || height <= 0) return 0;
+        int x0 = (int) Math.floor(x);
+        int y0 = (int) Math.floor(y);
+        int x1 = (int) Math.ceil(x + width) - 1;
+        int y1 = (int) Math.ceil(y + height) - 1;
+        float area = 0;
+        for(int ty = Math.max(0, y0); ty <= Math.min(mHeight - 1, y1); ++ty) {
+            float bottom = Math.max(y, ty);
+            for(int tx = Math.max(0, x0); tx <= Math.min(mWidth - 1, x1); ++tx) {
+                int level = getLevel(tx, ty);
+                if(level == 0) continue;
+                float top = Math.min(y + height, ty + Math.min(level, FULL) / (float) FULL);
+                if(top <= bottom) continue;
+                float overlap = Math.min(x + width, tx + 1) - Math.max(x, tx);
+                area += overlap * (top - bottom);
+            }
+        }
+        return Math.min(1, area / (width * height));
+    }
+
+    /**
+     * Whether the level of any of the tiles x0..x1, y0..y1 (inclusive) changed in the last step.
+     */
+    public boolean changedLastStep(int x0, int y0, int x1, int y1) {
+        x0 = Math.max(0, x0);
+        y0 = Math.max(0, y0);
+        x1 = Math.min(mWidth - 1, x1);
+        y1 = Math.min(mHeight - 1, y1);
+        for(int chunkY = y0 / SIZE; chunkY <= y1 / SIZE; ++chunkY) {
+            for(int chunkX = x0 / SIZE; chunkX <= x1 / SIZE; ++chunkX) {
+                long[] changed = changedThisStep(mChunks[chunkY * mChunksX + chunkX]);
+                if(changed == null) continue;
+                int left = Math.max(x0, chunkX * SIZE) - chunkX * SIZE;
+                int right = Math.min(x1, chunkX * SIZE + SIZE - 1) - chunkX * SIZE;
+                long mask = (-1L >>> (63 - right)) & (-1L << left);
+                for(int y = Math.max(y0, chunkY * SIZE); y <= Math.min(y1, chunkY * SIZE + SIZE - 1); ++y) {
+                    if((changed[y - chunkY * SIZE] & mask) != 0) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * How many tiles the last step looked at.
+     */
+    public int getActiveCount() {
+        return mActiveCount;
+    }
+
+    /**
+     * Move the fluid on by a step. Call once a tick.
+     */
+    public void step() {
+        // Counted even when nothing happens, so that changedLastStep() doesn't see the changes of an old step.
+        ++mStep;
+        if(mAwake.size == 0) {
+            mActiveCount = 0;
+            return;
+        }
+
+        // 1. The chunks with active tiles work out their flows.
+        IntArray pass = mPass;
+        pass.clear();
+        pass.addAll(mAwake);
+        for(int i = 0; i < mAwake.size; ++i) {
+            mChunks[mAwake.get(i)].mAwake = false;
+        }
+        mAwake.clear();
+        mLoop.run(pass.size, mComputeFlows);
+        mActiveCount = 0;
+        for(int i = 0; i < pass.size; ++i) {
+            mActiveCount += mChunks[pass.get(i)].mActiveCount;
+        }
+
+        // 2. Those with flows, and the chunks they flow into, move the fluid.
+        startGather();
+        for(int i = 0; i < pass.size; ++i) {
+            Chunk chunk = mChunks[pass.get(i)];
+            gather(chunk, chunk.mFlowing, true);
+        }
+        swapGather();
+        mLoop.run(mPass.size, mApplyFlows);
+
+        // 3. Those with changes, and the chunks next to the changes, wake up their tiles.
+        pass = mPass;
+        startGather();
+        for(int i = 0; i < pass.size; ++i) {
+            Chunk chunk = mChunks[pass.get(i)];
+            gather(chunk, chunk.mChanged, false);
+        }
+        swapGather();
+        mLoop.run(mPass.size, mActivate);
+
+        for(int i = 0; i < mPass.size; ++i) {
+            Chunk chunk = mChunks[mPass.get(i)];
+            if(chunk.mAnyActive && !chunk.mAwake) {
+                chunk.mAwake = true;
+                mAwake.add(mPass.get(i));
+            }
+        }
+    }
+
+    @Override
+    public void dispose() {
+        mLoop.dispose();
+    }
+
+    private boolean inLevel(int x, int y) {
+        return x >= 0 && x < mWidth && y >= 0 && y < mHeight;
+    }
+
+    private Chunk allocate(int chunkX, int chunkY) {
+        int index = chunkY * mChunksX + chunkX;
+        if(mChunks[index] == null) {
+            mChunks[index] = new Chunk(chunkX * SIZE, chunkY * SIZE);
+        }
+        return mChunks[index];
+    }
+
+    // Make the tile at x, y active for the next step, if its chunk has any fluid.
+    private void activate(int x, int y) {
+        if(!inLevel(x, y)) return;
+        int index = (y / SIZE) * mChunksX + x / SIZE;
+        Chunk chunk = mChunks[index];
+        if(chunk == null) return;
+        chunk.mActive[y - chunk.mY] |= 1L << (x - chunk.mX);
+        chunk.mAnyActive = true;
+        if(!chunk.mAwake) {
+            chunk.mAwake = true;
+            mAwake.add(index);
+        }
+    }
+
+    private void startGather() {
+        ++mGatherStamp;
+        mGather.clear();
+    }
+
+    private void swapGather() {
+        IntArray pass = mPass;
+        mPass = mGather;
+        mGather = pass;
+    }
+
+    // Add the chunk to mGather if any of the tiles are set in bits, along with each neighbour that one of
+    // those tiles is next to. With allocate, neighbours that haven't held fluid before are made, since
+    // fluid is about to flow into them. Otherwise they're left out.
+    private void gather(Chunk chunk, long[] bits, boolean allocate) {
+        long any = 0;
+        long leftColumn = 0;
+        long rightColumn = 0;
+        for(int row = 0; row < SIZE; ++row) {
+            any |= bits[row];
+            leftColumn |= bits[row] & 1;
+            rightColumn |= bits[row] >>> (SIZE - 1);
+        }
+        if(any == 0) return;
+        int chunkX = chunk.mX / SIZE;
+        int chunkY = chunk.mY / SIZE;
+        addToGather(chunkX, chunkY, allocate);
+        if(leftColumn != 0) addToGather(chunkX - 1, chunkY, allocate);
+        if(rightColumn != 0) addToGather(chunkX + 1, chunkY, allocate);
+        if(bits[0] != 0) addToGather(chunkX, chunkY - 1, allocate);
+        if(bits[SIZE - 1] != 0) addToGather(chunkX, chunkY + 1, allocate);
+    }
+
+    private void addToGather(int chunkX, int chunkY, boolean allocate) {
+        if(chunkX < 0 || chunkX >= mChunksX || chunkY < 0 || chunkY >= mChunksY) return;
+        int index = chunkY * mChunksX + chunkX;
+        Chunk chunk = mChunks[index];
+        if(chunk == null) {
+            if(!allocate) return;
+            chunk = allocate(chunkX, chunkY);
+        }
+        if(chunk.mGathered != mGatherStamp) {
+            chunk.mGathered = mGatherStamp;
+            mGather.add(index);
+        }
+    }
+
+    // The chunk next to this one, or null.
+    private Chunk neighbour(Chunk chunk, int dx, int dy) {
+        int chunkX = chunk.mX / SIZE + dx;
+        int chunkY = chunk.mY / SIZE + dy;
+        if(chunkX < 0 || chunkX >= mChunksX || chunkY < 0 || chunkY >= mChunksY) return null;
+        return mChunks[chunkY * mChunksX + chunkX];
+    }
+
+    // The flows of a chunk, if they were worked out this step.
+    private long[] flowingThisStep(Chunk chunk) {
+        return chunk != null && chunk.mFlowStep == mStep ? chunk.mFlowing : null;
+    }
+
+    private long[] changedThisStep(Chunk chunk) {
+        return chunk != null && chunk.mChangeStep == mStep ? chunk.mChanged : null;
+    }
+
+    // The tiles of a row of a chunk that are set in bits, or are next to one that is. The tiles of the chunk
+    // are in bits, and those of its neighbours are in left, right, below and above. Any of them can be null.
+    private static long neighbourhood(long[] bits, long[] left, long[] right, long[] below, long[] above, int row) {
+        long result = 0;
+        if(bits != null) {
+            long line = bits[row];
+            result = line | (line << 1) | (line >>> 1);
+            if(row > 0) result |= bits[row - 1];
+            if(row < SIZE - 1) result |= bits[row + 1];
+        }
+        if(left != null) result |= left[row] >>> (SIZE - 1);
+        if(right != null) result |= (right[row] & 1) << (SIZE - 1);
+        if(row == 0 && below != null) result |= below[SIZE - 1];
+        if(row == SIZE - 1 && above != null) result |= above[0];
+        return result & ROW_MASK;
+    }
+
+    // Whether fluid of the kind can flow into the tile at x, y.
+    private boolean canFlowInto(int x, int y, int kind) {
+        if(!inLevel(x, y) || mSolidity.isSolid(x, y)) return false;
+        Chunk chunk = mChunks[(y / SIZE) * mChunksX + x / SIZE];
+        if(chunk == null) return true;
+        int i = (y - chunk.mY) * SIZE + (x - chunk.mX);
+        return chunk.mLevels[i] == 0 || chunk.mKinds[i] == kind;
+    }
+
+    // PASS 1
+    private void computeFlows(Chunk chunk) {
+        // Forget the flows from the last time.
+        for(int row = 0; row < SIZE; ++row) {
+            long bits = chunk.mFlowing[row];
+            chunk.mFlowing[row] = 0;
+            while(bits != 0) {
+                int i = (row * SIZE + Long.numberOfTrailingZeros(bits)) * 4;
+                bits &= bits - 1;
+                chunk.mFlows[i + DOWN] = 0;
+                chunk.mFlows[i + UP] = 0;
+                chunk.mFlows[i + LEFT] = 0;
+                chunk.mFlows[i + RIGHT] = 0;
+            }
+        }
+        int count = 0;
+        for(int row = 0; row < SIZE; ++row) {
+            long bits = chunk.mActive[row];
+            chunk.mActive[row] = 0;
+            count += Long.bitCount(bits);
+            while(bits != 0) {
+                int x = Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                if(computeFlows(chunk, x, row)) {
+                    chunk.mFlowing[row] |= 1L << x;
+                }
+            }
+        }
+        chunk.mAnyActive = false;
+        chunk.mActiveCount = count;
+        chunk.mFlowStep = mStep;
+    }
+
+    // Work out how much flows out of one tile, and return whether any does.
+    private boolean computeFlows(Chunk chunk, int localX, int localY) {
+        int i = localY * SIZE + localX;
+        int remaining = chunk.mLevels[i];
+        if(remaining == 0) return false;
+        int x = chunk.mX + localX;
+        int y = chunk.mY + localY;
+        if(mSolidity.isSolid(x, y)) return false;
+        int kind = chunk.mKinds[i];
+        short[] flows = chunk.mFlows;
+        boolean flowing = false;
+
+        // Fall into the tile below, as far as there's room.
+        if(canFlowInto(x, y - 1, kind)) {
+            int fall = Math.min(remaining, Math.min(MAX_FALL[kind], FULL - getLevel(x, y - 1)));
+            if(fall > 0) {
+                flows[i * 4 + DOWN] = (short) fall;
+                remaining -= fall;
+                flowing = true;
+            }
+        }
+        // Anything over a full tile is being squeezed by the fluid around it, so push it up.
+        if(remaining > FULL && canFlowInto(x, y + 1, kind)) {
+            flows[i * 4 + UP] = (short) (remaining - FULL);
+            remaining = FULL;
+            flowing = true;
+        }
+        // Spread out towards emptier tiles on either side.
+        int left = spread(remaining, x - 1, y, kind);
+        int right = spread(remaining, x + 1, y, kind);
+        if(left > 0) {
+            flows[i * 4 + LEFT] = (short) left;
+            flowing = true;
+        }
+        if(right > 0) {
+            flows[i * 4 + RIGHT] = (short) right;
+            flowing = true;
+        }
+        return flowing;
+    }
+
+    // How much flows sideways from a tile with remaining fluid left in it into the tile at x, y.
+    private int spread(int remaining, int x, int y, int kind) {
+        if(remaining < SETTLE_DIFFERENCE || !canFlowInto(x, y, kind)) return 0;
+        int difference = remaining - getLevel(x, y);
+        if(difference < SETTLE_DIFFERENCE) return 0;
+        return Math.max(1, difference / SPREAD_DIVISOR[kind]);
+    }
+
+    // PASS 2
+    private void applyFlows(Chunk chunk) {
+        long[] own = flowingThisStep(chunk);
+        Chunk left = neighbour(chunk, -1, 0);
+        Chunk right = neighbour(chunk, 1, 0);
+        Chunk below = neighbour(chunk, 0, -1);
+        Chunk above = neighbour(chunk, 0, 1);
+        long[] leftFlowing = flowingThisStep(left);
+        long[] rightFlowing = flowingThisStep(right);
+        long[] belowFlowing = flowingThisStep(below);
+        long[] aboveFlowing = flowingThisStep(above);
+        // Flows that are stale count as none.
+        Chunk self = own != null ? chunk : null;
+        if(leftFlowing == null) left = null;
+        if(rightFlowing == null) right = null;
+        if(belowFlowing == null) below = null;
+        if(aboveFlowing == null) above = null;
+
+        for(int row = 0; row < SIZE; ++row) {
+            // Only tiles with flows, and those next to them, can change.
+            long bits = neighbourhood(own, leftFlowing, rightFlowing, belowFlowing, aboveFlowing, row);
+            long changed = 0;
+            while(bits != 0) {
+                int x = Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                if(applyFlows(chunk, self, x, row, row < SIZE - 1 ? self : above, row > 0 ? self : below,
+                        x > 0 ? self : left, x < SIZE - 1 ? self : right)) {
+                    changed |= 1L << x;
+                }
+            }
+            chunk.mChanged[row] = changed;
+        }
+        chunk.mChangeStep = mStep;
+    }
+
+    // Move the fluid into and out of a tile, and return whether its level changed. self is the tile's own
+    // chunk, and the others are the chunks that its neighbours are in. Any of them are null if they have
+    // no flows this step.
+    private static boolean applyFlows(Chunk chunk, Chunk self, int localX, int localY,
+            Chunk above, Chunk below, Chunk left, Chunk right) {
+        int i = localY * SIZE + localX;
+        int out = 0;
+        if(self != null) {
+            out = self.mFlows[i * 4 + DOWN] + self.mFlows[i * 4 + UP] + self.mFlows[i * 4 + LEFT] + self.mFlows[i * 4 + RIGHT];
+        }
+        int in = 0;
+        int lava = 0;
+        int flow;
+        // A tile that flows keeps its kind for the whole step, so the kinds of the neighbours are safe to
+        // read while they are being moved.
+        int j = ((localY + 1) % SIZE) * SIZE + localX;
+        flow = above == null ? 0 : above.mFlows[j * 4 + DOWN];
+        if(flow > 0) {
+            in += flow;
+            if(above.mKinds[j] == LAVA) lava += flow;
+        }
+        j = ((localY + SIZE - 1) % SIZE) * SIZE + localX;
+        flow = below == null ? 0 : below.mFlows[j * 4 + UP];
+        if(flow > 0) {
+            in += flow;
+            if(below.mKinds[j] == LAVA) lava += flow;
+        }
+        j = localY * SIZE + (localX + SIZE - 1) % SIZE;
+        flow = left == null ? 0 : left.mFlows[j * 4 + RIGHT];
+        if(flow > 0) {
+            in += flow;
+            if(left.mKinds[j] == LAVA) lava += flow;
+        }
+        j = localY * SIZE + (localX + 1) % SIZE;
+        flow = right == null ? 0 : right.mFlows[j * 4 + LEFT];
+        if(flow > 0) {
+            in += flow;
+            if(right.mKinds[j] == LAVA) lava += flow;
+        }
+
+        int old = chunk.mLevels[i];
+        int level = old - out + in;
+        if(old == 0 && in > 0) {
+            // Fluid only flows into tiles that are empty or hold the same kind, so this is the only place
+            // kinds can meet. Where water runs into lava, the water boils away.
+            if(lava > 0) {
+                chunk.mKinds[i] = LAVA;
+                level = lava;
+            } else {
+                chunk.mKinds[i] = WATER;
+            }
+        }
+        if(level == old) return false;
+        chunk.mLevels[i] = (short) Math.min(Short.MAX_VALUE, level);
+        return true;
+    }
+
+    // PASS 3
+    private void activate(Chunk chunk) {
+        long[] own = changedThisStep(chunk);
+        long[] left = changedThisStep(neighbour(chunk, -1, 0));
+        long[] right = changedThisStep(neighbour(chunk, 1, 0));
+        long[] below = changedThisStep(neighbour(chunk, 0, -1));
+        long[] above = changedThisStep(neighbour(chunk, 0, 1));
+        boolean any = false;
+        for(int row = 0; row < SIZE; ++row) {
+            chunk.mActive[row] |= neighbourhood(own, left, right, below, above, row);
+            any |= chunk.mActive[row] != 0;
+        }
+        chunk.mAnyActive = any;
+    }
+}
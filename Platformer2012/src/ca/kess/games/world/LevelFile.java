@@ -0,0 +1,161 @@
+package ca.kess.games.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+import com.badlogic.gdx.utils.IntArray;
+
+/**
+ * A compiled level (see LevelWriter). The file is memory mapped, and nothing is read out of it until it is
+ * asked for, so opening a level is quick no matter how big it is.
+ *
+ * The layout is (all values little endian):
+ *
+ *   Header, HEADER_SIZE bytes:
+ *     int magic, int version, int width, int height, int chunkSize,
+ *     int paletteSize, int paletteOffset, int solidityOffset, int chunkTableOffset,
+ *     int spawnCount, int spawnOffset, int featureTableOffset
+ *   Palette: paletteSize ints, the map colour (0xRRGGBB) of each tile.
+ *   Solidity: the SolidityMap for the level, as longs. 8 byte aligned.
+ *   Chunk table: one int per chunk, row by row. If it is >= 0, it is the offset of the chunk's tiles:
+ *     chunkSize * chunkSize shorts, row by row, each an index into the palette (-1 outside the level).
+ *     If it is < 0, every tile in the chunk is palette index -(value + 1).
+ *   Spawns: spawnCount records of int type, float x, float y.
+ *   Feature table: one int per chunk, row by row, and one more. The features of a chunk are its tiles that
+ *     give off light or hold fluid, so the level can set those up without reading the chunks. Chunk i has
+ *     features table[i] to table[i + 1] - 1 of the list that follows the table.
+ *   Features: records of short index (of the tile in its chunk, row by row), short palette index.
+ *
+ * Reading is thread safe - it only uses absolute reads of the buffer.
+ */
+public class LevelFile {
+    public static final int MAGIC = 0x4C564C50; // "PLVL"
+    public static final int VERSION = 2;
+    public static final int HEADER_SIZE = 48;
+    public static final int SPAWN_SIZE = 12;
+    public static final int FEATURE_SIZE = 4;
+
+    /**
+     * Types of spawn record.
+     */
+    public static final int SPAWN_HERO = 0;
+    public static final int SPAWN_MONSTER = 1;
+    public static final int SPAWN_CHEST = 2;
+
+    private final ByteBuffer mBuffer;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mChunkSize;
+    private final int mChunksX;
+    private final int mPaletteSize;
+    private final int mPaletteOffset;
+    private final int mSolidityOffset;
+    private final int mChunkTableOffset;
+    private final int mSpawnCount;
+    private final int mSpawnOffset;
+    private final int mFeatureTableOffset;
+    private final int mFeatureOffset;
+
+    /**
+     * Memory map the level file.
+     */
+    public static LevelFile open(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            return new LevelFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            // The mapping stays valid after the file is closed.
+            in.close();
+        }
+    }
+
+    public LevelFile(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if(mBuffer.capacity() < HEADER_SIZE || mBuffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a level file");
+        }
+        int version = mBuffer.getInt(4);
+        if(version != VERSION) {
+            throw new IOException("Unsupported level file version " + version + ", expected " + VERSION);
+        }
+        mWidth = mBuffer.getInt(8);
+        mHeight = mBuffer.getInt(12);
+        mChunkSize = mBuffer.getInt(16);
+        mPaletteSize = mBuffer.getInt(20);
+        mPaletteOffset = mBuffer.getInt(24);
+        mSolidityOffset = mBuffer.getInt(28);
+        mChunkTableOffset = mBuffer.getInt(32);
+        mSpawnCount = mBuffer.getInt(36);
+        mSpawnOffset = mBuffer.getInt(40);
+        mFeatureTableOffset = mBuffer.getInt(44);
+        mChunksX = (mWidth + mChunkSize - 1) / mChunkSize;
+        int chunksY = (mHeight + mChunkSize - 1) / mChunkSize;
+        mFeatureOffset = mFeatureTableOffset + 4 * (mChunksX * chunksY + 1);
+    }
+
+    public int getWidth() { return mWidth; }
+    public int getHeight() { return mHeight; }
+    public int getChunkSize() { return mChunkSize; }
+    public int getPaletteSize() { return mPaletteSize; }
+
+    /**
+     * The map colour (0xRRGGBB) of a palette entry.
+     */
+    public int getPaletteColor(int index) {
+        return mBuffer.getInt(mPaletteOffset + 4 * index);
+    }
+
+    public void readSolidity(SolidityMap out) {
+        ByteBuffer solidity = mBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        solidity.position(mSolidityOffset);
+        LongBuffer words = solidity.slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+        words.limit(out.getWordCount());
+        out.read(words);
+    }
+
+    /**
+     * Read the palette indices of a chunk into out, row by row. Tiles outside the level are -1.
+     */
+    public void readChunk(int chunkX, int chunkY, short[] out) {
+        int size = mChunkSize;
+        int entry = mBuffer.getInt(mChunkTableOffset + 4 * (chunkY * mChunksX + chunkX));
+        int columns = Math.max(0, Math.min(size, mWidth - chunkX * size));
+        int rows = Math.max(0, Math.min(size, mHeight - chunkY * size));
+        if(entry < 0) {
+            short index = (short) -(entry + 1);
+            for(int row = 0; row < size; ++row) {
+                for(int column = 0; column < size; ++column) {
+                    out[row * size + column] = (row < rows && column < columns) ? index : -1;
+                }
+            }
+        } else {
+            for(int i = 0; i < size * size; ++i) {
+                out[i] = mBuffer.getShort(entry + 2 * i);
+            }
+        }
+    }
+
+    /**
+     * Add the features of a chunk (see the layout above) to out, two ints to a feature: the index of the tile
+     * in the chunk, and its palette index.
+     */
+    public void readFeatures(int chunkX, int chunkY, IntArray out) {
+        int entry = mFeatureTableOffset + 4 * (chunkY * mChunksX + chunkX);
+        int end = mBuffer.getInt(entry + 4);
+        for(int i = mBuffer.getInt(entry); i < end; ++i) {
+            out.add(mBuffer.getShort(mFeatureOffset + FEATURE_SIZE * i));
+            out.add(mBuffer.getShort(mFeatureOffset + FEATURE_SIZE * i + 2));
+        }
+    }
+
+    public int getSpawnCount() { return mSpawnCount; }
+    public int getSpawnType(int index) { return mBuffer.getInt(mSpawnOffset + SPAWN_SIZE * index); }
+    public float getSpawnX(int index) { return mBuffer.getFloat(mSpawnOffset + SPAWN_SIZE * index + 4); }
+    public float getSpawnY(int index) { return mBuffer.getFloat(mSpawnOffset + SPAWN_SIZE * index + 8); }
+}
@@ -0,0 +1,84 @@
+package ca.kess.games.world;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything wrong with a level's map, found while decoding it. Every unknown colour is listed, along with
+ * where it is used, so that a broken map can be fixed in one pass rather than one error at a time.
+ *
+ * Positions are in the map image, so y counts down from the top row.
+ */
+public class LevelValidationReport {
+    // How many positions to list for each colour. The rest are only counted.
+    private static final int MAX_POSITIONS = 16;
+
+    private static class UnknownColor {
+        int mCount = 0;
+        // x, y pairs.
+        final List<int[]> mPositions = new ArrayList<int[]>();
+    }
+
+    // In the order they were first found.
+    private final Map<Integer, UnknownColor> mUnknownColors = new LinkedHashMap<Integer, UnknownColor>();
+
+    /**
+     * Record that the map has a colour (0xRRGGBB) that isn't a tile at x, y.
+     */
+    public void addUnknownColor(int color, int x, int y) {
+        UnknownColor unknown = mUnknownColors.get(Integer.valueOf(color));
+        if(unknown == null) {
+            unknown = new UnknownColor();
+            mUnknownColors.put(Integer.valueOf(color), unknown);
+        }
+        ++unknown.mCount;
+        if(unknown.mPositions.size() < MAX_POSITIONS) {
+            unknown.mPositions.add(new int[] { x, y });
+        }
+    }
+
+    /**
+     * Add everything from another report (for example, one for a different part of the same map) to this one.
+     */
+    public void addAll(LevelValidationReport other) {
+        for(Map.Entry<Integer, UnknownColor> entry : other.mUnknownColors.entrySet()) {
+            UnknownColor unknown = mUnknownColors.get(entry.getKey());
+            if(unknown == null) {
+                unknown = new UnknownColor();
+                mUnknownColors.put(entry.getKey(), unknown);
+            }
+            unknown.mCount += entry.getValue().mCount;
+            for(int[] position : entry.getValue().mPositions) {
+                if(unknown.mPositions.size() < MAX_POSITIONS) {
+                    unknown.mPositions.add(position);
+                }
+            }
+        }
+    }
+
+    public boolean isValid() {
+        return mUnknownColors.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        if(isValid()) {
+            return "Level is valid";
+        }
+        StringBuilder report = new StringBuilder();
+        report.append(mUnknownColors.size()).append(" unknown tile colour(s):");
+        for(Map.Entry<Integer, UnknownColor> entry : mUnknownColors.entrySet()) {
+            UnknownColor unknown = entry.getValue();
+            report.append(String.format("%n  %06X, %d tile(s) at", entry.getKey().intValue(), unknown.mCount));
+            for(int[] position : unknown.mPositions) {
+                report.append(' ').append(position[0]).append(',').append(position[1]);
+            }
+            if(unknown.mCount > unknown.mPositions.size()) {
+                report.append(" and ").append(unknown.mCount - unknown.mPositions.size()).append(" more");
+            }
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,194 @@
+package ca.kess.games.world;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds a compiled level file (see LevelFile for the layout) from a grid of map colours.
+ *
+ * This doesn't use any graphics, so levels can be compiled ahead of time by a tool.
+ */
+public class LevelWriter {
+    private final int mWidth;
+    private final int mHeight;
+    private final int mChunkSize;
+    // Map colours, row by row, with the bottom row first.
+    private final int[] mColors;
+    private final List<float[]> mSpawns = new ArrayList<float[]>();
+
+    /**
+     * @param colors The colour (0xRRGGBB) of each tile, row by row, with the bottom row first.
+     */
+    public LevelWriter(int width, int height, int chunkSize, int[] colors) {
+        assert colors.length == width * height : "Expected " + (width * height) + " colours";
+        mWidth = width;
+        mHeight = height;
+        mChunkSize = chunkSize;
+        mColors = colors;
+    }
+
+    public void addSpawn(int type, float x, float y) {
+        mSpawns.add(new float[] { type, x, y });
+    }
+
+    /**
+     * Write the level.
+     * @throws IOException If writing fails, or any colour isn't a known tile (the message lists them all).
+     */
+    public void write(OutputStream out) throws IOException {
+        // Build the palette, and the solidity map.
+        List<Integer> palette = new ArrayList<Integer>();
+        short[] indices = new short[mColors.length];
+        SolidityMap solidity = new SolidityMap(mWidth, mHeight);
+        LevelValidationReport report = new LevelValidationReport();
+        for(int i = 0; i < mColors.length; ++i) {
+            TileType type = TileType.forColor(mColors[i]);
+            if(type == null) {
+                // The report wants positions in the image, which has y going down.
+                report.addUnknownColor(mColors[i], i % mWidth, mHeight - 1 - i / mWidth);
+                continue;
+            }
+            int index = palette.indexOf(Integer.valueOf(mColors[i]));
+            if(index < 0) {
+                index = palette.size();
+                palette.add(Integer.valueOf(mColors[i]));
+            }
+            indices[i] = (short) index;
+            if(type.blocksMovement()) {
+                solidity.setSolid(i % mWidth, i / mWidth, true);
+            }
+        }
+        if(!report.isValid()) {
+            throw new IOException(report.toString());
+        }
+
+        int chunksX = (mWidth + mChunkSize - 1) / mChunkSize;
+        int chunksY = (mHeight + mChunkSize - 1) / mChunkSize;
+
+        int paletteOffset = LevelFile.HEADER_SIZE;
+        int solidityOffset = align(paletteOffset + 4 * palette.size(), 8);
+        int chunkTableOffset = solidityOffset + 8 * solidity.getWordCount();
+        int chunkDataOffset = chunkTableOffset + 4 * chunksX * chunksY;
+
+        // Work out which chunks are all one tile, and where the others go.
+        int[] chunkTable = new int[chunksX * chunksY];
+        int nextChunkOffset = chunkDataOffset;
+        for(int cy = 0; cy < chunksY; ++cy) {
+            for(int cx = 0; cx < chunksX; ++cx) {
+                int uniform = uniformIndex(indices, cx, cy);
+                if(uniform >= 0) {
+                    chunkTable[cy * chunksX + cx] = -(uniform + 1);
+                } else {
+                    chunkTable[cy * chunksX + cx] = nextChunkOffset;
+                    nextChunkOffset += 2 * mChunkSize * mChunkSize;
+                }
+            }
+        }
+        int spawnOffset = nextChunkOffset;
+
+        // The tiles that give off light or hold fluid, chunk by chunk.
+        int[] featureTable = new int[chunksX * chunksY + 1];
+        List<Integer> features = new ArrayList<Integer>();
+        for(int cy = 0; cy < chunksY; ++cy) {
+            for(int cx = 0; cx < chunksX; ++cx) {
+                featureTable[cy * chunksX + cx] = features.size() / 2;
+                for(int y = cy * mChunkSize; y < Math.min(mHeight, (cy + 1) * mChunkSize); ++y) {
+                    for(int x = cx * mChunkSize; x < Math.min(mWidth, (cx + 1) * mChunkSize); ++x) {
+                        TileType type = TileType.forColor(mColors[y * mWidth + x]);
+                        if(type.getLight() > 0 || type.isFluid()) {
+                            features.add(Integer.valueOf((y - cy * mChunkSize) * mChunkSize + x - cx * mChunkSize));
+                            features.add(Integer.valueOf(indices[y * mWidth + x]));
+                        }
+                    }
+                }
+            }
+        }
+        featureTable[chunksX * chunksY] = features.size() / 2;
+        int featureTableOffset = spawnOffset + LevelFile.SPAWN_SIZE * mSpawns.size();
+        int featureOffset = featureTableOffset + 4 * featureTable.length;
+        int size = featureOffset + LevelFile.FEATURE_SIZE * features.size() / 2;
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(LevelFile.MAGIC);
+        buffer.putInt(LevelFile.VERSION);
+        buffer.putInt(mWidth);
+        buffer.putInt(mHeight);
+        buffer.putInt(mChunkSize);
+        buffer.putInt(palette.size());
+        buffer.putInt(paletteOffset);
+        buffer.putInt(solidityOffset);
+        buffer.putInt(chunkTableOffset);
+        buffer.putInt(mSpawns.size());
+        buffer.putInt(spawnOffset);
+        buffer.putInt(featureTableOffset);
+
+        buffer.position(paletteOffset);
+        for(Integer color : palette) {
+            buffer.putInt(color.intValue());
+        }
+
+        buffer.position(solidityOffset);
+        solidity.write(buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer());
+
+        buffer.position(chunkTableOffset);
+        for(int entry : chunkTable) {
+            buffer.putInt(entry);
+        }
+
+        for(int cy = 0; cy < chunksY; ++cy) {
+            for(int cx = 0; cx < chunksX; ++cx) {
+                int entry = chunkTable[cy * chunksX + cx];
+                if(entry < 0) continue;
+                buffer.position(entry);
+                for(int row = 0; row < mChunkSize; ++row) {
+                    for(int column = 0; column < mChunkSize; ++column) {
+                        int x = cx * mChunkSize + column;
+                        int y = cy * mChunkSize + row;
+                        buffer.putShort(x < mWidth && y < mHeight ? indices[y * mWidth + x] : -1);
+                    }
+                }
+            }
+        }
+
+        buffer.position(spawnOffset);
+        for(float[] spawn : mSpawns) {
+            buffer.putInt((int) spawn[0]);
+            buffer.putFloat(spawn[1]);
+            buffer.putFloat(spawn[2]);
+        }
+
+        buffer.position(featureTableOffset);
+        for(int entry : featureTable) {
+            buffer.putInt(entry);
+        }
+        for(Integer feature : features) {
+            buffer.putShort(feature.shortValue());
+        }
+
+        out.write(buffer.array());
+    }
+
+    // The palette index that fills the whole chunk (ignoring the part outside the level), or -1 if it is mixed.
+    private int uniformIndex(short[] indices, int cx, int cy) {
+        int index = -1;
+        for(int y = cy * mChunkSize; y < Math.min(mHeight, (cy + 1) * mChunkSize); ++y) {
+            for(int x = cx * mChunkSize; x < Math.min(mWidth, (cx + 1) * mChunkSize); ++x) {
+                int tile = indices[y * mWidth + x];
+                if(index < 0) {
+                    index = tile;
+                } else if(index != tile) {
+                    return -1;
+                }
+            }
+        }
+        return index;
+    }
+
+    private static int align(int offset, int alignment) {
+        return (offset + alignment - 1) / alignment * alignment;
+    }
+}
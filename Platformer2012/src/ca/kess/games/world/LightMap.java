@@ -0,0 +1,314 @@
+package ca.kess.games.world;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ca.kess.games.Constants;
+
+import com.badlogic.gdx.graphics.Color;
+
+/**
+ * How brightly lit each tile of the level is, from 0 (only the ambient light) to MAX_LIGHT. Light spreads
+ * out from the tiles that give it off (see TileType.getLight), losing one level a tile, through tiles that
+ * don't block movement. Tiles that do block it are lit from their neighbours, so walls show up, but light
+ * doesn't go through them.
+ *
+ * Light can't reach further than MAX_LIGHT tiles, which is less than a chunk, so the light in a chunk only
+ * depends on the lights in it and the chunks around it, and on which tiles block light (the SolidityMap,
+ * which is always in memory). So the light is only kept for the chunks that are resident: it is worked out
+ * when a chunk is loaded, by flooding from the lights close enough to reach it, and dropped when the chunk
+ * is evicted. The lights themselves are kept as a short list for each chunk that has any, and are set up
+ * when the level loads from the chunk source's features, without reading the chunks.
+ *
+ * When a light is added or taken away, or a tile starts or stops blocking light (like a door), only the
+ * tiles close to it can change, so just those are worked out again. Each chunk has a version that goes up
+ * whenever the light in it changes, so anything that caches the tinted tiles knows to rebuild.
+ *
+ * Only use this from the game thread.
+ */
+public class LightMap {
+    /**
+     * The most light a tile can give off.
+     */
+    public static final int MAX_LIGHT = 15;
+
+    private static final int SIZE = Constants.CHUNK_SIZE;
+
+    // How bright each light level looks, and the vertex colour for it as a packed float.
+    private static final float[] BRIGHTNESS = new float[MAX_LIGHT + 1];
+    private static final float[] TINTS = new float[MAX_LIGHT + 1];
+    static {
+        for(int level = 0; level <= MAX_LIGHT; ++level) {
+            float brightness = Constants.AMBIENT_LIGHT + (1 - Constants.AMBIENT_LIGHT) * level / Constants.FULL_LIGHT;
+            BRIGHTNESS[level] = Math.min(1, brightness);
+            TINTS[level] = Color.toFloatBits(BRIGHTNESS[level], BRIGHTNESS[level], BRIGHTNESS[level], 1);
+        }
+    }
+
+    private final SolidityMap mSolidity;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mChunksX;
+    // The lights in each chunk, as (index of the tile in the chunk << 4) | level, or null if it has none.
+    private final int[][] mEmitters;
+    // The light of each resident chunk, row by row, or null if the chunk isn't resident.
+    private final byte[][] mLight;
+    private final int[] mChunkVersions;
+    // The light of chunks that have been evicted, to reuse.
+    private final List<byte[]> mFreeLight = new ArrayList<byte[]>();
+
+    // Scratch space for working out a window of the level: the light, and the light given off, of each tile.
+    private byte[] mWindow = new byte[0];
+    private byte[] mWindowEmission = new byte[0];
+    // Tiles waiting to spread their light, bucketed by how much light they have, brightest first.
+    private final int[][] mBuckets = new int[MAX_LIGHT + 1][16];
+    private final int[] mBucketSizes = new int[MAX_LIGHT + 1];
+
+    public LightMap(SolidityMap solidity) {
+        assert MAX_LIGHT < SIZE : "Light has to stay within the neighbouring chunks";
+        mSolidity = solidity;
+        mWidth = solidity.getWidth();
+        mHeight = solidity.getHeight();
+        mChunksX = (mWidth + SIZE - 1) / SIZE;
+        int chunks = mChunksX * ((mHeight + SIZE - 1) / SIZE);
+        mEmitters = new int[chunks][];
+        mLight = new byte[chunks][];
+        mChunkVersions = new int[chunks];
+    }
+
+    /**
+     * Set how much light the tile at x, y gives off, without working anything out. For setting up the lights
+     * while the level loads, before any chunks are resident.
+     */
+    public void setEmission(int x, int y, int level) {
+        if(!inLevel(x, y)) return;
+        level = Math.max(0, Math.min(MAX_LIGHT, level));
+        int chunk = (y / SIZE) * mChunksX + x / SIZE;
+        int index = (y % SIZE) * SIZE + x % SIZE;
+        int[] emitters = mEmitters[chunk];
+        int count = emitters == null ? 0 : emitters.length;
+        for(int i = 0; i < count; ++i) {
+            if(emitters[i] >> 4 != index) continue;
+            if(level > 0) {
+                emitters[i] = (index << 4) | level;
+            } else if(count == 1) {
+                mEmitters[chunk] = null;
+            } else {
+                emitters[i] = emitters[count - 1];
+                mEmitters[chunk] = Arrays.copyOf(emitters, count - 1);
+            }
+            return;
+        }
+        if(level > 0) {
+            emitters = emitters == null ? new int[1] : Arrays.copyOf(emitters, count + 1);
+            emitters[count] = (index << 4) | level;
+            mEmitters[chunk] = emitters;
+        }
+    }
+
+    /**
+     * Add, change or take away (with level 0) the light given off by the tile at x, y, and update the
+     * tiles around it.
+     */
+    public void setEmitter(int x, int y, int level) {
+        if(!inLevel(x, y)) return;
+        int old = getEmission(x, y);
+        setEmission(x, y, level);
+        if(getEmission(x, y) != old) {
+            update(x, y);
+        }
+    }
+
+    /**
+     * The tile at x, y has started or stopped blocking light, so update the tiles around it.
+     */
+    public void opacityChanged(int x, int y) {
+        if(!inLevel(x, y)) return;
+        update(x, y);
+    }
+
+    /**
+     * Work out the light of a chunk that has just been loaded.
+     */
+    public void chunkLoaded(int chunkX, int chunkY) {
+        int chunk = chunkY * mChunksX + chunkX;
+        if(mLight[chunk] == null) {
+            mLight[chunk] = mFreeLight.isEmpty() ? new byte[SIZE * SIZE] : mFreeLight.remove(mFreeLight.size() - 1);
+        }
+        recompute(chunkX * SIZE, chunkY * SIZE, chunkX * SIZE + SIZE - 1, chunkY * SIZE + SIZE - 1);
+        // Whatever was cached for the chunk went with it when it was evicted.
+        ++mChunkVersions[chunk];
+    }
+
+    /**
+     * Drop the light of a chunk that is being evicted.
+     */
+    public void chunkEvicted(int chunkX, int chunkY) {
+        int chunk = chunkY * mChunksX + chunkX;
+        if(mLight[chunk] != null) {
+            mFreeLight.add(mLight[chunk]);
+            mLight[chunk] = null;
+        }
+    }
+
+    /**
+     * The light level of the tile at x, y. Tiles outside of the level, or in chunks that aren't resident, are
+     * dark.
+     */
+    public int getLight(int x, int y) {
+        if(!inLevel(x, y)) return 0;
+        byte[] light = mLight[(y / SIZE) * mChunksX + x / SIZE];
+        return light == null ? 0 : light[(y % SIZE) * SIZE + x % SIZE];
+    }
+
+    /**
+     * How bright the tile at x, y looks, from Constants.AMBIENT_LIGHT to 1.
+     */
+    public float getBrightness(int x, int y) {
+        return BRIGHTNESS[getLight(x, y)];
+    }
+
+    /**
+     * The vertex colour to tint the tile at x, y with, as a packed float.
+     */
+    public float getTint(int x, int y) {
+        return TINTS[getLight(x, y)];
+    }
+
+    /**
+     * Goes up each time the light in the chunk at chunkX, chunkY changes.
+     */
+    public int getVersion(int chunkX, int chunkY) {
+        return mChunkVersions[chunkY * mChunksX + chunkX];
+    }
+
+    private boolean inLevel(int x, int y) {
+        return x >= 0 && x < mWidth && y >= 0 && y < mHeight;
+    }
+
+    private int getEmission(int x, int y) {
+        int[] emitters = mEmitters[(y / SIZE) * mChunksX + x / SIZE];
+        if(emitters == null) return 0;
+        int index = (y % SIZE) * SIZE + x % SIZE;
+        for(int emitter : emitters) {
+            if(emitter >> 4 == index) return emitter & 0xF;
+        }
+        return 0;
+    }
+
+    // Something changed at x, y. Nothing further away than the furthest a light reaches can be affected.
+    private void update(int x, int y) {
+        int x0 = Math.max(0, x - MAX_LIGHT);
+        int y0 = Math.max(0, y - MAX_LIGHT);
+        int x1 = Math.min(mWidth - 1, x + MAX_LIGHT);
+        int y1 = Math.min(mHeight - 1, y + MAX_LIGHT);
+        // Only the resident chunks have any light to work out.
+        for(int cy = y0 / SIZE; cy <= y1 / SIZE; ++cy) {
+            for(int cx = x0 / SIZE; cx <= x1 / SIZE; ++cx) {
+                if(mLight[cy * mChunksX + cx] == null) continue;
+                recompute(Math.max(x0, cx * SIZE), Math.max(y0, cy * SIZE),
+                        Math.min(x1, cx * SIZE + SIZE - 1), Math.min(y1, cy * SIZE + SIZE - 1));
+            }
+        }
+    }
+
+    // Work out the light of the tiles x0..x1, y0..y1 (inclusive), which are all in one resident chunk, again.
+    // Only lights that are close enough to reach them matter, and the paths light takes from them to the
+    // tiles can't go any further out than that either, so the flood is done over a window that much bigger.
+    private void recompute(int x0, int y0, int x1, int y1) {
+        x1 = Math.min(mWidth - 1, x1);
+        y1 = Math.min(mHeight - 1, y1);
+        int left = Math.max(0, x0 - MAX_LIGHT);
+        int bottom = Math.max(0, y0 - MAX_LIGHT);
+        int right = Math.min(mWidth - 1, x1 + MAX_LIGHT);
+        int top = Math.min(mHeight - 1, y1 + MAX_LIGHT);
+        int width = right - left + 1;
+        int height = top - bottom + 1;
+        if(mWindow.length < width * height) {
+            mWindow = new byte[width * height];
+            mWindowEmission = new byte[width * height];
+        }
+        byte[] window = mWindow;
+        byte[] emission = mWindowEmission;
+        Arrays.fill(window, 0, width * height, (byte) 0);
+        Arrays.fill(emission, 0, width * height, (byte) 0);
+
+        // Start from the lights of every chunk the window touches.
+        for(int cy = bottom / SIZE; cy <= top / SIZE; ++cy) {
+            for(int cx = left / SIZE; cx <= right / SIZE; ++cx) {
+                int[] emitters = mEmitters[cy * mChunksX + cx];
+                if(emitters == null) continue;
+                for(int emitter : emitters) {
+                    int x = cx * SIZE + (emitter >> 4) % SIZE - left;
+                    int y = cy * SIZE + (emitter >> 4) / SIZE - bottom;
+                    if(x < 0 || x >= width || y < 0 || y >= height) continue;
+                    int level = emitter & 0xF;
+                    window[y * width + x] = (byte) level;
+                    emission[y * width + x] = (byte) level;
+                    push(level, y * width + x);
+                }
+            }
+        }
+        // A tile's light is final once its bucket comes up, since every later bucket is darker.
+        for(int level = MAX_LIGHT; level > 1; --level) {
+            int[] bucket = mBuckets[level];
+            for(int i = 0; i < mBucketSizes[level]; ++i) {
+                int cell = bucket[i];
+                if(window[cell] != level) continue;
+                int x = cell % width;
+                int y = cell / width;
+                // Tiles that block light are lit, but don't pass it on, unless they are the light.
+                if(emission[cell] == 0 && mSolidity.isSolid(left + x, bottom + y)) continue;
+                int spread = level - 1;
+                if(x > 0 && window[cell - 1] < spread) {
+                    window[cell - 1] = (byte) spread;
+                    push(spread, cell - 1);
+                }
+                if(x < width - 1 && window[cell + 1] < spread) {
+                    window[cell + 1] = (byte) spread;
+                    push(spread, cell + 1);
+                }
+                if(y > 0 && window[cell - width] < spread) {
+                    window[cell - width] = (byte) spread;
+                    push(spread, cell - width);
+                }
+                if(y < height - 1 && window[cell + width] < spread) {
+                    window[cell + width] = (byte) spread;
+                    push(spread, cell + width);
+                }
+            }
+            mBucketSizes[level] = 0;
+        }
+        mBucketSizes[1] = 0;
+
+        // Copy back the part that was asked for.
+        int chunk = (y0 / SIZE) * mChunksX + x0 / SIZE;
+        byte[] light = mLight[chunk];
+        boolean changed = false;
+        for(int y = y0; y <= y1; ++y) {
+            int row = (y - bottom) * width - left;
+            int chunkRow = (y % SIZE) * SIZE;
+            for(int x = x0; x <= x1; ++x) {
+                byte level = window[row + x];
+                if(light[chunkRow + x % SIZE] != level) {
+                    light[chunkRow + x % SIZE] = level;
+                    changed = true;
+                }
+            }
+        }
+        if(changed) {
+            ++mChunkVersions[chunk];
+        }
+    }
+
+    private void push(int level, int cell) {
+        int[] bucket = mBuckets[level];
+        if(mBucketSizes[level] == bucket.length) {
+            int[] grown = new int[bucket.length * 2];
+            System.arraycopy(bucket, 0, grown, 0, bucket.length);
+            mBuckets[level] = bucket = grown;
+        }
+        bucket[mBucketSizes[level]++] = cell;
+    }
+}
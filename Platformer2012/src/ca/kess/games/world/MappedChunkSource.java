@@ -0,0 +1,79 @@
+package ca.kess.games.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import ca.kess.games.Constants;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+
+/**
+ * Reads a level from a compiled level file (see LevelFile). Chunks are read straight out of the memory
+ * mapped file when they are needed, so opening a level only costs reading the header and the solidity map.
+ */
+public class MappedChunkSource implements ChunkSource {
+    private final LevelFile mFile;
+    // The tile id for each palette entry.
+    private final short[] mPaletteIds;
+
+    public MappedChunkSource(FileHandle handle, TileSet tileSet) {
+        try {
+            File file = handle.file();
+            if(file.exists()) {
+                mFile = LevelFile.open(file);
+            } else {
+                // Packaged files (like Android assets) can't be mapped, so read them into memory instead.
+                mFile = new LevelFile(ByteBuffer.wrap(handle.readBytes()));
+            }
+        } catch(IOException e) {
+            throw new GdxRuntimeException("Couldn't open level " + handle, e);
+        }
+        if(mFile.getChunkSize() != Constants.CHUNK_SIZE) {
+            throw new GdxRuntimeException("Level " + handle + " has chunk size " + mFile.getChunkSize() + ", expected " + Constants.CHUNK_SIZE);
+        }
+
+        mPaletteIds = new short[mFile.getPaletteSize()];
+        for(int i = 0; i < mPaletteIds.length; ++i) {
+            mPaletteIds[i] = tileSet.getId(mFile.getPaletteColor(i));
+        }
+    }
+
+    public LevelFile getLevelFile() { return mFile; }
+
+    @Override
+    public int getWidth() { return mFile.getWidth(); }
+
+    @Override
+    public int getHeight() { return mFile.getHeight(); }
+
+    @Override
+    public void readSolidity(SolidityMap out) {
+        mFile.readSolidity(out);
+    }
+
+    @Override
+    public void readChunk(int chunkX, int chunkY, short[] out) {
+        mFile.readChunk(chunkX, chunkY, out);
+        for(int i = 0; i < out.length; ++i) {
+            if(out[i] >= 0) {
+                out[i] = mPaletteIds[out[i]];
+            }
+        }
+    }
+
+    @Override
+    public void readFeatures(int chunkX, int chunkY, IntArray out) {
+        int start = out.size;
+        mFile.readFeatures(chunkX, chunkY, out);
+        for(int i = start + 1; i < out.size; i += 2) {
+            out.set(i, mPaletteIds[out.get(i)]);
+        }
+    }
+
+    @Override
+    public void dispose() {
+    }
+}
@@ -0,0 +1,167 @@
+package ca.kess.games.world;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import ca.kess.games.Constants;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.IntArray;
+
+/**
+ * Reads a level from an image, where each pixel is a tile and its colour says which tile it is.
+ *
+ * Images can't be read a piece at a time, so the whole image is decoded up front and kept as tile ids. Big
+ * maps take a while to decode, so the image is split into bands of rows which are decoded on every core.
+ */
+public class PixmapChunkSource implements ChunkSource {
+    // How many bands to split the image into for each core, so that a slow band doesn't hold everything up.
+    private static final int BANDS_PER_THREAD = 4;
+
+    private final int mWidth;
+    private final int mHeight;
+    // Tile ids, row by row, with the bottom row first.
+    private final short[] mTileIds;
+    private final TileSet mTileSet;
+
+    public PixmapChunkSource(FileHandle file, TileSet tileSet) {
+        mTileSet = tileSet;
+        Pixmap pixmap = new Pixmap(file);
+        mWidth = pixmap.getWidth();
+        mHeight = pixmap.getHeight();
+        mTileIds = new short[mWidth * mHeight];
+        LevelValidationReport report;
+        try {
+            report = decode(pixmap);
+        } finally {
+            pixmap.dispose();
+        }
+        if(!report.isValid()) {
+            // Unknown tiles are left empty, so the level still loads.
+            Gdx.app.error(Constants.LOG, "Problems with level " + file + ": " + report);
+        }
+    }
+
+    // Decode the image into mTileIds, a band of rows per task, and report any colours that aren't tiles.
+    private LevelValidationReport decode(final Pixmap pixmap) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int bands = Math.min(mHeight, threads * BANDS_PER_THREAD);
+        List<Callable<LevelValidationReport>> tasks = new ArrayList<Callable<LevelValidationReport>>(bands);
+        for(int band = 0; band < bands; ++band) {
+            final int y0 = (int) ((long) mHeight * band / bands);
+            final int y1 = (int) ((long) mHeight * (band + 1) / bands);
+            tasks.add(new Callable<LevelValidationReport>() {
+                @Override
+                public LevelValidationReport call() {
+                    return decodeRows(pixmap, y0, y1);
+                }
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "LevelDecoder");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        LevelValidationReport report = new LevelValidationReport();
+        try {
+            // Collect the reports in band order, so the report reads top to bottom.
+            for(Future<LevelValidationReport> result : executor.invokeAll(tasks)) {
+                report.addAll(result.get());
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GdxRuntimeException("Interrupted while decoding level", e);
+        } catch(ExecutionException e) {
+            throw new GdxRuntimeException("Couldn't decode level", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        return report;
+    }
+
+    // Decode image rows y0 (inclusive) to y1 (exclusive). Each band writes its own rows of mTileIds, so bands
+    // can run at the same time. Reading pixels and looking up ids don't change anything, so they are safe too.
+    private LevelValidationReport decodeRows(Pixmap pixmap, int y0, int y1) {
+        LevelValidationReport report = new LevelValidationReport();
+        for(int y = y0; y < y1; ++y) {
+            // Images are stored top row first, but the world has y going up.
+            int row = (mHeight - y - 1) * mWidth;
+            for(int x = 0; x < mWidth; ++x) {
+                int pixelColor = pixmap.getPixel(x, y) >>> 8; //signed shift
+                short id = mTileSet.getId(pixelColor);
+                if(id < 0) {
+                    report.addUnknownColor(pixelColor, x, y);
+                }
+                mTileIds[row + x] = id;
+            }
+        }
+        return report;
+    }
+
+    @Override
+    public int getWidth() { return mWidth; }
+
+    @Override
+    public int getHeight() { return mHeight; }
+
+    @Override
+    public void readSolidity(SolidityMap out) {
+        for(int y = 0; y < mHeight; ++y) {
+            for(int x = 0; x < mWidth; ++x) {
+                Tile tile = mTileSet.getTile(mTileIds[y * mWidth + x]);
+                out.setSolid(x, y, tile != null && tile.blocksMovement());
+            }
+        }
+    }
+
+    @Override
+    public void readChunk(int chunkX, int chunkY, short[] out) {
+        int size = Constants.CHUNK_SIZE;
+        int x0 = chunkX * size;
+        int y0 = chunkY * size;
+        for(int row = 0; row < size; ++row) {
+            int y = y0 + row;
+            int columns = Math.max(0, Math.min(size, mWidth - x0));
+            if(y < mHeight) {
+                System.arraycopy(mTileIds, y * mWidth + x0, out, row * size, columns);
+            } else {
+                columns = 0;
+            }
+            for(int column = columns; column < size; ++column) {
+                out[row * size + column] = -1;
+            }
+        }
+    }
+
+    @Override
+    public void readFeatures(int chunkX, int chunkY, IntArray out) {
+        int size = Constants.CHUNK_SIZE;
+        for(int y = chunkY * size; y < Math.min(mHeight, (chunkY + 1) * size); ++y) {
+            for(int x = chunkX * size; x < Math.min(mWidth, (chunkX + 1) * size); ++x) {
+                short id = mTileIds[y * mWidth + x];
+                Tile tile = mTileSet.getTile(id);
+                if(tile != null && tile.getType() != null && (tile.getType().getLight() > 0 || tile.isFluid())) {
+                    out.add((y - chunkY * size) * size + x - chunkX * size);
+                    out.add(id);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void dispose() {
+    }
+}
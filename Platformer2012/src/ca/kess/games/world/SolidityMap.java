@@ -0,0 +1,148 @@
+package ca.kess.games.world;
+
+import java.nio.LongBuffer;
+
+/**
+ * One bit per tile, saying whether the tile blocks movement. This is what the collision code looks at, so
+ * that sweeping an entity through the world doesn't have to touch the tiles themselves.
+ *
+ * Bits are stored row by row, with each row padded out to a whole number of longs. A second copy is kept
+ * column by column, so that sweeps in either direction can test 64 tiles at a time.
+ */
+public class SolidityMap {
+    private final int mWidth;
+    private final int mHeight;
+    private final int mWordsPerRow;
+    private final long[] mBits;
+    // The same bits, column by column, with bit y % 64 of word y / 64 set if tile y in the column is solid.
+    private final int mWordsPerColumn;
+    private final long[] mColumnBits;
+
+    public SolidityMap(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mWordsPerRow = (width + 63) >>> 6;
+        mBits = new long[mWordsPerRow * height];
+        mWordsPerColumn = (height + 63) >>> 6;
+        mColumnBits = new long[mWordsPerColumn * width];
+    }
+
+    /**
+     * A copy of another map, that can be changed without changing it.
+     */
+    public SolidityMap(SolidityMap other) {
+        mWidth = other.mWidth;
+        mHeight = other.mHeight;
+        mWordsPerRow = other.mWordsPerRow;
+        mBits = other.mBits.clone();
+        mWordsPerColumn = other.mWordsPerColumn;
+        mColumnBits = other.mColumnBits.clone();
+    }
+
+    public int getWidth() { return mWidth; }
+    public int getHeight() { return mHeight; }
+
+    /**
+     * Whether the tile blocks movement. Tiles outside of the map never do.
+     */
+    public boolean isSolid(int x, int y) {
+        if(x < 0 || x >= mWidth || y < 0 || y >= mHeight) return false;
+        return (mBits[y * mWordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+    }
+
+    /**
+     * Read the whole map from the buffer, in the same layout that write() uses.
+     */
+    public void read(LongBuffer in) {
+        in.get(mBits);
+        for(int i = 0; i < mColumnBits.length; ++i) {
+            mColumnBits[i] = 0;
+        }
+        for(int y = 0; y < mHeight; ++y) {
+            for(int x = 0; x < mWidth; ++x) {
+                if(isSolid(x, y)) {
+                    mColumnBits[x * mWordsPerColumn + (y >>> 6)] |= 1L << y;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the whole map to the buffer: height rows of ceil(width / 64) longs, with bit x % 64 of word
+     * x / 64 set if tile x in the row is solid.
+     */
+    public void write(LongBuffer out) {
+        out.put(mBits);
+    }
+
+    /**
+     * How many longs read() and write() use.
+     */
+    public int getWordCount() {
+        return mBits.length;
+    }
+
+    public void setSolid(int x, int y, boolean solid) {
+        assert x >= 0 && x < mWidth && y >= 0 && y < mHeight : "Tile " + x + ", " + y + " is outside the map";
+        int word = y * mWordsPerRow + (x >>> 6);
+        int columnWord = x * mWordsPerColumn + (y >>> 6);
+        if(solid) {
+            mBits[word] |= 1L << x;
+            mColumnBits[columnWord] |= 1L << y;
+        } else {
+            mBits[word] &= ~(1L << x);
+            mColumnBits[columnWord] &= ~(1L << y);
+        }
+    }
+
+    /**
+     * Find the leftmost (or rightmost) column between x0 and x1 that has a solid tile somewhere between rows
+     * y0 and y1. All bounds are inclusive.
+     * @return The column, or -1 if none of the tiles are solid.
+     */
+    public int findSolidColumn(int x0, int x1, int y0, int y1, boolean rightmost) {
+        x0 = Math.max(x0, 0);
+        x1 = Math.min(x1, mWidth - 1);
+        y0 = Math.max(y0, 0);
+        y1 = Math.min(y1, mHeight - 1);
+        if(x0 > x1 || y0 > y1) return -1;
+        return findInSpan(mBits, mWordsPerRow, y0, y1, x0, x1, rightmost);
+    }
+
+    /**
+     * Find the bottom (or top) row between y0 and y1 that has a solid tile somewhere between columns x0 and
+     * x1. All bounds are inclusive.
+     * @return The row, or -1 if none of the tiles are solid.
+     */
+    public int findSolidRow(int x0, int x1, int y0, int y1, boolean top) {
+        x0 = Math.max(x0, 0);
+        x1 = Math.min(x1, mWidth - 1);
+        y0 = Math.max(y0, 0);
+        y1 = Math.min(y1, mHeight - 1);
+        if(x0 > x1 || y0 > y1) return -1;
+        return findInSpan(mColumnBits, mWordsPerColumn, x0, x1, y0, y1, top);
+    }
+
+    // ORs bits bit0..bit1 of lines line0..line1 together a word at a time, and returns the lowest (or highest)
+    // bit that is set, starting from the end we are looking for so we can stop at the first hit.
+    private static int findInSpan(long[] bits, int wordsPerLine, int line0, int line1, int bit0, int bit1, boolean highest) {
+        int word0 = bit0 >>> 6;
+        int word1 = bit1 >>> 6;
+        int words = word1 - word0 + 1;
+        for(int i = 0; i < words; ++i) {
+            int word = highest ? word1 - i : word0 + i;
+            long mask = -1L;
+            if(word == word0) mask &= -1L << bit0;
+            if(word == word1) mask &= -1L >>> (63 - (bit1 & 63));
+            long hits = 0;
+            for(int line = line0; line <= line1; ++line) {
+                hits |= bits[line * wordsPerLine + word];
+            }
+            hits &= mask;
+            if(hits != 0) {
+                return (word << 6) + (highest ? 63 - Long.numberOfLeadingZeros(hits) : Long.numberOfTrailingZeros(hits));
+            }
+        }
+        return -1;
+    }
+}
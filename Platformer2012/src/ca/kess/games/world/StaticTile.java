@@ -9,10 +9,19 @@ public class StaticTile extends Tile {
         super(blocksMovement, staticFriction, kineticFriction);
         mTextureRegion = textureRegion;
     }
+    public StaticTile(TextureRegion textureRegion, TileType type) {
+        super(type);
+        mTextureRegion = textureRegion;
+    }
+    // NOTE: Chunks that are already cached keep drawing the old region.
     public void setTextureRegion(TextureRegion textureRegion) {
         mTextureRegion = textureRegion;
     }
     @Override
+    public TextureRegion getStaticRegion() {
+        return mTextureRegion;
+    }
+    @Override
     public void render(SpriteBatch b, int x, int y) {
         b.draw(mTextureRegion, x, y, 0, 0, 1, 1, 1, 1, 0);
     }
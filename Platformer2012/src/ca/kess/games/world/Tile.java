@@ -2,33 +2,65 @@ package ca.kess.games.world;
 
 import ca.kess.games.Constants;
 import ca.kess.games.entities.PhysicalEntity;
-import ca.kess.games.interfaces.IUpdateable;
 
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
 
-public abstract class Tile implements IUpdateable {
+public abstract class Tile {
+    private final TileType mType;
     private boolean mBlocksMovement;
     private float mStaticFriction;
     private float mKineticFriction;
     Tile(boolean blocksMovement, float staticFriction, float kineticFriction) {
+        mType = null;
         mBlocksMovement = blocksMovement;
         mStaticFriction = staticFriction;
         mKineticFriction = kineticFriction;
     }
+    Tile(TileType type) {
+        mType = type;
+        mBlocksMovement = type.blocksMovement();
+        mStaticFriction = type.getStaticFriction();
+        mKineticFriction = type.getKineticFriction();
+    }
+
+    // The kind of tile this is, or null if it isn't one that can be placed in a map.
+    public TileType getType() { return mType; }
     
     public abstract void render(SpriteBatch b, int x, int y);
+
+    // The image to bake into the level's tile cache (see ChunkTileCache), or null if the tile looks different
+    // from frame to frame and has to be drawn with render() every frame.
+    public TextureRegion getStaticRegion() { return null; }
     
     public boolean blocksMovement() { return mBlocksMovement; }
+    public float getStaticFriction() { return mStaticFriction; }
+    public float getKineticFriction() { return mKineticFriction; }
+    public boolean isFluid() { return mType != null && mType.isFluid(); }
     public void setBlocksMovement(boolean blocksMovement) {
         mBlocksMovement = blocksMovement;
     }
-    
-    public boolean onInteraction(PhysicalEntity entity) {
+
+    /**
+     * PER CELL STATE
+     *
+     * A tile is shared by every cell that uses it, so tiles that change (like doors) keep their state in the
+     * level's TileStateMap rather than in fields. These are the versions of the methods above that take that
+     * state into account. Tiles without state can ignore it - it will always be 0.
+     */
+    // Whether the tile has any state, and so whether it is worth looking up.
+    public boolean hasState() { return false; }
+
+    public boolean blocksMovement(int state) { return blocksMovement(); }
+
+    public void render(SpriteBatch b, int x, int y, int state) {
+        render(b, x, y);
+    }
+
+    // Called when an entity interacts with the tile at x, y. Any change should only be made to states.
+    public boolean onInteraction(PhysicalEntity entity, TileStateMap states, int x, int y) {
         Gdx.app.log(Constants.LOG, "Tile::onInteraction");
         return false;
     }
-    
-    @Override
-    public void update() { }
 }
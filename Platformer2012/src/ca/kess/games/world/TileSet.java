@@ -1,64 +1,110 @@
 package ca.kess.games.world;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import ca.kess.games.graphics.GraphicsCache;
 import ca.kess.games.interfaces.IUpdateable;
 
 import com.badlogic.gdx.graphics.g2d.Animation;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
 
+/**
+ * The set of tiles used by a level. Every tile gets a small integer id, and the level stores those ids
+ * rather than references to the tiles. Each tile is shared by every cell that uses it; tiles that change
+ * (like doors) keep their per cell state in the level's TileStateMap.
+ */
 public class TileSet implements IUpdateable {
-    //Map of the static tiles
-	private Map<Integer, Tile> mTileCache = new HashMap<Integer, Tile>();
-	private List<Tile> mInstanceTiles = new ArrayList<Tile>();
+    // Id of the tile for each map colour.
+    private Map<Integer, Short> mTileCache = new HashMap<Integer, Short>();
+    // Every tile, indexed by its id.
+    private Tile[] mPalette = new Tile[16];
+    private int mPaletteSize = 0;
+    // Drives every animated tile in the set.
+    private final AnimationClock mAnimationClock = new AnimationClock();
 	public TileSet() {
-	    
-	    Animation torchAnimation = new Animation(.7f, GraphicsCache.getEnvironment(1,0), GraphicsCache.getEnvironment(2,0));
-        Animation lavaAnimation = new Animation(1.2f, GraphicsCache.getEnvironment(0,7), GraphicsCache.getEnvironment(0,8));
-        Animation waterAnimation = new Animation(.5f, GraphicsCache.getEnvironment(2,7), GraphicsCache.getEnvironment(2,8));
-        
+	    this(true);
+	}
+
+	/**
+	 * Make a tile set with the same tiles and ids as the game's, but no textures, for tools that read or run
+	 * levels without a GL context to load the textures with. Its tiles can't be drawn.
+	 */
+	public static TileSet withoutGraphics() {
+	    return new TileSet(false);
+	}
+
+	private TileSet(boolean graphics) {
+
+	    int torchAnimation = mAnimationClock.register(new Animation(.7f, environment(graphics, 1, 0), environment(graphics, 2, 0)));
+        int lavaAnimation = mAnimationClock.register(new Animation(1.2f, environment(graphics, 0, 7), environment(graphics, 0, 8)));
+        int waterAnimation = mAnimationClock.register(new Animation(.5f, environment(graphics, 2, 7), environment(graphics, 2, 8)));
+        int doorClosedAnimation = mAnimationClock.register(new Animation(1f, environment(graphics, 0, 13)));
+        int doorOpenAnimation = mAnimationClock.register(new Animation(1f, environment(graphics, 1, 13)));
+
 	    //Ground
-		mTileCache.put(Integer.valueOf(0x000000), new StaticTile(GraphicsCache.getEnvironment(0, 0), true, 1.0f, 1.0f));
+		addStatic(TileType.GROUND, new StaticTile(environment(graphics, 0, 0), TileType.GROUND));
 		//Air
-		mTileCache.put(Integer.valueOf(0xFFFFFF), new StaticTile(GraphicsCache.getEnvironment(0, 5), false, 1.0f, 1.0f));
+		addStatic(TileType.AIR, new StaticTile(environment(graphics, 0, 5), TileType.AIR));
 		//Water
-		mTileCache.put(Integer.valueOf(0x0000FF), new AnimatedTile(waterAnimation, false, 1.0f, 1.0f));
+		addStatic(TileType.WATER, new AnimatedTile(mAnimationClock, waterAnimation, TileType.WATER));
 		//Lava
-		mTileCache.put(Integer.valueOf(0xFF0000), new AnimatedTile(lavaAnimation, false, 1.0f, 1.0f));
+		addStatic(TileType.LAVA, new AnimatedTile(mAnimationClock, lavaAnimation, TileType.LAVA));
 		//Grass
-		mTileCache.put(Integer.valueOf(0x00FF00), new StaticTile(GraphicsCache.getEnvironment(6, 4), true, 1.0f, 1.0f));
+		addStatic(TileType.GRASS, new StaticTile(environment(graphics, 6, 4), TileType.GRASS));
 		//Torch
-		mTileCache.put(Integer.valueOf(0xFFFF00), new AnimatedTile(torchAnimation, true, 1.0f, 1.0f));
+		addStatic(TileType.TORCH, new AnimatedTile(mAnimationClock, torchAnimation, TileType.TORCH));
 		//Door
-		
-		
+		addStatic(TileType.DOOR, new DoorTile(mAnimationClock, doorClosedAnimation, doorOpenAnimation, TileType.DOOR));
+
+	}
+
+	// The environment sprite at x, y, or null in a set without graphics.
+	private static TextureRegion environment(boolean graphics, int x, int y) {
+	    return graphics ? GraphicsCache.getEnvironment(x, y) : null;
+	}
+
+	private void addStatic(TileType type, Tile tile) {
+	    mTileCache.put(Integer.valueOf(type.getColor()), Short.valueOf(addToPalette(tile)));
 	}
 
+	private short addToPalette(Tile tile) {
+	    assert mPaletteSize <= Short.MAX_VALUE : "Too many tiles in the tile set";
+	    if(mPaletteSize == mPalette.length) {
+	        Tile[] grown = new Tile[mPaletteSize * 2];
+	        System.arraycopy(mPalette, 0, grown, 0, mPaletteSize);
+	        mPalette = grown;
+	    }
+	    mPalette[mPaletteSize] = tile;
+	    return (short) mPaletteSize++;
+	}
+
+	// Tiles don't update themselves, so all there is to do is move the animation clock on.
 	@Override
 	public void update() {
-	    for(Tile tile : mTileCache.values()) {
-	        tile.update();
-	    }
-	    for(Tile tile : mInstanceTiles) {
-	        tile.update();
-	    }
+	    mAnimationClock.update();
 	}
-    private Animation mDoorClosedAnimation = new Animation(1f, GraphicsCache.getEnvironment(0,  13));
-    private Animation mDoorOpenAnimation = new Animation(1f, GraphicsCache.getEnvironment(1,  13));
-	public Tile get(int color) {
-		Tile tile = mTileCache.get(Integer.valueOf(color));
-		if(tile != null)
-		    return tile;
-		
-		if(color == 0xFF8000) {
-		    tile = new DoorTile(mDoorClosedAnimation, mDoorOpenAnimation, 1.0f, 1.0f);
-		    mInstanceTiles.add(tile);
-		    return tile;
-		    
-		}
-		return null;
+
+	public AnimationClock getAnimationClock() { return mAnimationClock; }
+
+    /**
+     * Get the id of the tile for a map colour, or -1 if the colour isn't a tile.
+     *
+     * This can be called from the chunk loading thread. The set doesn't change after it is made, so that is
+     * safe.
+     */
+	public short getId(int color) {
+		Short id = mTileCache.get(Integer.valueOf(color));
+		if(id != null)
+		    return id.shortValue();
+		return -1;
+	}
+
+	/**
+	 * Get the tile with the given id, or null if there isn't one.
+	 */
+	public Tile getTile(int id) {
+	    if(id < 0 || id >= mPaletteSize) return null;
+	    return mPalette[id];
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,123 @@
+package ca.kess.games.world;
+
+/**
+ * The state of the tiles in a level that have some (like whether a door is open), by position. Tiles are
+ * shared by every cell that uses them, so this is where anything that differs from cell to cell lives.
+ *
+ * States are small ints, and 0 is the state every tile starts in. Only cells that aren't in state 0 are
+ * stored, in an open addressing hash table of plain ints, so a level can have any number of doors and
+ * switches and only pay for the ones that have been used.
+ */
+public class TileStateMap {
+    private static final int EMPTY = -1;
+
+    private final int mWidth;
+    private final int mHeight;
+    // Cell (y * width + x) in each slot, or EMPTY.
+    private int[] mKeys;
+    private int[] mValues;
+    private int mMask;
+    private int mSize = 0;
+
+    public TileStateMap(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        allocate(16);
+    }
+
+    /**
+     * The state of the tile at x, y. Tiles that have never been changed (and tiles outside the level) are in
+     * state 0.
+     */
+    public int get(int x, int y) {
+        if(x < 0 || x >= mWidth || y < 0 || y >= mHeight) return 0;
+        int cell = y * mWidth + x;
+        for(int slot = slotFor(cell); mKeys[slot] != EMPTY; slot = (slot + 1) & mMask) {
+            if(mKeys[slot] == cell) return mValues[slot];
+        }
+        return 0;
+    }
+
+    public void put(int x, int y, int state) {
+        assert x >= 0 && x < mWidth && y >= 0 && y < mHeight : "Tile " + x + ", " + y + " is outside the level";
+        int cell = y * mWidth + x;
+        int slot = slotFor(cell);
+        while(mKeys[slot] != EMPTY && mKeys[slot] != cell) {
+            slot = (slot + 1) & mMask;
+        }
+        if(mKeys[slot] == cell) {
+            if(state == 0) {
+                remove(slot);
+            } else {
+                mValues[slot] = state;
+            }
+        } else if(state != 0) {
+            mKeys[slot] = cell;
+            mValues[slot] = state;
+            if(++mSize * 4 > mKeys.length * 3) {
+                grow();
+            }
+        }
+    }
+
+    /**
+     * How many tiles aren't in state 0.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public void clear() {
+        for(int i = 0; i < mKeys.length; ++i) {
+            mKeys[i] = EMPTY;
+        }
+        mSize = 0;
+    }
+
+    private int slotFor(int cell) {
+        int hash = cell * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mMask;
+    }
+
+    // Empty the slot, then move back any entries after it that would no longer be found past the gap.
+    private void remove(int slot) {
+        mKeys[slot] = EMPTY;
+        --mSize;
+        int gap = slot;
+        for(int next = (gap + 1) & mMask; mKeys[next] != EMPTY; next = (next + 1) & mMask) {
+            int home = slotFor(mKeys[next]);
+            // Entries whose home is between the gap and where they are can stay.
+            boolean stays = gap <= next ? (gap < home && home <= next) : (gap < home || home <= next);
+            if(!stays) {
+                mKeys[gap] = mKeys[next];
+                mValues[gap] = mValues[next];
+                mKeys[next] = EMPTY;
+                gap = next;
+            }
+        }
+    }
+
+    private void grow() {
+        int[] keys = mKeys;
+        int[] values = mValues;
+        allocate(keys.length * 2);
+        for(int i = 0; i < keys.length; ++i) {
+            if(keys[i] == EMPTY) continue;
+            int slot = slotFor(keys[i]);
+            while(mKeys[slot] != EMPTY) {
+                slot = (slot + 1) & mMask;
+            }
+            mKeys[slot] = keys[i];
+            mValues[slot] = values[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new int[capacity];
+        mValues = new int[capacity];
+        mMask = capacity - 1;
+        for(int i = 0; i < capacity; ++i) {
+            mKeys[i] = EMPTY;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package ca.kess.games.world;
+
+/**
+ * The kinds of tile that a level can be built from, and the colour that each one has in a map image.
+ *
+ * These only describe how a tile behaves, not how it looks, so they can be used without any graphics (for
+ * example by the level compiler). TileSet builds the tiles that get drawn from these.
+ */
+public enum TileType {
+    //     colour    solid  static kinetic hazard fluid  light
+    GROUND(0x000000, true,  1.0f,  0.8f,   false, false, 0),
+    AIR(   0xFFFFFF, false, 0.0f,  0.0f,   false, false, 0),
+    WATER( 0x0000FF, false, 0.0f,  0.0f,   false, true,  0),
+    LAVA(  0xFF0000, false, 0.0f,  0.0f,   true,  true,  0),
+    GRASS( 0x00FF00, true,  1.0f,  0.8f,   false, false, 0),
+    TORCH( 0xFFFF00, true,  1.0f,  0.8f,   false, false, 8),
+    DOOR(  0xFF8000, true,  1.0f,  0.8f,   false, false, 0),
+    ;
+
+    private final int mColor;
+    private final boolean mBlocksMovement;
+    private final float mStaticFriction;
+    private final float mKineticFriction;
+    private final boolean mHazard;
+    private final boolean mFluid;
+    private final int mLight;
+
+    private TileType(int color, boolean blocksMovement, float staticFriction, float kineticFriction, boolean hazard, boolean fluid, int light) {
+        mColor = color;
+        mBlocksMovement = blocksMovement;
+        mStaticFriction = staticFriction;
+        mKineticFriction = kineticFriction;
+        mHazard = hazard;
+        mFluid = fluid;
+        mLight = light;
+    }
+
+    // The colour of the tile in a map image, as 0xRRGGBB.
+    public int getColor() { return mColor; }
+    // Whether the tile blocks movement when the level is loaded. Some tiles (like doors) can change this later.
+    public boolean blocksMovement() { return mBlocksMovement; }
+    public float getStaticFriction() { return mStaticFriction; }
+    // The friction of the tile's surface, for things standing on it. Only matters for solid tiles.
+    public float getKineticFriction() { return mKineticFriction; }
+    // Whether the tile hurts things that touch it.
+    public boolean isHazard() { return mHazard; }
+    // Whether things can swim in the tile.
+    public boolean isFluid() { return mFluid; }
+    // How much light the tile gives off, from 0 to LightMap.MAX_LIGHT. Light drops by one a tile.
+    public int getLight() { return mLight; }
+
+    /**
+     * Get the tile type for a map colour (0xRRGGBB), or null if the colour isn't a tile.
+     */
+    public static TileType forColor(int color) {
+        for(TileType type : values()) {
+            if(type.mColor == color) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
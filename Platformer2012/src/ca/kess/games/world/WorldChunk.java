@@ -0,0 +1,68 @@
+package ca.kess.games.world;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ca.kess.games.Constants;
+import ca.kess.games.entities.PhysicalEntity;
+import ca.kess.games.timers.Timer;
+
+/**
+ * A square piece of the level, Constants.CHUNK_SIZE tiles wide. The chunk always exists, but its tiles are
+ * only in memory while it is resident. While a chunk isn't resident, the entities and timers in it are parked
+ * here and don't get updated.
+ */
+public class WorldChunk {
+    private final int mChunkX;
+    private final int mChunkY;
+
+    // The tile ids, row by row. Null when the chunk isn't resident.
+    short[] mTileIds = null;
+
+    // Whether a background load has been started for the chunk.
+    boolean mLoading = false;
+    // Whether the chunk is near the camera, and so must stay resident.
+    boolean mWanted = false;
+    // Whether the chunk has been resident, and then evicted. Entities that wander into an evicted chunk get parked.
+    boolean mEvicted = false;
+    // When the chunk was last wanted, for picking which chunk to evict.
+    long mLastUsed = 0;
+    // The ChunkTileCache slot holding the chunk's static tiles, or -1 if it doesn't have one.
+    int mCacheSlot = -1;
+    // The LightMap version of the chunk when its cache was built.
+    int mCacheLightVersion = -1;
+    // What the chunk's tiles are made of. Only set while the chunk is resident.
+    ChunkMaterials mMaterials = null;
+
+    final List<PhysicalEntity> mParkedEntities = new ArrayList<PhysicalEntity>();
+    final List<Timer> mParkedTimers = new ArrayList<Timer>();
+
+    WorldChunk(int chunkX, int chunkY) {
+        mChunkX = chunkX;
+        mChunkY = chunkY;
+    }
+
+    public int getChunkX() { return mChunkX; }
+    public int getChunkY() { return mChunkY; }
+
+    // The bottom left tile of the chunk.
+    public int getTileX() { return mChunkX * Constants.CHUNK_SIZE; }
+    public int getTileY() { return mChunkY * Constants.CHUNK_SIZE; }
+
+    public boolean isResident() { return mTileIds != null; }
+
+    /**
+     * Whether entities in this chunk should be parked rather than updated.
+     */
+    public boolean isParking() {
+        return mEvicted && mTileIds == null && !mWanted && !mLoading;
+    }
+
+    /**
+     * Whether the point lies in this chunk.
+     */
+    public boolean contains(float x, float y) {
+        int size = Constants.CHUNK_SIZE;
+        return x >= getTileX() && x < getTileX() + size && y >= getTileY() && y < getTileY() + size;
+    }
+}
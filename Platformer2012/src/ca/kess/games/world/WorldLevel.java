@@ -6,64 +6,215 @@ import java.util.List;
 import java.util.Random;
 
 import ca.kess.games.Constants;
+import ca.kess.games.ai.PathService;
+import ca.kess.games.ai.Sensor;
 import ca.kess.games.entities.ActorEntity;
+import ca.kess.games.entities.ContactSolver;
 import ca.kess.games.entities.PhysicalEntity;
+import ca.kess.games.entities.PhysicsStore;
 import ca.kess.games.interfaces.IUpdateable;
+import ca.kess.games.physics.SpatialHashGrid;
 import ca.kess.games.screens.GameScreen;
 import ca.kess.games.timers.DeathFadeTimer;
 import ca.kess.games.timers.Timer;
+import ca.kess.games.util.ParallelLoop;
+import ca.kess.games.util.QuadTree;
 
 import com.badlogic.gdx.Gdx;
-import com.badlogic.gdx.graphics.Pixmap;
 import com.badlogic.gdx.graphics.g2d.Animation;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.graphics.g2d.TextureRegion;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.IntArray;
+
+public class WorldLevel implements IUpdateable, Disposable, ChunkedTileMap.Listener {
+    // A handle that never resolves to an entity. See getHandle.
+    public static final int NO_ENTITY = 0;
 
-public class WorldLevel implements IUpdateable, Disposable {
 	private TileSet mTileSet;
-    private Tile[][] mTiles;
+    private int mWidth;
+    private int mHeight;
+    // Tile ids, paged in and out by chunk. Look the ids up in mTileSet to get the tiles.
+    private ChunkedTileMap mTileMap;
+    // Which tiles block movement. Kept in sync with the tiles, and used for all of the collision checks.
+    private SolidityMap mSolidity;
+    // The state of tiles that have some, like doors.
+    private TileStateMap mTileStates;
+    // Finds routes for the AI, on its own copy of the solidity map.
+    private PathService mPathService;
+    // Where the water and lava are. The fluid tiles in the map only say where it starts out.
+    private FluidSimulation mFluids;
+    // How brightly lit each tile is, by the torches and other lights.
+    private LightMap mLights;
+    // Fluid tiles are drawn as air, with the fluid drawn over them from the simulation.
+    private Tile mAirTile;
+    private AnimatedTile mWaterTile;
+    private AnimatedTile mLavaTile;
+    private final TextureRegion mFluidRegion = new TextureRegion();
+    // Material tables that aren't being used by a resident chunk.
+    private final List<ChunkMaterials> mFreeMaterials = new ArrayList<ChunkMaterials>();
+    // The static tiles of the chunks on screen, kept in video memory. Null if the level is never drawn.
+    private ChunkTileCache mTileCache;
+    // The chunks being drawn this frame.
+    private List<WorldChunk> mVisibleChunks;
     private GameScreen mGame;
-    private List<PhysicalEntity> mGameEntities;
-    private List<PhysicalEntity> mEntitiesToAdd;
-    private List<PhysicalEntity> mEntitiesToRemove;
+    // The entities in the level. Entities added and removed during a tick go in or out at the start of the
+    // next update.
+    private EntityList mEntities;
+    // The physical state of the entities, and the batched physics step.
+    private PhysicsStore mPhysics;
+    // Broadphase over mEntities, kept in sync as entities are added, removed and moved.
+    private SpatialHashGrid mBroadphase;
+    // Pushes solid entities out of each other once they have moved.
+    private ContactSolver mContacts;
+    // Used to find the entities that are on screen.
+    private QuadTree mEntityTree;
+    // Raycasts and line of sight against the tiles and entities.
+    private Sensor mSensor;
+    private List<PhysicalEntity> mVisibleEntities;
     
     private List<Timer> mTimers;
     private List<Timer> mFinishedTimers;
     private Vector2 mGravity;
 
     public WorldLevel(GameScreen game, String mapLocation) {
-        mGameEntities = new LinkedList<PhysicalEntity>();
-        mEntitiesToAdd = new LinkedList<PhysicalEntity>();
-        mEntitiesToRemove = new LinkedList<PhysicalEntity>();
+        this(game, new TileSet(), mapLocation);
+    }
+
+    private WorldLevel(GameScreen game, TileSet tileSet, String mapLocation) {
+        this(openMap(mapLocation, tileSet), tileSet, ParallelLoop.defaultThreads());
+        mGame = game;
+        mTileCache = new ChunkTileCache();
+    }
+
+    /**
+     * A level that is never drawn, for tools that only run it, like the benchmarks. The tile set can be one
+     * without graphics (see TileSet.withoutGraphics).
+     * @param threads How many worker threads the physics and fluids get, on top of the calling thread.
+     */
+    public WorldLevel(ChunkSource source, TileSet tileSet, int threads) {
+        mEntities = new EntityList(new EntityList.Listener() {
+            @Override
+            public void onEntityAdded(PhysicalEntity entity) {
+                mPhysics.setActive(entity, true);
+                mBroadphase.insert(entity);
+                mEntityTree.insert(entity);
+            }
+            @Override
+            public void onEntityRemoved(PhysicalEntity entity) {
+                mPhysics.setActive(entity, false);
+                mBroadphase.remove(entity);
+                mEntityTree.remove(entity);
+            }
+        });
+        mPhysics = new PhysicsStore(threads);
         mTimers = new LinkedList<Timer>();
         mFinishedTimers = new LinkedList<Timer>();
 
-        mTileSet = new TileSet();
+        mTileSet = tileSet;
 
-        mGame = game;
-        Pixmap pixmap = new Pixmap(Gdx.files.internal(mapLocation));
-        mTiles = new Tile[pixmap.getWidth()][pixmap.getHeight()];
-        for(int y = 0; y < pixmap.getHeight(); ++y) {
-            for(int x = 0; x < pixmap.getWidth(); ++x) {
-                int pixelColor = pixmap.getPixel(x, y) >>> 8; //signed shift
-                mTiles[x][pixmap.getHeight() - y - 1] = mTileSet.get(pixelColor);
-                assert mTiles[x][y] != null : "Unknown tile color " + pixelColor + " at " + x + ", " + y;
-            }
-        }
-        pixmap.dispose();
+        mWidth = source.getWidth();
+        mHeight = source.getHeight();
+        mTileMap = new ChunkedTileMap(source);
+        mTileMap.setListener(this);
+
+        // The solidity map is small, so it is kept for the whole level. That way physics works the same
+        // whether or not the tiles are resident.
+        mSolidity = new SolidityMap(mWidth, mHeight);
+        source.readSolidity(mSolidity);
+        mTileStates = new TileStateMap(mWidth, mHeight);
+        mPathService = new PathService(mSolidity);
+        mFluids = new FluidSimulation(mSolidity, threads);
+        mLights = new LightMap(mSolidity);
+        readFluidsAndLights(source);
+        mAirTile = mTileSet.getTile(mTileSet.getId(TileType.AIR.getColor()));
+        mWaterTile = (AnimatedTile) mTileSet.getTile(mTileSet.getId(TileType.WATER.getColor()));
+        mLavaTile = (AnimatedTile) mTileSet.getTile(mTileSet.getId(TileType.LAVA.getColor()));
         mGravity = new Vector2(0, -Constants.GRAVITY);
         mCollisions = new ArrayList<PhysicalEntity>(Constants.MAX_COLLISIONS); 
+        mBroadphase = new SpatialHashGrid(Constants.BROADPHASE_CELL_SIZE, Constants.BROADPHASE_BUCKETS);
+        mSensor = new Sensor(mSolidity, mBroadphase);
+        mContacts = new ContactSolver(mPhysics, mBroadphase);
+        int treeDepth = 0;
+        while((1 << treeDepth) < Math.max(getWidth(), getHeight())) {
+            ++treeDepth;
+        }
+        mEntityTree = new QuadTree(0, 0, 1 << treeDepth, treeDepth);
+        mVisibleEntities = new ArrayList<PhysicalEntity>();
+        mVisibleChunks = new ArrayList<WorldChunk>();
+    }
+
+    private static ChunkSource openMap(String mapLocation, TileSet tileSet) {
+        if(mapLocation.endsWith(".lvl")) {
+            return new MappedChunkSource(Gdx.files.internal(mapLocation), tileSet);
+        }
+        return new PixmapChunkSource(Gdx.files.internal(mapLocation), tileSet);
     }
     
     public Vector2 getGravity() { return mGravity; }
+
+    public PathService getPathService() { return mPathService; }
+
+    public Sensor getSensor() { return mSensor; }
+
+    public FluidSimulation getFluids() { return mFluids; }
+
+    public LightMap getLights() { return mLights; }
+
+    public PhysicsStore getPhysicsStore() { return mPhysics; }
+
+    // Fill the fluid simulation from the fluid tiles of the map, and set up the lights. Only the source's
+    // list of those tiles is read, not the chunks themselves. The light is worked out as chunks are loaded.
+    private void readFluidsAndLights(ChunkSource source) {
+        int size = Constants.CHUNK_SIZE;
+        IntArray features = new IntArray();
+        for(int cy = 0; cy * size < mHeight; ++cy) {
+            for(int cx = 0; cx * size < mWidth; ++cx) {
+                features.clear();
+                source.readFeatures(cx, cy, features);
+                for(int i = 0; i < features.size; i += 2) {
+                    Tile tile = mTileSet.getTile(features.get(i + 1));
+                    if(tile == null || tile.getType() == null) continue;
+                    int x = cx * size + features.get(i) % size;
+                    int y = cy * size + features.get(i) / size;
+                    if(tile.isFluid()) {
+                        mFluids.setLevel(x, y, tile.getType(), FluidSimulation.FULL);
+                    }
+                    if(tile.getType().getLight() > 0) {
+                        mLights.setEmission(x, y, tile.getType().getLight());
+                    }
+                }
+            }
+        }
+    }
     
+    /**
+     * A handle to the entity, to keep instead of the entity itself. Entities are pooled, so a reference to
+     * one that has been recycled points at whatever it is reused as next. A handle resolves to null instead,
+     * in O(1). It is just an int, so it can also be written out or sent as it is.
+     *
+     * The entity must have been initialized into this level. Gives NO_ENTITY for null.
+     */
+    public int getHandle(PhysicalEntity entity) {
+        return entity == null ? NO_ENTITY : entity.getHandle();
+    }
+
+    /**
+     * The entity the handle was made from, or null if it has been recycled since (or the handle is
+     * NO_ENTITY). The entity might be parked, rather than in the level.
+     */
+    public PhysicalEntity getEntity(int handle) {
+        return mPhysics.getEntity(handle);
+    }
+
     public void addEntity(PhysicalEntity entity) {
-        mEntitiesToAdd.add(entity);
+        mEntities.add(entity);
     }
     public void removeEntity(PhysicalEntity entity) {
-        mEntitiesToRemove.add(entity);
+        if(!mEntities.remove(entity)) return;
+        // Entities are pooled, so routes it asked for mustn't go to whatever it is next.
+        mPathService.cancel(entity);
     }
     
     public void addTimer(Timer timer) {
@@ -82,18 +233,98 @@ public class WorldLevel implements IUpdateable, Disposable {
      */
     public List<PhysicalEntity> getCollisions(PhysicalEntity e, boolean forInteraction) {
         mCollisions.clear();
-        
-        for(PhysicalEntity entity : mGameEntities) {
-            if(mCollisions.size() == Constants.MAX_COLLISIONS) break;
-            if(entity != e) {
-                if((!forInteraction || entity.canBeInteractedWith()) && e.collidesWith(entity)) {
+        mCollisionEntity = e;
+        mCollisionForInteraction = forInteraction;
+        mBroadphase.query(e.getPositionX(), e.getPositionY(), e.getWidth(), e.getHeight(), mCollisionVisitor);
+        mCollisionEntity = null;
+		//Gdx.app.log(Constants.LOG, mCollisions.size() + " collisions found");
+        return mCollisions;
+    }
+    // State for mCollisionVisitor, so that getCollisions doesn't need to allocate.
+    private PhysicalEntity mCollisionEntity;
+    private boolean mCollisionForInteraction;
+    private final SpatialHashGrid.Visitor mCollisionVisitor = new SpatialHashGrid.Visitor() {
+        @Override
+        public boolean visit(PhysicalEntity entity) {
+            if(entity != mCollisionEntity) {
+                if((!mCollisionForInteraction || entity.canBeInteractedWith()) && mCollisionEntity.collidesWith(entity)) {
                     mCollisions.add(entity);
                 }
             }
+            return mCollisions.size() < Constants.MAX_COLLISIONS;
         }
-		//Gdx.app.log(Constants.LOG, mCollisions.size() + " collisions found");
+    };
+
+    private final float[] mCollisionTimes = new float[Constants.MAX_COLLISIONS];
+    /**
+     * Get up to Constants.MAX_COLLISIONS entities that e touched while moving in a straight line from
+     * (fromX, fromY) to where it is now, nearest first. This is for fast movers, which can pass right over
+     * an entity between two updates.
+     * The list is reused per call, and shared with getCollisions.
+     */
+    public List<PhysicalEntity> getSweptCollisions(PhysicalEntity e, float fromX, float fromY, boolean forInteraction) {
+        mCollisions.clear();
+        mCollisionEntity = e;
+        mCollisionForInteraction = forInteraction;
+        mSweepFromX = fromX;
+        mSweepFromY = fromY;
+        float x0 = Math.min(fromX, e.getPositionX());
+        float y0 = Math.min(fromY, e.getPositionY());
+        float x1 = Math.max(fromX, e.getPositionX()) + e.getWidth();
+        float y1 = Math.max(fromY, e.getPositionY()) + e.getHeight();
+        mBroadphase.query(x0, y0, x1 - x0, y1 - y0, mSweptCollisionVisitor);
+        mCollisionEntity = null;
         return mCollisions;
     }
+    // State for mSweptCollisionVisitor.
+    private float mSweepFromX;
+    private float mSweepFromY;
+    private final SpatialHashGrid.Visitor mSweptCollisionVisitor = new SpatialHashGrid.Visitor() {
+        @Override
+        public boolean visit(PhysicalEntity entity) {
+            if(entity == mCollisionEntity || (mCollisionForInteraction && !entity.canBeInteractedWith())) {
+                return true;
+            }
+            PhysicalEntity e = mCollisionEntity;
+            // Find when the moving box starts and stops overlapping the entity on each axis.
+            float deltaX = e.getPositionX() - mSweepFromX;
+            float deltaY = e.getPositionY() - mSweepFromY;
+            float enter = 0;
+            float exit = 1;
+            if(deltaX == 0) {
+                if(mSweepFromX >= entity.getPositionX() + entity.getWidth() || mSweepFromX + e.getWidth() < entity.getPositionX()) return true;
+            } else {
+                float t0 = (entity.getPositionX() - (mSweepFromX + e.getWidth())) / deltaX;
+                float t1 = (entity.getPositionX() + entity.getWidth() - mSweepFromX) / deltaX;
+                enter = Math.max(enter, Math.min(t0, t1));
+                exit = Math.min(exit, Math.max(t0, t1));
+            }
+            if(deltaY == 0) {
+                if(mSweepFromY >= entity.getPositionY() + entity.getHeight() || mSweepFromY + e.getHeight() < entity.getPositionY()) return true;
+            } else {
+                float t0 = (entity.getPositionY() - (mSweepFromY + e.getHeight())) / deltaY;
+                float t1 = (entity.getPositionY() + entity.getHeight() - mSweepFromY) / deltaY;
+                enter = Math.max(enter, Math.min(t0, t1));
+                exit = Math.min(exit, Math.max(t0, t1));
+            }
+            if(enter > exit) return true;
+
+            // Keep the nearest hits, in order.
+            int count = mCollisions.size();
+            if(count == Constants.MAX_COLLISIONS) {
+                if(enter >= mCollisionTimes[count - 1]) return true;
+                mCollisions.remove(--count);
+            }
+            int index = count;
+            while(index > 0 && mCollisionTimes[index - 1] > enter) {
+                mCollisionTimes[index] = mCollisionTimes[index - 1];
+                --index;
+            }
+            mCollisionTimes[index] = enter;
+            mCollisions.add(index, entity);
+            return true;
+        }
+    };
     private Random mRandom = new Random();
     //TODO: This should probably be cached in the game entity.
     public void killEntity(PhysicalEntity entity) {
@@ -112,6 +343,8 @@ public class WorldLevel implements IUpdateable, Disposable {
                         animation);
                 particle.setCanBeInteractedWith(false);
                 particle.setBounciness(0.5f);
+                // There can be a lot of these, and they don't do anything but fall, so step them all at once.
+                particle.setBatchedPhysics(true);
                 addEntity(particle);
                 addTimer(new DeathFadeTimer(particle, 3.0f));
             }
@@ -122,15 +355,117 @@ public class WorldLevel implements IUpdateable, Disposable {
     //private Vector2 tmp2 = new Vector2();
     public void render(SpriteBatch b, int leftX, int bottomY, int rightX, int topY) {
         b.setColor(1,1,1,1);
+        mTileSet.getAnimationClock().resolveFrames();
 
-        for(int x = leftX; x < rightX; ++x) {
-            for(int y = bottomY; y < topY; ++y) {
-                mTiles[x][y].render(b, x, y);
+        int size = Constants.CHUNK_SIZE;
+        int lastChunkY = topY > bottomY ? (topY - 1) / size : -1;
+        int lastChunkX = rightX > leftX ? (rightX - 1) / size : -1;
+        mVisibleChunks.clear();
+        for(int cy = bottomY / size; cy <= lastChunkY; ++cy) {
+            for(int cx = leftX / size; cx <= lastChunkX; ++cx) {
+                WorldChunk chunk = mTileMap.getChunk(cx, cy);
+                if(chunk != null) {
+                    mVisibleChunks.add(chunk);
+                }
             }
         }
-        for(PhysicalEntity entity : mGameEntities) {
+
+        // Static tiles come out of the tile cache, which has to be drawn outside of the SpriteBatch.
+        mTileCache.startFrame();
+        boolean anyCached = false;
+        for(WorldChunk chunk : mVisibleChunks) {
+            anyCached |= mTileCache.prepare(chunk, mTileMap.getTileIds(chunk), mTileSet, mLights);
+        }
+        if(anyCached) {
+            b.end();
+            mTileCache.begin(b.getProjectionMatrix());
+            for(WorldChunk chunk : mVisibleChunks) {
+                if(mTileCache.isPrepared(chunk)) {
+                    mTileCache.draw(chunk);
+                }
+            }
+            mTileCache.end();
+            b.begin();
+        }
+
+        for(WorldChunk chunk : mVisibleChunks) {
+            short[] tileIds = mTileMap.getTileIds(chunk);
+            int x0 = Math.max(leftX, chunk.getTileX());
+            int x1 = Math.min(rightX, chunk.getTileX() + size);
+            int y0 = Math.max(bottomY, chunk.getTileY());
+            int y1 = Math.min(topY, chunk.getTileY() + size);
+            if(mTileCache.isPrepared(chunk)) {
+                // Only the tiles that change from frame to frame are left.
+                int[] cells = mTileCache.getDynamicCells(chunk);
+                int count = mTileCache.getDynamicCount(chunk);
+                for(int i = 0; i < count; ++i) {
+                    int x = chunk.getTileX() + (cells[i] % size);
+                    int y = chunk.getTileY() + (cells[i] / size);
+                    if(x >= x0 && x < x1 && y >= y0 && y < y1) {
+                        renderTile(b, mTileSet.getTile(tileIds[cells[i]]), x, y);
+                    }
+                }
+            } else {
+                for(int y = y0; y < y1; ++y) {
+                    int row = (y - chunk.getTileY()) * size - chunk.getTileX();
+                    for(int x = x0; x < x1; ++x) {
+                        Tile tile = mTileSet.getTile(tileIds[row + x]);
+                        if(tile != null) {
+                            renderTile(b, tile, x, y);
+                        }
+                    }
+                }
+            }
+        }
+        renderFluids(b, leftX, bottomY, rightX, topY);
+        // Pad by a tile, so that entities hanging over the edge of the screen are still drawn.
+        mVisibleEntities.clear();
+        mEntityTree.query(leftX - 1, bottomY - 1, rightX - leftX + 2, topY - bottomY + 2, mVisibleEntities);
+        for(PhysicalEntity entity : mVisibleEntities) {
             entity.render(b);
         }
+        b.setColor(1, 1, 1, 1);
+    }
+
+    /**
+     * How bright the light is at a point in the level, from Constants.AMBIENT_LIGHT to 1.
+     */
+    public float getBrightness(float x, float y) {
+        return mLights.getBrightness((int) Math.floor(x), (int) Math.floor(y));
+    }
+
+    private void renderTile(SpriteBatch b, Tile tile, int x, int y) {
+        if(tile.isFluid()) {
+            tile = mAirTile;
+        }
+        b.setColor(mLights.getTint(x, y));
+        if(tile.hasState()) {
+            tile.render(b, x, y, mTileStates.get(x, y));
+        } else {
+            tile.render(b, x, y);
+        }
+    }
+
+    // Draw the fluid in the tiles x0..x1, y0..y1 (exclusive), each filled up to its level.
+    private void renderFluids(SpriteBatch b, int x0, int y0, int x1, int y1) {
+        int size = Constants.CHUNK_SIZE;
+        for(int y = Math.max(0, y0); y < Math.min(mHeight, y1); ++y) {
+            for(int x = Math.max(0, x0); x < Math.min(mWidth, x1); ++x) {
+                if(!mFluids.hasChunk(x / size, y / size)) {
+                    // Skip to the next chunk along.
+                    x = (x / size + 1) * size - 1;
+                    continue;
+                }
+                TileType type = mFluids.getType(x, y);
+                if(type == null) continue;
+                // Show the top of the frame, so the surface stays at the top of the fluid.
+                float fill = mFluids.getFill(x, y);
+                mFluidRegion.setRegion((type == TileType.LAVA ? mLavaTile : mWaterTile).getFrame());
+                mFluidRegion.setV2(mFluidRegion.getV() + (mFluidRegion.getV2() - mFluidRegion.getV()) * fill);
+                b.setColor(mLights.getTint(x, y));
+                b.draw(mFluidRegion, x, y, 0, 0, 1, fill, 1, 1, 0);
+            }
+        }
     }
 
     @Override
@@ -142,26 +477,134 @@ public class WorldLevel implements IUpdateable, Disposable {
             timer.update();
         }
         mFinishedTimers.clear();
-        
-        for(PhysicalEntity entity : mEntitiesToAdd) {
-            mGameEntities.add(entity);
-        }
-        for(PhysicalEntity entity : mEntitiesToRemove) {
-            mGameEntities.remove(entity);
+        mPathService.deliverResults();
+        mFluids.step();
+        if(mFluids.getActiveCount() > 0) {
+            mPhysics.wakeInChangedFluid(mFluids);
         }
-        mEntitiesToAdd.clear();
-        mEntitiesToRemove.clear();
+        
+        mEntities.update();
 
         mTileSet.update();
-        for(PhysicalEntity entity : mGameEntities) {
+        mPhysics.step(this);
+        for(int i = 0; i < mEntities.size(); ++i) {
+            PhysicalEntity entity = mEntities.get(i);
             entity.update();
+            // A sleeping entity hasn't moved since it went to sleep, so there is nothing to update.
+            if(entity.isSleeping()) continue;
+            mBroadphase.update(entity);
+            mEntityTree.update(entity);
+
+            // Entities that wander into a part of the level that has been paged out get parked there.
+            WorldChunk chunk = mTileMap.getChunkAt(entity.getPositionX() + entity.getWidth() / 2, entity.getPositionY() + entity.getHeight() / 2);
+            if(chunk != null && chunk.isParking()) {
+                parkEntity(entity, chunk);
+            }
+        }
+        mContacts.solve(this);
+        for(int i = 0; i < mContacts.getMovedCount(); ++i) {
+            PhysicalEntity entity = mContacts.getMoved(i);
+            mBroadphase.update(entity);
+            mEntityTree.update(entity);
         }
     }
     
     public Tile getTile(int x, int y) {
-        if(x < 0 || x >= mTiles.length) return null;
-        if(y < 0 || y >= mTiles[x].length) return null;
-        return mTiles[x][y];
+        return mTileSet.getTile(getTileId(x, y));
+    }
+
+    /**
+     * Get the id of the tile at x, y, or -1 if the position is outside the level.
+     */
+    public int getTileId(int x, int y) {
+        return mTileMap.getTileId(x, y);
+    }
+
+    public boolean isSolid(int x, int y) {
+        return mSolidity.isSolid(x, y);
+    }
+
+    /**
+     * Have the entity interact with the tile at x, y (for example, to open a door). Use this rather than
+     * calling Tile.onInteraction directly, so the level can update anything that depends on the tile.
+     */
+    public boolean interactWithTile(int x, int y, PhysicalEntity entity) {
+        Tile tile = getTile(x, y);
+        if(tile == null) {
+            return false;
+        }
+        boolean interacted = tile.onInteraction(entity, mTileStates, x, y);
+        // Only the tile's state can have changed, which is kept here rather than in the chunk, so the chunk
+        // can still be paged out.
+        boolean solid = tile.blocksMovement(mTileStates.get(x, y));
+        if(solid != mSolidity.isSolid(x, y)) {
+            mSolidity.setSolid(x, y, solid);
+            mPathService.tileChanged(x, y, solid);
+            mFluids.wake(x, y);
+            mLights.opacityChanged(x, y);
+            // Anything resting on or against the tile might fall or be pushed now.
+            mPhysics.wakeTiles(x - 1, y - 1, x + 1, y + 1);
+        }
+        WorldChunk chunk = mTileMap.getChunkAt(x, y);
+        if(chunk.mMaterials != null) {
+            chunk.mMaterials.updateMaterial(x - chunk.getTileX(), y - chunk.getTileY(), ChunkMaterials.pack(tile, solid));
+        }
+        return interacted;
+    }
+
+    /**
+     * Page in the part of the level around the point, and page out parts that haven't been used recently.
+     * Call once a frame with wherever the camera is looking.
+     */
+    public void updateStreaming(float focusX, float focusY) {
+        mTileMap.update(focusX, focusY);
+    }
+
+    @Override
+    public void onChunkLoaded(WorldChunk chunk) {
+        buildMaterials(chunk);
+        mLights.chunkLoaded(chunk.getChunkX(), chunk.getChunkY());
+        for(PhysicalEntity entity : chunk.mParkedEntities) {
+            // Forces may have been applied while it was parked. They were never meant to build up.
+            entity.resetForces();
+            addEntity(entity);
+        }
+        for(Timer timer : chunk.mParkedTimers) {
+            addTimer(timer);
+        }
+        chunk.mParkedEntities.clear();
+        chunk.mParkedTimers.clear();
+    }
+
+    @Override
+    public void onChunkEvicted(WorldChunk chunk) {
+        if(mTileCache != null) {
+            mTileCache.release(chunk);
+        }
+        mLights.chunkEvicted(chunk.getChunkX(), chunk.getChunkY());
+        if(chunk.mMaterials != null) {
+            mFreeMaterials.add(chunk.mMaterials);
+            chunk.mMaterials = null;
+        }
+        for(int i = 0; i < mEntities.size(); ++i) {
+            PhysicalEntity entity = mEntities.get(i);
+            if(chunk.contains(entity.getPositionX() + entity.getWidth() / 2, entity.getPositionY() + entity.getHeight() / 2)) {
+                parkEntity(entity, chunk);
+            }
+        }
+    }
+
+    // Take the entity, and any timers running on it, out of the world until the chunk is loaded again.
+    private void parkEntity(PhysicalEntity entity, WorldChunk chunk) {
+        if(mEntities.isRemoving(entity)) return;
+        removeEntity(entity);
+        chunk.mParkedEntities.add(entity);
+        for(Timer timer : mTimers) {
+            if(timer.getEntity() == entity && !mFinishedTimers.contains(timer)) {
+                removeTimer(timer);
+                chunk.mParkedTimers.add(timer);
+            }
+        }
     }
     
     /**
@@ -177,17 +620,147 @@ public class WorldLevel implements IUpdateable, Disposable {
     
     
     public float getPenetrationDepthX(Vector2 oldPosition, float deltaX, Vector2 AABB) {
+        return getPenetrationDepthX(oldPosition.x, oldPosition.y, deltaX, AABB.x, AABB.y);
+    }
+    public float getPenetrationDepthX(float oldX, float oldY, float deltaX, float width, float height) {
+        if(deltaX == 0) return 0;
+        float xLeft, xRight, yBottom, yTop;
+        yBottom = oldY;
+        yTop = oldY + height;
+        
+        if(deltaX < 0) {
+            xLeft = oldX + deltaX;
+            xRight = oldX;
+        } else {
+            xLeft = oldX + width;
+            xRight = oldX + width + deltaX;
+        }
+        
+        //Only the nearest solid column matters, so ask the solidity map for it rather than testing each tile.
+        boolean left = deltaX < 0;
+        int x = mSolidity.findSolidColumn(firstTile(xLeft), lastTile(xRight), firstTile(yBottom), lastTile(yTop), left);
+        float result = deltaX;
+        if(x >= 0) {
+            if(left) {
+                result = Math.max(deltaX, (x+1) - xRight);
+            } else {
+                result = Math.min(deltaX, x - xLeft);
+            }
+        }
+        assert result == scanPenetrationDepthX(oldX, oldY, deltaX, width, height) : "Bitmask sweep disagrees with tile scan";
+        return result;
+    }
+    public float getPenetrationDepthY(Vector2 oldPosition, float deltaY, Vector2 AABB) {
+        return getPenetrationDepthY(oldPosition.x, oldPosition.y, deltaY, AABB.x, AABB.y);
+    }
+    public float getPenetrationDepthY(float oldX, float oldY, float deltaY, float width, float height) {
+        if(deltaY == 0) return 0;
+        //Find the dimensions of the box carved out by the motion.
+        float xLeft, xRight, yBottom, yTop;
+        xLeft = oldX;
+        xRight = oldX + width;
+        
+        if(deltaY < 0) {
+            yBottom = oldY + deltaY;
+            yTop = oldY;
+        } else {
+            yBottom = oldY + height;
+            yTop = oldY + height + deltaY;
+        }
+        
+        boolean down = deltaY < 0;
+        int y = mSolidity.findSolidRow(firstTile(xLeft), lastTile(xRight), firstTile(yBottom), lastTile(yTop), down);
+        float result = deltaY;
+        if(y >= 0) {
+            if(down) {
+                result = Math.max(deltaY, (y+1) - yTop);
+            } else {
+                result = Math.min(deltaY, y - yBottom);
+            }
+        }
+        assert result == scanPenetrationDepthY(oldX, oldY, deltaY, width, height) : "Bitmask sweep disagrees with tile scan";
+        return result;
+    }
+
+    // The first tile that a span starting at position touches.
+    private static int firstTile(float position) {
+        return (int) Math.floor(position);
+    }
+
+    // The last tile that a span ending at position touches. A span that ends exactly on a tile edge doesn't
+    // touch the tile after the edge.
+    private static int lastTile(float position) {
+        double floor = Math.floor(position);
+        return floor == position ? (int) floor - 1 : (int) floor;
+    }
+
+    /**
+     * Sweep the rectangle at position along (deltaX, deltaY), and see how far along the move it gets before
+     * touching a solid tile: 0 if it can't move at all, 1 if nothing is in the way.
+     *
+     * Unlike getPenetrationDepthX/Y this follows the diagonal, so fast movers can't clip the corners of
+     * tiles that the two separate axis sweeps would step around.
+     */
+    public float sweepTiles(Vector2 position, Vector2 AABB, float deltaX, float deltaY) {
+        return sweepTiles(position.x, position.y, AABB.x, AABB.y, deltaX, deltaY);
+    }
+    public float sweepTiles(float x, float y, float width, float height, float deltaX, float deltaY) {
+        if(deltaX == 0 && deltaY == 0) return 1;
+        //Walk the grid lines that the leading edges cross, in the order they cross them (a DDA walk). Each
+        //crossing brings one new column or row of tiles under the rectangle, and only that strip needs testing.
+        float edgeX = deltaX > 0 ? x + width : x;
+        float edgeY = deltaY > 0 ? y + height : y;
+        int lineX = deltaX > 0 ? (int) Math.ceil(edgeX) : (int) Math.floor(edgeX);
+        int lineY = deltaY > 0 ? (int) Math.ceil(edgeY) : (int) Math.floor(edgeY);
+        float timeX = deltaX != 0 ? (lineX - edgeX) / deltaX : Float.POSITIVE_INFINITY;
+        float timeY = deltaY != 0 ? (lineY - edgeY) / deltaY : Float.POSITIVE_INFINITY;
+        while(true) {
+            if(timeX <= timeY) {
+                if(timeX >= 1) return 1;
+                int column = deltaX > 0 ? lineX : lineX - 1;
+                float bottom = y + deltaY * timeX;
+                if(mSolidity.findSolidColumn(column, column, firstTileMoving(bottom, deltaY), lastTileMoving(bottom + height, deltaY), false) >= 0) {
+                    return timeX;
+                }
+                lineX += deltaX > 0 ? 1 : -1;
+                timeX = (lineX - edgeX) / deltaX;
+            } else {
+                if(timeY >= 1) return 1;
+                int row = deltaY > 0 ? lineY : lineY - 1;
+                float left = x + deltaX * timeY;
+                if(mSolidity.findSolidRow(firstTileMoving(left, deltaX), lastTileMoving(left + width, deltaX), row, row, false) >= 0) {
+                    return timeY;
+                }
+                lineY += deltaY > 0 ? 1 : -1;
+                timeY = (lineY - edgeY) / deltaY;
+            }
+        }
+    }
+
+    // The first tile that a span starting at position touches just after it moves in the direction of delta.
+    private static int firstTileMoving(float position, float delta) {
+        return delta < 0 ? (int) Math.ceil(position) - 1 : (int) Math.floor(position);
+    }
+
+    // The last tile that a span ending at position touches just after it moves in the direction of delta.
+    private static int lastTileMoving(float position, float delta) {
+        return delta > 0 ? (int) Math.floor(position) : (int) Math.ceil(position) - 1;
+    }
+
+    // The original tile by tile versions of getPenetrationDepthX/Y. These are only used (when assertions are
+    // enabled) to check that the bitmask versions give exactly the same answers.
+    private float scanPenetrationDepthX(float oldX, float oldY, float deltaX, float width, float height) {
         if(deltaX == 0) return 0;
         float xLeft, xRight, yBottom, yTop;
-        yBottom = oldPosition.y;
-        yTop = oldPosition.y + AABB.y;
+        yBottom = oldY;
+        yTop = oldY + height;
         
         if(deltaX < 0) {
-            xLeft = oldPosition.x + deltaX;
-            xRight = oldPosition.x;
+            xLeft = oldX + deltaX;
+            xRight = oldX;
         } else {
-            xLeft = oldPosition.x + AABB.x;
-            xRight = oldPosition.x + AABB.x + deltaX;
+            xLeft = oldX + width;
+            xRight = oldX + width + deltaX;
         }
         
         
@@ -212,8 +785,7 @@ public class WorldLevel implements IUpdateable, Disposable {
         
         for(int x = x0; x <= x1; ++x) {
             for(int y = y0; y <= y1; ++y) {
-                Tile tile = getTile(x,y);
-                if(tile != null && tile.blocksMovement()) {
+                if(mSolidity.isSolid(x, y)) {
                     if(left) {
                         float newDelta = (x+1) - xRight;
                         deltaX = Math.max(deltaX, newDelta);
@@ -227,19 +799,19 @@ public class WorldLevel implements IUpdateable, Disposable {
         
         return deltaX;
     }
-    public float getPenetrationDepthY(Vector2 oldPosition, float deltaY, Vector2 AABB) {
+    private float scanPenetrationDepthY(float oldX, float oldY, float deltaY, float width, float height) {
         if(deltaY == 0) return 0;
         //Find the dimensions of the box carved out by the motion.
         float xLeft, xRight, yBottom, yTop;
-        xLeft = oldPosition.x;
-        xRight = oldPosition.x + AABB.x;
+        xLeft = oldX;
+        xRight = oldX + width;
         
         if(deltaY < 0) {
-            yBottom = oldPosition.y + deltaY;
-            yTop = oldPosition.y;
+            yBottom = oldY + deltaY;
+            yTop = oldY;
         } else {
-            yBottom = oldPosition.y + AABB.y;
-            yTop = oldPosition.y + AABB.y + deltaY;
+            yBottom = oldY + height;
+            yTop = oldY + height + deltaY;
         }
         
         //Figure out the bounds of the boxes that we are touching.
@@ -261,8 +833,7 @@ public class WorldLevel implements IUpdateable, Disposable {
         boolean down = deltaY < 0;
         for(int x = x0; x <= x1; ++x) {
             for(int y = y0; y <= y1; ++y) {
-                Tile tile = getTile(x,y);
-                if(tile != null && tile.blocksMovement()) {
+                if(mSolidity.isSolid(x, y)) {
                     if(down) {
                         float newDelta = (y+1) - yTop;
                         deltaY = Math.max(deltaY, newDelta);
@@ -276,25 +847,97 @@ public class WorldLevel implements IUpdateable, Disposable {
         return deltaY;
     }
 
+    // Fill in the material tables for a chunk that has just been loaded.
+    private void buildMaterials(WorldChunk chunk) {
+        ChunkMaterials materials;
+        if(mFreeMaterials.isEmpty()) {
+            materials = new ChunkMaterials();
+        } else {
+            materials = mFreeMaterials.remove(mFreeMaterials.size() - 1);
+        }
+        short[] tileIds = chunk.mTileIds;
+        int size = Constants.CHUNK_SIZE;
+        for(int y = 0; y < size; ++y) {
+            for(int x = 0; x < size; ++x) {
+                Tile tile = mTileSet.getTile(tileIds[y * size + x]);
+                // The solidity map already takes the state of doors and the like into account.
+                boolean solid = mSolidity.isSolid(chunk.getTileX() + x, chunk.getTileY() + y);
+                materials.setMaterial(x, y, ChunkMaterials.pack(tile, solid));
+            }
+        }
+        materials.rebuild();
+        chunk.mMaterials = materials;
+    }
+
+    // Total up one material over the tiles x0..x1, y0..y1 (inclusive). Parts of the rectangle that aren't
+    // resident are left out. This only reads the level, so the physics can call it from more than one thread.
+    private int sumMaterial(int channel, int x0, int y0, int x1, int y1) {
+        x0 = Math.max(x0, 0);
+        y0 = Math.max(y0, 0);
+        x1 = Math.min(x1, mWidth - 1);
+        y1 = Math.min(y1, mHeight - 1);
+        if(x0 > x1 || y0 > y1) return 0;
+        int size = Constants.CHUNK_SIZE;
+        int sum = 0;
+        for(int cy = y0 / size; cy <= y1 / size; ++cy) {
+            for(int cx = x0 / size; cx <= x1 / size; ++cx) {
+                WorldChunk chunk = mTileMap.getChunk(cx, cy);
+                if(chunk == null || chunk.mMaterials == null) continue;
+                int left = chunk.getTileX();
+                int bottom = chunk.getTileY();
+                sum += chunk.mMaterials.getSum(channel, Math.max(x0, left) - left, Math.max(y0, bottom) - bottom,
+                        Math.min(x1, left + size - 1) - left, Math.min(y1, bottom + size - 1) - bottom);
+            }
+        }
+        return sum;
+    }
+
     // Returns the coefficient of friction for the entity, by taking the average
-    // friction of the area beneath the entity.
+    // friction of the solid tiles in the row just beneath it.
+    // This, the penetration depths, sweepTiles and getSubmergedFraction only read the level, so the physics
+    // can call them from worker threads (as long as the tiles and fluids aren't changing at the same time).
     public float getFriction(Vector2 mPosition, Vector2 mAABB) {
-        //TODO: implement me
-        return Constants.DUMMY_FRICTION;
+        return getFriction(mPosition.x, mPosition.y, mAABB.x);
+    }
+    public float getFriction(float x, float y, float width) {
+        int row = lastTile(y);
+        int solid = sumMaterial(ChunkMaterials.SOLID, firstTile(x), row, lastTile(x + width), row);
+        if(solid == 0) {
+            return Constants.DUMMY_FRICTION;
+        }
+        int friction = sumMaterial(ChunkMaterials.FRICTION, firstTile(x), row, lastTile(x + width), row);
+        return friction / (float) (solid * ChunkMaterials.FRICTION_SCALE);
+    }
+
+    /**
+     * How much of the rectangle is under water or lava, from 0 to 1.
+     */
+    public float getSubmergedFraction(Vector2 position, Vector2 AABB) {
+        return getSubmergedFraction(position.x, position.y, AABB.x, AABB.y);
+    }
+    public float getSubmergedFraction(float x, float y, float width, float height) {
+        return mFluids.getSubmergedFraction(x, y, width, height);
     }
     
 	@Override
 	public void dispose() {
-		for(PhysicalEntity entity : mGameEntities) {
-			entity.dispose();
+		for(int i = 0; i < mEntities.size(); ++i) {
+			mEntities.get(i).dispose();
+		}
+		mTileMap.dispose();
+		if(mTileCache != null) {
+		    mTileCache.dispose();
 		}
+		mPathService.dispose();
+		mFluids.dispose();
+		mPhysics.dispose();
 	}
 
 	public int getWidth() {
-		return mTiles.length;
+		return mWidth;
 	}
 	public int getHeight() {
-		return mTiles[0].length;
+		return mHeight;
 	}
 
 